@@ -5,58 +5,139 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Observable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.ChangeSet;
+import de.malbertz.calendar2.DayCounts;
+import de.malbertz.calendar2.EntryFilter;
+import de.malbertz.calendar2.FilteredEntries;
+import de.malbertz.calendar2.Frame;
+import de.malbertz.calendar2.FreeBusyQuery;
+import de.malbertz.calendar2.SearchQuery;
+import de.malbertz.calendar2.SearchResult;
 import de.malbertz.calendar2.ServerCommand;
 import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.SessionToken;
+import de.malbertz.calendar2.SnapshotCursor;
+import de.malbertz.calendar2.SnapshotPage;
+import de.malbertz.calendar2.TimeRanges;
+import de.malbertz.calendar2.util.Compression;
+import de.malbertz.calendar2.util.EntryCodec;
+import de.malbertz.calendar2.util.EntryCodec.Snapshot;
 import de.malbertz.calendar2.util.SerializationUtils;
 
 /**
  * This class implements the Client for the application.
- * 
+ * <p>
+ * After the authentication a supervisor thread reads everything the server
+ * sends. If the connection drops the client goes {@link ClientState#OFFLINE}
+ * and the supervisor reconnects with a jittered exponential backoff. It
+ * resumes the session with the {@link SessionToken} issued by the server or
+ * logs in again with the credentials. Commands sent while offline are queued
+ * and sent once the client is back. On every connect the client negotiates
+ * that the server sends large commands compressed, see {@link Frame}.
+ * <p>
+ * The last data received is kept in an {@link EntryCache}, so the entries
+ * are available right after the login. After every (re)connect the client
+ * only requests the changes since the version it knows. All data is requested
+ * only if the server can't tell those changes anymore. It arrives as the
+ * server stored it, or in {@link SnapshotPage}s that are requested one after
+ * another if the stored data isn't current. The first page is shown right
+ * away if nothing was cached.
+ * <p>
+ * The observers are notified with the new list of entries whenever it changed
+ * on the server, with the {@link ClientState} if the connection was lost or
+ * restored, with the {@link DayCounts} requested by
+ * {@link #requestDayCounts(LocalDate, LocalDate)}, with the
+ * {@link SearchResult} of a {@link #search(String, int, int) search}, with the
+ * {@link TimeRanges} of a free/busy request, with the
+ * {@link Command#CONFLICTS} command if an entry overlaps others, and without
+ * argument if the client was closed.
+ *
  * @author Michael Albertz
  *
  */
 public class Client extends Observable {
 
    private static final Logger log = LogManager.getLogger(Client.class);
+   /** The interval in milliseconds between two heartbeats */
+   private static final int HEARTBEAT_INTERVAL = 15000;
+   /** The time in milliseconds without any data until the connection is dead */
+   private static final int READ_TIMEOUT = 3 * HEARTBEAT_INTERVAL;
+   /** The delay in milliseconds before the first reconnect */
+   private static final long MIN_BACKOFF = 500;
+   /** The maximum delay in milliseconds between two reconnects */
+   private static final long MAX_BACKOFF = 60000;
    /** The socket used by the client */
-   private Socket socket;
+   private volatile Socket socket;
    /**
     * The OutputStream used by the client.
-    * 
+    *
     * @see java.io.ObjectOutputStream
     */
-   private ObjectOutputStream out;
+   private volatile ObjectOutputStream out;
    /**
     * The InputStream used by the client.
-    * 
+    *
     * @see java.io.ObjectInputStream
     */
-   private ObjectInputStream in;
+   private volatile ObjectInputStream in;
    /**
     * The state the client is currently at.
-    * 
+    *
     * @see de.malbertz.calendar.client.core.Client.ClientState
     */
-   private ClientState state;
+   private volatile ClientState state;
    /** The port the socket is connected to. */
    private int port;
    /** The hostname of the server the socket is connected to. */
    private String hostName;
    /**
     * A {@link List} containing {@link CalendarEntry} objects that holds the
-    * entrys that were received while authenticating.
+    * entrys that were received from the server or loaded from the cache. It
+    * is replaced, never modified.
     */
-   private List<CalendarEntry> list;
+   private volatile List<CalendarEntry> list;
+   /** The version of the entries in {@link #list}, -1 if unknown. */
+   private volatile long dataVersion = -1;
+   /** Determines if {@link #list} is up to date with the server. */
+   private volatile boolean synced;
+   /** Determines if the changes were requested and not yet received. */
+   private boolean resyncRequested;
+   /** The entries of the running download of all data, null if none. */
+   private List<CalendarEntry> download;
+   /** The version of the entries of the running download. */
+   private long downloadVersion;
+   /** The local cache of the entries. */
+   private EntryCache cache;
    /** The authenticated username of the client. */
    private String userName;
+   /** The password to log in again if the session can't be resumed. */
+   private String password;
+   /** The token of the current session, null if there is none. */
+   private SessionToken session;
+   /** The commands sent but not yet acknowledged by the server. */
+   private final Deque<ServerCommand> unacked = new ArrayDeque<>();
+   /** The commands issued while offline. */
+   private final Deque<ServerCommand> pending = new ArrayDeque<>();
+   /** Guards the output stream and the command queues. */
+   private final Object sendLock = new Object();
+   /** Incremented on every disconnect to stop the threads of a connection. */
+   private final AtomicInteger generation = new AtomicInteger();
 
    /*
     * Creates an unconnected client.
@@ -69,15 +150,15 @@ public class Client extends Observable {
     * Creates a client, connects it to the specified port number on the named
     * host, tries to authenticate it.
     * <p>
-    * After the authentication was successful, the client will request the data
-    * stored for the authenticated user. If the data was successfully received
-    * it will be stored in a list that can be accessed by calling
-    * {@link #getList()}.
+    * After the authentication was successful, the client will load the data
+    * cached for the authenticated user to a list that can be accessed by
+    * calling {@link #getList()}. The list is empty if there is no cache.
     * <p>
-    * After that the client will start a heartbeat thread that sends a heartbeat
-    * every 15 seconds and waits for a response. If no response was received or
-    * the heartbeat fails in any other way, the client will be closed.
-    * 
+    * After that the client starts the supervisor thread, which brings the
+    * list up to date and keeps the connection alive, and a heartbeat thread
+    * that sends a heartbeat every 15 seconds. If no data was received for 45
+    * seconds the connection is considered lost.
+    *
     * @param hostName
     *           the hostname of the server to connect to
     * @param port
@@ -95,21 +176,27 @@ public class Client extends Observable {
       if (state == ClientState.NOT_CONNECTED) {
          this.hostName = hostName;
          this.port = port;
-         this.socket = new Socket(hostName, port);
-
-         out = new ObjectOutputStream(socket.getOutputStream());
-         in = new ObjectInputStream(socket.getInputStream());
-
-         state = ClientState.CONNECTED;
+         synchronized (sendLock) {
+            unacked.clear();
+            pending.clear();
+         }
+         open();
 
          // Authentication
          authenticate(name, password);
 
-         // request saved data
-         requestData();
-
          if (state == ClientState.AUTHENTICATED) {
-            Thread heartbeat = new Thread(new HeartBeat());
+            this.password = password;
+            // show cached data until the server sent the current one
+            loadCache();
+
+            int current = generation.get();
+            Thread supervisor = new Thread(new Supervisor(current),
+                  "Client-Supervisor");
+            supervisor.setDaemon(true);
+            supervisor.start();
+            Thread heartbeat = new Thread(new HeartBeat(current),
+                  "Client-HeartBeat");
             heartbeat.setDaemon(true);
             heartbeat.start();
          }
@@ -117,12 +204,72 @@ public class Client extends Observable {
       }
    }
 
+   /**
+    * This method opens a new connection to the server and sets the client
+    * {@link #state} to {@link ClientState#CONNECTED}.
+    *
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   private void open() throws IOException {
+      socket = new Socket(hostName, port);
+      // neither the stream header nor the negotiation may block forever
+      socket.setSoTimeout(READ_TIMEOUT);
+      out = new ObjectOutputStream(socket.getOutputStream());
+      in = new ObjectInputStream(socket.getInputStream());
+      state = ClientState.CONNECTED;
+      negotiate();
+   }
+
+   /**
+    * This method negotiates with the server that large commands are sent
+    * compressed.
+    *
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   private void negotiate() throws IOException {
+      send(new ServerCommand(Command.NEGOTIATE,
+            new String[] { Compression.DEFLATE }));
+      try {
+         Object obj = read();
+         if (obj instanceof ServerCommand
+               && ((ServerCommand) obj).getCommand() == Command.NEGOTIATE) {
+            log.info("Server compresses with: "
+                  + Arrays.toString((String[]) ((ServerCommand) obj)
+                        .getArgument()));
+         } else {
+            log.warn("Unexpected answer to the negotiation: " + obj);
+         }
+      } catch (ClassNotFoundException e) {
+         log.fatal("Class of a serialized object cannot be found.", e);
+      }
+   }
+
+   /**
+    * This method reads the next object the server sends and unpacks it if it
+    * is a {@link Frame}.
+    *
+    * @return the object
+    * @throws IOException
+    *            if an I/O error occurs
+    * @throws ClassNotFoundException
+    *            if the Class of a serialized object cannot be found
+    */
+   private Object read() throws IOException, ClassNotFoundException {
+      Object obj = in.readObject();
+      if (obj instanceof Frame) {
+         return ((Frame) obj).getCommand();
+      }
+      return obj;
+   }
+
    /**
     * This method tries to authenticate the client.
     * <p>
     * If the authentication was successful the client {@link #state} will be set
     * to {@link ClientState#AUTHENTICATED}.
-    * 
+    *
     * @param name
     *           the username to authenticate with
     * @param password
@@ -132,16 +279,39 @@ public class Client extends Observable {
     */
    private void authenticate(String name, String password) throws IOException {
       send(new String[] { name, password });
+      if (readAuthentication()) {
+         userName = name;
+      }
+   }
+
+   /**
+    * This method reads the response of the server to an authentication or
+    * resumption.
+    * <p>
+    * If the server confirmed it the new {@link #session} is read and the
+    * client {@link #state} will be set to {@link ClientState#AUTHENTICATED}.
+    *
+    * @return was the client authenticated
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   private boolean readAuthentication() throws IOException {
       try {
          Object obj;
          if (state == ClientState.CONNECTED) {
-            if ((obj = in.readObject()) != null) {
+            if ((obj = read()) != null) {
                if (Boolean.class.isInstance(obj)) {
                   log.info("Received from server: " + obj);
                   if ((boolean) obj == true) {
+                     obj = read();
+                     if (obj instanceof ServerCommand
+                           && ((ServerCommand) obj).getCommand() == Command.SESSION) {
+                        session = (SessionToken) ((ServerCommand) obj)
+                              .getArgument();
+                     }
                      state = ClientState.AUTHENTICATED;
-                     userName = name;
                      log.info("Client is authenticated");
+                     return true;
                   }
                }
             }
@@ -149,56 +319,549 @@ public class Client extends Observable {
       } catch (ClassNotFoundException e) {
          log.fatal("Class of a serialized object cannot be found.", e);
       }
+      return false;
    }
 
    /**
-    * Requests the data stored for the authenticated user.
+    * This method tries to reconnect after the connection dropped.
     * <p>
-    * If the client {@link #state} is not {@link ClientState#AUTHENTICATED} its
-    * a noop.
-    * 
+    * It resumes the session with the token of the last session if there is
+    * one and logs in with the credentials otherwise. If the server rejects
+    * the credentials the client is closed.
+    *
+    * @return was the client authenticated again
+    */
+   private boolean reconnect() {
+      try {
+         open();
+         if (session != null) {
+            SessionToken token = session;
+            session = null;
+            send(new ServerCommand(Command.RESUME, token));
+            if (readAuthentication()) {
+               log.info("Resumed session");
+               return true;
+            }
+            log.info("Server rejected the session token");
+         }
+         send(new String[] { userName, password });
+         if (readAuthentication()) {
+            log.info("Logged in again");
+            return true;
+         }
+         log.error("Server rejected the credentials of " + userName);
+         disconnect();
+      } catch (IOException e) {
+         log.info("Failed to reconnect: " + e.getMessage());
+         closeSocket();
+         state = ClientState.OFFLINE;
+      }
+      return false;
+   }
+
+   /**
+    * This method loads the cached entries of the authenticated user to
+    * {@link #list}. If the cached version matches the version of the session
+    * the list is already up to date.
+    */
+   private void loadCache() {
+      cache = new EntryCache(hostName, port, userName);
+      Snapshot snapshot = cache.load();
+      if (snapshot != null) {
+         list = snapshot.getEntries();
+         dataVersion = snapshot.getVersion();
+         log.info("Loaded " + list.size() + " cached entries of version "
+               + dataVersion);
+      } else {
+         list = new ArrayList<>();
+         dataVersion = -1;
+      }
+      synced = session != null && session.getVersion() == dataVersion;
+      resyncRequested = false;
+      download = null;
+   }
+
+   /**
+    * This method reads and dispatches everything the server sends until the
+    * connection is lost. First it requests the changes since the known
+    * version, unless the list is up to date already.
+    *
+    * @param current
+    *           the generation of the connection
     * @throws IOException
     *            if an I/O error occurs
+    * @throws ClassNotFoundException
+    *            if the Class of a serialized object cannot be found
     */
-   private void requestData() throws IOException {
-      if (state != ClientState.AUTHENTICATED) {
+   private void receive(int current) throws IOException,
+         ClassNotFoundException {
+      if (synced) {
+         flushPending();
+      } else {
+         requestChanges();
+      }
+      while (generation.get() == current) {
+         dispatch(read());
+      }
+   }
+
+   /**
+    * This method handles an object received from the server.
+    *
+    * @param obj
+    *           the received object
+    * @throws IOException
+    *            if an I/O error occurs while answering
+    */
+   private void dispatch(Object obj) throws IOException {
+      if (obj instanceof ServerCommand) {
+         ServerCommand command = (ServerCommand) obj;
+         switch (command.getCommand()) {
+         case HEARTBEAT:
+            log.debug("Heartbeat received: " + command);
+            break;
+         case ACK:
+            acknowledged((Long) command.getArgument());
+            break;
+         case CHANGES:
+            receivedChanges((ChangeSet) command.getArgument());
+            break;
+         case SNAPSHOT_PAGE:
+            receivedPage((SnapshotPage) command.getArgument());
+            break;
+         case SNAPSHOT_DOWNLOAD:
+            receivedDownload((Long) command.getArgument());
+            break;
+         case NOT_MODIFIED:
+            log.info("Data of version " + command.getArgument()
+                  + " is up to date");
+            if (!synced) {
+               cache.store(EntryCodec.encode(dataVersion, list));
+            }
+            resynchronized();
+            break;
+         case DAY_COUNTS:
+            setChanged();
+            notifyObservers(command.getArgument());
+            break;
+         case CONFLICTS:
+         case REMINDER:
+            setChanged();
+            notifyObservers(command);
+            break;
+         case SEARCH_RESULT:
+         case FILTERED:
+         case BUSY_TIMES:
+         case FREE_SLOTS:
+            setChanged();
+            notifyObservers(command.getArgument());
+            break;
+         default:
+            log.warn("Unexpected command from server: " + command);
+         }
+      } else {
+         log.warn("Unknown object received: " + obj);
+      }
+   }
+
+   /**
+    * This method requests the changes since the version of {@link #list}, or
+    * all data if the version is unknown.
+    *
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   private void requestChanges() throws IOException {
+      resyncRequested = true;
+      if (dataVersion < 0) {
+         requestAll();
+      } else {
+         send(new ServerCommand(Command.REQUEST_CHANGES, dataVersion));
+      }
+   }
+
+   /**
+    * This method requests all data from the server. A download that was
+    * interrupted by a reconnect is continued where it stopped, the server
+    * starts over if the data changed since. Otherwise the data is downloaded
+    * as the server stored it, or in pages if the stored data isn't current.
+    * If the version of {@link #list} is known the server only sends the data
+    * if it has another version.
+    *
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   private void requestAll() throws IOException {
+      resyncRequested = true;
+      if (download != null) {
+         send(new ServerCommand(Command.REQUEST_ALL, new SnapshotCursor(
+               downloadVersion, download.size())));
+      } else if (dataVersion >= 0) {
+         send(new ServerCommand(Command.SNAPSHOT_DOWNLOAD, dataVersion));
+      } else {
+         send(new ServerCommand(Command.SNAPSHOT_DOWNLOAD, null, null));
+      }
+   }
+
+   /**
+    * This method reads all data the server sends after a
+    * {@link Command#SNAPSHOT_DOWNLOAD}, replaces the list with it and stores
+    * it in the cache.
+    *
+    * @param size
+    *           the number of bytes of the data
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   private void receivedDownload(long size) throws IOException {
+      byte[] encoded = new byte[(int) size];
+      // the data follows the command as block data, before any other object
+      in.readFully(encoded);
+      Snapshot snapshot;
+      try {
+         snapshot = EntryCodec.decode(encoded);
+      } catch (IOException e) {
+         log.fatal("Can't decode received entries", e);
          return;
       }
-      list = new ArrayList<>();
-      send(new ServerCommand(Command.REQUEST_ALL, null, null));
+      list = snapshot.getEntries();
+      dataVersion = snapshot.getVersion();
+      download = null;
+      cache.store(encoded);
+      log.info("Received " + list.size() + " entries of version "
+            + dataVersion);
+      resynchronized();
+   }
 
+   /**
+    * This method adds a page of all data received from the server to the
+    * running download and requests the next page. The list is replaced once
+    * the last page arrived and stored in the cache.
+    *
+    * @param page
+    *           the received page
+    * @throws IOException
+    *            if an I/O error occurs while requesting data
+    */
+   private void receivedPage(SnapshotPage page) throws IOException {
+      if (page.getOffset() == 0) {
+         download = new ArrayList<>(page.getTotal());
+         downloadVersion = page.getVersion();
+      } else if (download == null || page.getVersion() != downloadVersion
+            || page.getOffset() != download.size()) {
+         log.warn("Unexpected page of all data: " + page);
+         download = null;
+         requestAll();
+         return;
+      }
       try {
-         Object obj = in.readObject();
-         if (obj instanceof byte[]) {
-            try {
-               CalendarEntry[] entrys = SerializationUtils.unpickle(
-                     (byte[]) obj, CalendarEntry[].class);
-               for (CalendarEntry calendarEntry : entrys) {
-                  list.add(calendarEntry);
+         download.addAll(EntryCodec.decode(page.getEntries()).getEntries());
+      } catch (IOException e) {
+         log.fatal("Can't decode received entries", e);
+         download = null;
+         return;
+      }
+      if (!page.isLast()) {
+         send(new ServerCommand(Command.REQUEST_ALL, page.getNext()));
+         if (page.getOffset() == 0 && list.isEmpty()) {
+            // there is nothing else to show until the last page arrived
+            setChanged();
+            notifyObservers(new ArrayList<>(download));
+         }
+         return;
+      }
+      list = download;
+      dataVersion = downloadVersion;
+      download = null;
+      cache.store(EntryCodec.encode(dataVersion, list));
+      log.info("Received " + list.size() + " entries of version "
+            + dataVersion);
+      resynchronized();
+   }
+
+   /**
+    * This method applies changes received from the server to the list.
+    * <p>
+    * The changes are either the response to {@link #requestChanges()} or
+    * pushed by the server because another session of the user changed the
+    * data. Changes that don't follow the known version are dropped and
+    * requested again.
+    *
+    * @param changes
+    *           the received changes
+    * @throws IOException
+    *            if an I/O error occurs while requesting data
+    */
+   private void receivedChanges(ChangeSet changes) throws IOException {
+      if (!changes.isComplete()) {
+         log.info("Server doesn't know the changes since version "
+               + changes.getFrom() + ", requesting all data");
+         requestAll();
+         return;
+      }
+      if (changes.getFrom() > dataVersion) {
+         if (synced && !resyncRequested) {
+            log.info("Missed changes before version " + changes.getFrom());
+            requestChanges();
+         }
+         return;
+      }
+      if (changes.getTo() > dataVersion) {
+         List<CalendarEntry> copy = new ArrayList<>(list);
+         List<ServerCommand> commands = changes.getChanges();
+         for (int i = (int) (dataVersion - changes.getFrom()); i < commands
+               .size(); i++) {
+            apply(commands.get(i), copy);
+         }
+         list = copy;
+         dataVersion = changes.getTo();
+         log.info("Applied changes up to version " + dataVersion);
+      }
+      if (!synced) {
+         cache.store(EntryCodec.encode(dataVersion, list));
+      }
+      resynchronized();
+   }
+
+   /**
+    * This method is called when {@link #list} was brought up to date. After a
+    * reconnect it requeues the commands that were lost with the connection
+    * and sends all queued commands. Then the observers are notified.
+    *
+    * @throws IOException
+    *            if an I/O error occurs while sending queued commands
+    */
+   private void resynchronized() throws IOException {
+      resyncRequested = false;
+      if (!synced) {
+         synced = true;
+         synchronized (sendLock) {
+            // commands the server executed before the connection dropped
+            // show in the data, all others are sent again
+            List<ServerCommand> lost = new ArrayList<>();
+            for (ServerCommand command : unacked) {
+               if (!isApplied(command, list)) {
+                  lost.add(command);
                }
-            } catch (IOException | ClassNotFoundException e) {
-               log.fatal("Can't load deserialize existing entry", e);
             }
-
+            unacked.clear();
+            for (int i = lost.size() - 1; i >= 0; i--) {
+               pending.addFirst(lost.get(i));
+            }
          }
-      } catch (ClassNotFoundException e) {
-         log.fatal("Class of a serialized object cannot be found.", e);
+         flushPending();
       }
-      log.info("Received Data:");
-      for (CalendarEntry calendarEntry : list) {
-         log.info(calendarEntry);
+      publish();
+   }
+
+   /**
+    * This method handles the acknowledgement of the oldest command sent to
+    * the server.
+    *
+    * @param version
+    *           the version of the data after the command was executed
+    */
+   private void acknowledged(long version) {
+      ServerCommand command;
+      synchronized (sendLock) {
+         command = unacked.poll();
+      }
+      if (command == null) {
+         log.warn("Unexpected acknowledgement of version " + version);
+         return;
+      }
+      if (version > dataVersion) {
+         List<CalendarEntry> copy = new ArrayList<>(list);
+         apply(command, copy);
+         list = copy;
+         dataVersion = version;
+      } else {
+         // the server couldn't execute the command, undo it in the views
+         log.warn("Server didn't execute " + command);
+         publish();
       }
+   }
 
+   /**
+    * This method notifies the observers with the entries as they will be once
+    * the server executed all commands that are sent or queued.
+    */
+   private void publish() {
+      List<CalendarEntry> view = new ArrayList<>(list);
+      synchronized (sendLock) {
+         for (ServerCommand command : unacked) {
+            apply(command, view);
+         }
+         for (ServerCommand command : pending) {
+            apply(command, view);
+         }
+      }
+      setChanged();
+      notifyObservers(view);
    }
 
    /**
     * Sends a {@link ServerCommand} to the server.
-    * 
+    * <p>
+    * If the client is offline or still synchronizing, the command is queued
+    * and sent after the list was brought up to date.
+    *
     * @param command
     *           the command to send
     */
    public void sendCommand(ServerCommand command) {
-      send(command);
+      synchronized (sendLock) {
+         if (state == ClientState.AUTHENTICATED && synced && pending.isEmpty()) {
+            try {
+               send(command);
+               unacked.add(command);
+               return;
+            } catch (IOException e) {
+               log.info("Failed to send " + command);
+               closeSocket();
+            }
+         }
+         pending.add(command);
+         log.info("Queued: " + command);
+      }
+   }
+
+   /**
+    * Requests the number of entries per day of a range of days from the
+    * server, without downloading the entries. The observers are notified with
+    * the {@link DayCounts} once they arrive.
+    *
+    * @param first
+    *           the first day of the range
+    * @param last
+    *           the last day of the range, inclusive
+    * @return was the request sent, false if the client is offline
+    * @throws IllegalArgumentException
+    *            if a day is null or the first day is after the last day
+    */
+   public boolean requestDayCounts(LocalDate first, LocalDate last) {
+      return request(new ServerCommand(Command.COUNT_BY_DAY, new LocalDate[] {
+            first, last }));
+   }
+
+   /**
+    * Asks the server for the entries that overlap the specified entry. The
+    * observers are notified with the {@link Command#CONFLICTS} command once
+    * the answer arrives.
+    *
+    * @param entry
+    *           the entry to check
+    * @return was the request sent, false if the client is offline
+    */
+   public boolean checkConflicts(CalendarEntry entry) {
+      return request(new ServerCommand(Command.CHECK_CONFLICTS, entry, null));
+   }
+
+   /**
+    * Searches the names and descriptions of the entries on the server, without
+    * downloading them. The observers are notified with the
+    * {@link SearchResult} once it arrives.
+    *
+    * @param text
+    *           the words to search for
+    * @param offset
+    *           the number of hits to skip
+    * @param limit
+    *           the maximum number of hits to return
+    * @return was the request sent, false if the client is offline
+    */
+   public boolean search(String text, int offset, int limit) {
+      return request(new ServerCommand(Command.SEARCH, new SearchQuery(text,
+            offset, limit)));
+   }
+
+   /**
+    * Asks the server when the specified users are busy, without downloading
+    * their entries. The observers are notified with the {@link TimeRanges}
+    * once they arrive.
+    *
+    * @param users
+    *           the names of the users
+    * @param start
+    *           the start of the range
+    * @param end
+    *           the end of the range, exclusive
+    * @return was the request sent, false if the client is offline
+    */
+   public boolean requestFreeBusy(String[] users, LocalDateTime start,
+         LocalDateTime end) {
+      return request(new ServerCommand(Command.FREE_BUSY, new FreeBusyQuery(
+            users, start, end, null)));
+   }
+
+   /**
+    * Asks the server for the earliest times the specified users are all free
+    * for the specified duration. The observers are notified with the
+    * {@link TimeRanges} of the free gaps once they arrive.
+    *
+    * @param users
+    *           the names of the users
+    * @param duration
+    *           the length of the wanted slot
+    * @param start
+    *           the start of the range
+    * @param end
+    *           the end of the range, exclusive
+    * @return was the request sent, false if the client is offline
+    */
+   public boolean findSlot(String[] users, Duration duration,
+         LocalDateTime start, LocalDateTime end) {
+      return request(new ServerCommand(Command.FIND_SLOT, new FreeBusyQuery(
+            users, start, end, duration)));
+   }
+
+   /**
+    * Asks the server for the entries matching a filter, without downloading
+    * all entries. The observers are notified with every
+    * {@link FilteredEntries} part of the matches as it arrives.
+    *
+    * @param filter
+    *           the filter
+    * @return was the request sent, false if the client is offline
+    */
+   public boolean requestFiltered(EntryFilter filter) {
+      return request(new ServerCommand(Command.REQUEST_FILTERED, filter));
+   }
+
+   /**
+    * This method sends a request that is answered by the server right away
+    * and isn't queued while the client is offline.
+    *
+    * @param command
+    *           the request
+    * @return was the request sent
+    */
+   private boolean request(ServerCommand command) {
+      if (state != ClientState.AUTHENTICATED) {
+         return false;
+      }
+      try {
+         send(command);
+         return true;
+      } catch (IOException e) {
+         log.info("Failed to send " + command + ": " + e.getMessage());
+         return false;
+      }
+   }
+
+   /**
+    * This method sends all queued commands.
+    *
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   private void flushPending() throws IOException {
+      synchronized (sendLock) {
+         while (!pending.isEmpty()) {
+            send(pending.peek());
+            unacked.add(pending.poll());
+         }
+      }
    }
 
    /**
@@ -206,15 +869,21 @@ public class Client extends Observable {
     * the connected server.
     * <p>
     * It prevents the user from sending unauthorized Objects to the server.
-    * 
+    *
     * @param obj
     *           the Object to send
+    * @throws IOException
+    *            if an I/O error occurs
     */
-   private void send(Object obj) {
-      try {
+   private void send(Object obj) throws IOException {
+      synchronized (sendLock) {
          if (state == ClientState.CONNECTED) {
             if (obj instanceof String[] && ((String[]) obj).length == 2) {
                out.writeObject(obj);
+            } else if (obj instanceof ServerCommand
+                  && (((ServerCommand) obj).getCommand() == Command.RESUME || ((ServerCommand) obj)
+                        .getCommand() == Command.NEGOTIATE)) {
+               out.writeObject(SerializationUtils.pickle((ServerCommand) obj));
             } else {
                throw new IllegalArgumentException(
                      "Invalid arguments for ClientState." + state);
@@ -226,45 +895,113 @@ public class Client extends Observable {
                throw new IllegalArgumentException("Illegal object type");
             }
          } else {
-            throw new IOException("Not connected to a Server");
+            throw new SocketException("Not connected to a Server");
          }
+      }
+      if (!(obj instanceof ServerCommand)
+            || ((ServerCommand) obj).getCommand() != Command.HEARTBEAT) {
          log.info("Sent: " + obj);
-      } catch (IOException e) {
-         disconnect();
       }
    }
 
    /**
-    * This method sends an object to the connected server and waits for a
-    * response.
-    * 
-    * @param obj
-    *           the object to send to the connected server
-    * @return the response received by the connected server
-    * @throws IOException
-    *            if an I/O error occurs
-    * @throws ClassNotFoundException
-    *            if the Class of a serialized object cannot be found
+    * This method applies a command to a list of entries.
+    *
+    * @param command
+    *           the command to apply
+    * @param entries
+    *           the entries to change
     */
-   private Object request(Object obj) throws IOException,
-         ClassNotFoundException {
-      send(obj);
-      return in.readObject();
+   private static void apply(ServerCommand command, List<CalendarEntry> entries) {
+      switch (command.getCommand()) {
+      case ADD:
+         entries.add(command.getNewValue());
+         break;
+      case REMOVE:
+         entries.remove(command.getOldValue());
+         break;
+      case MODIFY:
+         int index = entries.indexOf(command.getOldValue());
+         if (index >= 0) {
+            entries.set(index, command.getNewValue());
+         }
+         break;
+      default:
+      }
+   }
+
+   /**
+    * This method checks if the effect of a command shows in a list of entries.
+    *
+    * @param command
+    *           the command to check
+    * @param entries
+    *           the entries to check
+    * @return does the effect show
+    */
+   private static boolean isApplied(ServerCommand command,
+         List<CalendarEntry> entries) {
+      switch (command.getCommand()) {
+      case ADD:
+      case MODIFY:
+         return entries.contains(command.getNewValue());
+      case REMOVE:
+         return !entries.contains(command.getOldValue());
+      default:
+         return true;
+      }
+   }
+
+   /**
+    * This method marks the client {@link ClientState#OFFLINE} after the
+    * connection was lost and notifies the observers.
+    */
+   private void goOffline() {
+      synchronized (sendLock) {
+         state = ClientState.OFFLINE;
+         synced = false;
+      }
+      closeSocket();
+      setChanged();
+      notifyObservers(ClientState.OFFLINE);
+   }
+
+   /**
+    * This method closes the socket and ignores all errors.
+    */
+   private void closeSocket() {
+      try {
+         if (socket != null) {
+            socket.close();
+         }
+      } catch (Exception e) {
+         // ignore this
+      }
    }
 
    /**
     * This method tries to close the socket, sets the {@link ClientState} of the
     * client to {@link ClientState#NOT_CONNECTED} and notifies the observers.
+    * <p>
+    * Commands that are still queued are dropped.
     */
    public void disconnect() {
-      if (socket != null
-            && (state == ClientState.CONNECTED || state == ClientState.AUTHENTICATED)) {
+      generation.incrementAndGet();
+      if (synced && cache != null) {
+         try {
+            cache.store(EntryCodec.encode(dataVersion, list));
+         } catch (IOException e) {
+            log.warn("Failed to encode entries for the cache", e);
+         }
+      }
+      if (socket != null && state != ClientState.NOT_CONNECTED) {
          try {
             socket.close();
          } catch (Exception e) {
             // ignore this
          } finally {
             state = ClientState.NOT_CONNECTED;
+            synced = false;
             setChanged();
             notifyObservers();
          }
@@ -273,7 +1010,7 @@ public class Client extends Observable {
 
    /**
     * Get current {@link ClientState} of the client.
-    * 
+    *
     * @return the client state
     */
    public ClientState getClientState() {
@@ -281,9 +1018,9 @@ public class Client extends Observable {
    }
 
    /**
-    * Get list of received {@link CalendarEntry} after calling {@link #connect}
-    * .
-    * 
+    * Get list of received or cached {@link CalendarEntry} after calling
+    * {@link #connect}.
+    *
     * @return the list of entries
     */
    public List<CalendarEntry> getList() {
@@ -292,7 +1029,7 @@ public class Client extends Observable {
 
    /**
     * Get the port of the socket the client is connected with.
-    * 
+    *
     * @return the port of the socket
     */
    public int getPort() {
@@ -301,7 +1038,7 @@ public class Client extends Observable {
 
    /**
     * Get the hostname of the of the server the socket is connected to.
-    * 
+    *
     * @return the hostname of the server
     */
    public String getHostName() {
@@ -310,7 +1047,7 @@ public class Client extends Observable {
 
    /**
     * Get the username that the client authenticated with the server.
-    * 
+    *
     * @return the username
     */
    public String getUserName() {
@@ -319,7 +1056,7 @@ public class Client extends Observable {
 
    /**
     * States the {@link Client} can be in.
-    * 
+    *
     * @author Michael Albertz
     *
     */
@@ -335,48 +1072,109 @@ public class Client extends Observable {
       /**
        * If the client is connected and authenticated.
        */
-      AUTHENTICATED
+      AUTHENTICATED,
+      /**
+       * If the client lost the connection and tries to reconnect.
+       */
+      OFFLINE
    }
 
    /**
-    * This class implements {@link Runnalbe}.
+    * This class implements {@link Runnable}.
     * <p>
-    * If it is started it will keep sending
-    * {@link ServerCommand.Command#HEARTBEAT} to the server, as long as the
-    * clients state is not {@link ClientState#NOT_CONNECTED} to the server.
-    * 
+    * It receives everything the server sends while the client is
+    * authenticated. If the connection is lost it tries to reconnect, waiting
+    * a random time between half and the full backoff between two attempts.
+    * The backoff doubles with every failed attempt up to one minute.
+    *
     * @author Michael Albertz
     *
     */
-   private class HeartBeat implements Runnable {
+   private class Supervisor implements Runnable {
 
-      private final static int HEARTBEAT_INTERVAL = 15000;
+      /** The generation of the connection this supervisor belongs to */
+      private final int current;
+
+      private Supervisor(int current) {
+         this.current = current;
+      }
 
       @Override
       public void run() {
-         Object obj;
-         try {
-            while (state != ClientState.NOT_CONNECTED
-                  && (obj = request(new ServerCommand(Command.HEARTBEAT, null,
-                        null))) != null) {
-               log.debug("Heartbeat received: " + obj);
+         int attempt = 0;
+         while (generation.get() == current) {
+            if (state == ClientState.AUTHENTICATED) {
+               attempt = 0;
+               try {
+                  receive(current);
+               } catch (IOException | ClassNotFoundException
+                     | RuntimeException e) {
+                  if (generation.get() != current) {
+                     break;
+                  }
+                  log.error("Connection lost ...", e);
+                  goOffline();
+               }
+            } else if (reconnect()) {
+               setChanged();
+               notifyObservers(ClientState.AUTHENTICATED);
+            } else if (generation.get() == current) {
+               long backoff = Math.min(MAX_BACKOFF,
+                     MIN_BACKOFF << Math.min(attempt++, 16));
+               long delay = backoff / 2
+                     + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+               log.info("Reconnecting in " + delay + " ms");
                try {
-                  Thread.sleep(HEARTBEAT_INTERVAL);
+                  Thread.sleep(delay);
                } catch (InterruptedException e) {
-                  log.fatal("Heartbeat thread was interrupted");
+                  log.fatal("Supervisor thread was interrupted");
+                  return;
                }
             }
-         } catch (SocketException e) {
-            log.error("Connection lost ...");
-            log.error("Closing client ...");
-            Client.this.disconnect();
-         } catch (ClassNotFoundException | IllegalArgumentException
-               | IOException e) {
-            log.fatal("An unexpected Exception got caught. Closing client ...",
-                  e);
-            Client.this.disconnect();
          }
+      }
+
+   }
+
+   /**
+    * This class implements {@link Runnable}.
+    * <p>
+    * If it is started it will keep sending
+    * {@link ServerCommand.Command#HEARTBEAT} to the server while the client is
+    * authenticated. The server answers every heartbeat, so the supervisor
+    * notices a dead connection by its read timeout.
+    *
+    * @author Michael Albertz
+    *
+    */
+   private class HeartBeat implements Runnable {
 
+      /** The generation of the connection this heartbeat belongs to */
+      private final int current;
+
+      private HeartBeat(int current) {
+         this.current = current;
+      }
+
+      @Override
+      public void run() {
+         while (generation.get() == current) {
+            try {
+               Thread.sleep(HEARTBEAT_INTERVAL);
+            } catch (InterruptedException e) {
+               log.fatal("Heartbeat thread was interrupted");
+               return;
+            }
+            if (state == ClientState.AUTHENTICATED
+                  && generation.get() == current) {
+               try {
+                  send(new ServerCommand(Command.HEARTBEAT, null, null));
+               } catch (IOException e) {
+                  log.error("Heartbeat failed: " + e.getMessage());
+                  closeSocket();
+               }
+            }
+         }
       }
 
    }
@@ -0,0 +1,90 @@
+package de.malbertz.calendar.client.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.malbertz.calendar2.util.EntryCodec;
+import de.malbertz.calendar2.util.EntryCodec.Snapshot;
+
+/**
+ * This class implements the local on-disk cache of the entries of a user.
+ * <p>
+ * The cache holds the last snapshot received from the server in the encoding
+ * of {@link EntryCodec}, tagged with the version of the data on the server.
+ * It lets the client show the entries right after the login and skip the
+ * download if the data didn't change since.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class EntryCache {
+
+   private static final Logger log = LogManager.getLogger(EntryCache.class);
+   /** The directory the cache files are stored in */
+   private static final File CACHE_DIR = new File(
+         System.getProperty("user.home"), ".calendar2");
+
+   /** Holds the cache file */
+   private final File file;
+
+   /**
+    * Creates a cache for the specified user on the specified server.
+    *
+    * @param hostName
+    *           the hostname of the server
+    * @param port
+    *           the port of the server
+    * @param userName
+    *           the name of the user
+    */
+   public EntryCache(String hostName, int port, String userName) {
+      String name = (userName + "@" + hostName + "_" + port).replaceAll(
+            "[^A-Za-z0-9@._-]", "_");
+      this.file = new File(CACHE_DIR, name + ".cache");
+   }
+
+   /**
+    * This method loads the cached snapshot.
+    *
+    * @return the snapshot, null if there is none or it couldn't be read
+    */
+   public Snapshot load() {
+      if (!file.isFile()) {
+         return null;
+      }
+      try {
+         return EntryCodec.decode(Files.readAllBytes(file.toPath()));
+      } catch (IOException e) {
+         log.warn("Dropping unreadable cache " + file, e);
+         file.delete();
+         return null;
+      }
+   }
+
+   /**
+    * This method stores an encoded snapshot as received from the server.
+    * <p>
+    * The file is replaced atomically, so a crash never leaves a torn cache.
+    *
+    * @param encoded
+    *           the snapshot encoded by {@link EntryCodec}
+    */
+   public void store(byte[] encoded) {
+      try {
+         CACHE_DIR.mkdirs();
+         File tmp = new File(CACHE_DIR, file.getName() + ".tmp");
+         Files.write(tmp.toPath(), encoded);
+         Files.move(tmp.toPath(), file.toPath(),
+               StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         log.warn("Failed to store cache " + file, e);
+      }
+   }
+
+}
@@ -1,21 +1,30 @@
 package de.malbertz.calendar.client.ui;
 
 import java.net.URL;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javafx.application.Platform;
 import javafx.beans.property.SimpleListProperty;
 import javafx.beans.value.ChangeListener;
-import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
+import javafx.geometry.Side;
 import javafx.fxml.Initializable;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.Button;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextField;
 import javafx.scene.control.Toggle;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.control.ToggleGroup;
@@ -27,19 +36,38 @@ import javafx.scene.layout.Priority;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import de.malbertz.calendar.client.core.Client.ClientState;
 import de.malbertz.calendar.client.core.Context;
 import de.malbertz.calendar.client.ui.dialogs.CreateDialog;
 import de.malbertz.calendar.client.ui.dialogs.ErrorDialog;
 import de.malbertz.calendar.client.ui.elements.AgendaView;
+import de.malbertz.calendar.client.ui.elements.BatchList;
 import de.malbertz.calendar.client.ui.elements.ContentPane;
+import de.malbertz.calendar.client.ui.elements.DayIndex;
 import de.malbertz.calendar.client.ui.elements.MonthView;
 import de.malbertz.calendar.client.ui.elements.WeekView;
+import de.malbertz.calendar.client.ui.elements.YearView;
+import de.malbertz.calendar.client.ui.elements.nodes.CachedFormat;
 import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.DayCounts;
+import de.malbertz.calendar2.FilteredEntries;
+import de.malbertz.calendar2.SearchResult;
+import de.malbertz.calendar2.ServerCommand;
+import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.TimeRanges;
 
 /**
  * This class implements the MainController of the Application.
  * <p>
- * It contains a toggle group to with the views in the {@link ContentPane}.
+ * It contains a toggle group to switch between the views in the
+ * {@link ContentPane}. Each view is created once and kept while the scene is
+ * alive.
+ * <p>
+ * Data received from the server is applied to the entry list as one batch, so
+ * the views only handle the entries that actually changed, once.
+ * <p>
+ * The search field searches the entries on the server and lists the hits in a
+ * popup. Choosing a hit selects it in the current view.
  * 
  * @author Michael Albertz
  *
@@ -47,6 +75,8 @@ import de.malbertz.calendar2.CalendarEntry;
 public class MainScene implements Initializable, Observer {
 
    private static final Logger log = LogManager.getLogger(MainScene.class);
+   /** The number of search hits shown at once */
+   private static final int SEARCH_PAGE = 20;
 
    @FXML
    private Parent root;
@@ -59,18 +89,28 @@ public class MainScene implements Initializable, Observer {
    @FXML
    private ToggleButton monthToggleButton;
    @FXML
+   private ToggleButton yearToggleButton;
+   @FXML
    private Button newButton;
    @FXML
    private Label appLabel;
+   @FXML
+   private TextField searchField;
 
    private SimpleListProperty<CalendarEntry> entryList;
+   private final BatchList<CalendarEntry> entries = new BatchList<>();
+   /** Holds the latest data of the client until it is applied */
+   private final AtomicReference<List<CalendarEntry>> received = new AtomicReference<>();
+   private DayIndex dayIndex;
+   private final Map<Toggle, Node> views = new HashMap<>();
    private ResourceBundle bundle;
+   private final ContextMenu searchMenu = new ContextMenu();
 
    @Override
    public void initialize(URL location, ResourceBundle resources) {
       this.bundle = resources;
-      entryList = new SimpleListProperty<CalendarEntry>(
-            FXCollections.observableArrayList());
+      entryList = new SimpleListProperty<CalendarEntry>(entries);
+      dayIndex = new DayIndex(entryList);
       Context.getInstance().getClient().addObserver(this);
 
       initModeToggleGroup();
@@ -85,11 +125,12 @@ public class MainScene implements Initializable, Observer {
          }
       });
       newButton.setTooltip(new Tooltip(bundle.getString("createButtonTT")));
-      entryList.addAll(Context.getInstance().getClient().getList());
+      searchField.setOnAction(event -> Context.getInstance().getClient()
+            .search(searchField.getText(), 0, SEARCH_PAGE));
+      entries.update(Context.getInstance().getClient().getList());
       appLabel.setText(Context.getInstance().getClient().getUserName());
    }
 
-   @SuppressWarnings("unchecked")
    private void initModeToggleGroup() {
       log.entry();
 
@@ -97,59 +138,165 @@ public class MainScene implements Initializable, Observer {
       overviewToggleButton.setToggleGroup(group);
       weekToggleButton.setToggleGroup(group);
       monthToggleButton.setToggleGroup(group);
+      yearToggleButton.setToggleGroup(group);
       overviewToggleButton.setTooltip(new Tooltip(bundle
             .getString("agendaViewTT")));
       weekToggleButton.setTooltip(new Tooltip(bundle.getString("weekViewTT")));
       monthToggleButton
             .setTooltip(new Tooltip(bundle.getString("monthViewTT")));
+      yearToggleButton.setTooltip(new Tooltip(bundle.getString("yearViewTT")));
 
-      group.selectedToggleProperty()
-            .addListener(
-                  (ChangeListener<Toggle>) (observable, oldValue, newValue) -> {
-                     ToggleButton chk = (ToggleButton) newValue
-                           .getToggleGroup().getSelectedToggle();
-                     try {
-                        if (chk.equals(overviewToggleButton)) {
-
-                           CalendarEntry entry;
-                           try {
-                              entry = ((ContentPane<CalendarEntry>) contentPane
-                                    .getChildren().get(0)).getSelectedItem();
-                           } catch (IndexOutOfBoundsException e) {
-                              entry = null;
-                           }
-                           contentPane.getChildren().clear();
-                           AgendaView content = new AgendaView(bundle, entry);
-                           content.entryListProperty().bindBidirectional(
-                                 entryList);
-                           HBox.setHgrow(content, Priority.ALWAYS);
-                           contentPane.getChildren().add(content);
-                        } else if (chk.equals(weekToggleButton)) {
-                           CalendarEntry entry = ((ContentPane<CalendarEntry>) contentPane
-                                 .getChildren().get(0)).getSelectedItem();
-                           contentPane.getChildren().clear();
-                           WeekView content = new WeekView(bundle, entry);
-                           content.entryListProperty().bindBidirectional(
-                                 entryList);
-                           HBox.setHgrow(content, Priority.ALWAYS);
-                           contentPane.getChildren().add(content);
-                        } else if (chk.equals(monthToggleButton)) {
-                           CalendarEntry entry = ((ContentPane<CalendarEntry>) contentPane
-                                 .getChildren().get(0)).getSelectedItem();
-                           contentPane.getChildren().clear();
-                           MonthView content = new MonthView(bundle, entry);
-                           content.entryListProperty().bindBidirectional(
-                                 entryList);
-                           HBox.setHgrow(content, Priority.ALWAYS);
-                           contentPane.getChildren().add(content);
-                        }
-                     } catch (Exception e) {
-                        log.error(
-                              "Failed to load a resource to the content pane. "
-                                    + chk, e);
-                     }
-                  });
+      group.selectedToggleProperty().addListener(
+            (ChangeListener<Toggle>) (observable, oldValue, newValue) -> {
+               if (newValue != null) {
+                  showView(newValue);
+               }
+            });
       overviewToggleButton.setSelected(true);
+
+      // build the other views after the scene is shown, so the first switch
+      // is instant as well
+      Platform.runLater(() -> {
+         for (Toggle toggle : group.getToggles()) {
+            try {
+               getView(toggle);
+            } catch (Exception e) {
+               log.error("Failed to load a resource to the content pane. "
+                     + toggle, e);
+            }
+         }
+      });
+   }
+
+   /**
+    * This method shows the view of the specified toggle in the content pane
+    * and hands the selected entry of the previous view over.
+    * 
+    * @param toggle
+    *           the selected toggle
+    */
+   @SuppressWarnings("unchecked")
+   private void showView(Toggle toggle) {
+      try {
+         CalendarEntry entry = contentPane.getChildren().isEmpty() ? null
+               : ((ContentPane<CalendarEntry>) contentPane.getChildren().get(0))
+                     .getSelectedItem();
+         Node view = getView(toggle);
+         contentPane.getChildren().setAll(view);
+         ((ContentPane<CalendarEntry>) view).select(entry);
+      } catch (Exception e) {
+         log.error("Failed to load a resource to the content pane. " + toggle,
+               e);
+      }
+   }
+
+   /**
+    * Get the view of the specified toggle. Every view is created and bound to
+    * the entry list only once and then reused.
+    * 
+    * @param toggle
+    *           the toggle of the view
+    * @return the view
+    * @throws Exception
+    *            if the view can't be loaded
+    */
+   private Node getView(Toggle toggle) throws Exception {
+      Node view = views.get(toggle);
+      if (view == null) {
+         if (toggle == overviewToggleButton) {
+            AgendaView content = new AgendaView(bundle, null);
+            content.entryListProperty().bindBidirectional(entryList);
+            view = content;
+         } else if (toggle == weekToggleButton) {
+            WeekView content = new WeekView(bundle, null, dayIndex);
+            content.entryListProperty().bindBidirectional(entryList);
+            view = content;
+         } else if (toggle == monthToggleButton) {
+            MonthView content = new MonthView(bundle, null, dayIndex);
+            content.entryListProperty().bindBidirectional(entryList);
+            view = content;
+         } else {
+            YearView content = new YearView(bundle, null, dayIndex);
+            content.entryListProperty().bindBidirectional(entryList);
+            view = content;
+         }
+         HBox.setHgrow(view, Priority.ALWAYS);
+         views.put(toggle, view);
+      }
+      return view;
+   }
+
+   /**
+    * This method lists the hits of a search below the search field. If there
+    * are more hits the last item requests the next page.
+    * 
+    * @param result
+    *           the page of hits
+    */
+   @SuppressWarnings("unchecked")
+   private void showSearchResult(SearchResult result) {
+      CachedFormat dayFormat = CachedFormat.of("EEE, d MMM yyyy",
+            bundle.getLocale());
+      CachedFormat timeFormat = CachedFormat.of("HH:mm", bundle.getLocale());
+      searchMenu.getItems().clear();
+      for (CalendarEntry hit : result.getHits()) {
+         MenuItem item = new MenuItem(dayFormat.format(hit.getDate()) + " "
+               + timeFormat.format(hit.getStartTime()) + " " + hit.getName());
+         item.setOnAction(event -> ((ContentPane<CalendarEntry>) contentPane
+               .getChildren().get(0)).select(hit));
+         searchMenu.getItems().add(item);
+      }
+      if (result.getHits().length == 0) {
+         MenuItem item = new MenuItem(bundle.getString("noResults"));
+         item.setDisable(true);
+         searchMenu.getItems().add(item);
+      }
+      if (result.hasMore()) {
+         int next = result.getQuery().getOffset() + result.getHits().length;
+         MenuItem item = new MenuItem(MessageFormat.format(
+               bundle.getString("more"), result.getTotal() - next));
+         item.setOnAction(event -> Context.getInstance().getClient()
+               .search(result.getQuery().getText(), next, SEARCH_PAGE));
+         searchMenu.getItems().add(item);
+      }
+      searchMenu.show(searchField, Side.BOTTOM, 0, 0);
+   }
+
+   /**
+    * This method warns the user that an entry overlaps others, without
+    * blocking.
+    * 
+    * @param entry
+    *           the overlapping entry
+    * @param conflicts
+    *           the number of entries it overlaps
+    */
+   private void showConflicts(CalendarEntry entry, int conflicts) {
+      ErrorDialog dialog = new ErrorDialog(bundle, MessageFormat.format(
+            bundle.getString("conflicts"), entry.getName(), conflicts));
+      dialog.setTitle(bundle.getString("conflictsTitle"));
+      if (dialog.getOwner() == null) {
+         dialog.initOwner(root.getScene().getWindow());
+      }
+      dialog.show();
+   }
+
+   /**
+    * This method reminds the user of an entry that is about to start, without
+    * blocking.
+    * 
+    * @param entry
+    *           the entry
+    */
+   private void showReminder(CalendarEntry entry) {
+      ErrorDialog dialog = new ErrorDialog(bundle, MessageFormat.format(
+            bundle.getString("reminder"), entry.getName(), entry.getDate()
+                  .toString(), entry.getStartTime().toString()));
+      dialog.setTitle(bundle.getString("reminderTitle"));
+      if (dialog.getOwner() == null) {
+         dialog.initOwner(root.getScene().getWindow());
+      }
+      dialog.show();
    }
 
    private class PersistentToggleGroup extends ToggleGroup {
@@ -178,8 +325,59 @@ public class MainScene implements Initializable, Observer {
       return entryList;
    }
 
+   /**
+    * This method will be called if the client notifies its observers.
+    * <p>
+    * If the data changed on the server the argument is the new list of
+    * entries, which the current one is updated with. If several lists arrive
+    * before the application thread gets to them only the latest is applied.
+    * If the client lost or restored the connection the argument is its state,
+    * which is shown next to the user name. Search results are listed below
+    * the search field. If an entry overlaps others a warning is shown. Day
+    * counts and free/busy times are only of interest to whoever requested
+    * them. Otherwise the client was closed and the application exits.
+    */
    @Override
    public void update(Observable o, Object arg) {
+      if (arg instanceof List) {
+         @SuppressWarnings("unchecked")
+         List<CalendarEntry> list = (List<CalendarEntry>) arg;
+         if (received.getAndSet(list) == null) {
+            Platform.runLater(() -> entries.update(received.getAndSet(null)));
+         }
+         return;
+      }
+      if (arg instanceof DayCounts || arg instanceof TimeRanges
+            || arg instanceof FilteredEntries) {
+         return;
+      }
+      if (arg instanceof SearchResult) {
+         Platform.runLater(() -> showSearchResult((SearchResult) arg));
+         return;
+      }
+      if (arg instanceof ServerCommand
+            && ((ServerCommand) arg).getCommand() == Command.CONFLICTS) {
+         ServerCommand command = (ServerCommand) arg;
+         int conflicts = ((CalendarEntry[]) command.getArgument()).length;
+         if (conflicts > 0) {
+            Platform.runLater(() -> showConflicts(command.getNewValue(),
+                  conflicts));
+         }
+         return;
+      }
+      if (arg instanceof ServerCommand
+            && ((ServerCommand) arg).getCommand() == Command.REMINDER) {
+         CalendarEntry entry = ((ServerCommand) arg).getNewValue();
+         Platform.runLater(() -> showReminder(entry));
+         return;
+      }
+      if (arg instanceof ClientState) {
+         String name = Context.getInstance().getClient().getUserName();
+         Platform.runLater(() -> appLabel
+               .setText(arg == ClientState.OFFLINE ? name + " ("
+                     + bundle.getString("offline") + ")" : name));
+         return;
+      }
       Platform.runLater(new Runnable() {
 
          @Override
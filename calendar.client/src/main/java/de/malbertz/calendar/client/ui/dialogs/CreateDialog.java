@@ -1,8 +1,14 @@
 package de.malbertz.calendar.client.ui.dialogs;
 
 import java.net.URL;
+import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.ResourceBundle;
 
 import javafx.fxml.FXML;
@@ -11,6 +17,7 @@ import javafx.fxml.Initializable;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.DatePicker;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
@@ -25,12 +32,18 @@ import org.apache.logging.log4j.Logger;
 import de.malbertz.calendar.client.core.Context;
 import de.malbertz.calendar.client.ui.elements.nodes.TimeTextField;
 import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.Recurrence;
+import de.malbertz.calendar2.Recurrence.Frequency;
 import de.malbertz.calendar2.ServerCommand;
 import de.malbertz.calendar2.ServerCommand.Command;
 
 public class CreateDialog extends Stage implements Initializable {
 
    private final static Logger log = LogManager.getLogger(CreateDialog.class);
+   /** The reminders to choose from, null for none */
+   private final static List<Duration> REMINDERS = Arrays.asList(null,
+         Duration.ofMinutes(5), Duration.ofMinutes(10), Duration.ofMinutes(15),
+         Duration.ofMinutes(30), Duration.ofHours(1), Duration.ofHours(24));
 
    @FXML
    private TimeTextField startTimeTextField;
@@ -41,12 +54,21 @@ public class CreateDialog extends Stage implements Initializable {
    @FXML
    private DatePicker datePicker;
    @FXML
+   private ComboBox<String> repeatComboBox;
+   @FXML
+   private DatePicker untilDatePicker;
+   @FXML
+   private ComboBox<String> reminderComboBox;
+   @FXML
    private TextArea descTextArea;
    @FXML
    private Button okButton;
    @FXML
    private Button cancelButton;
 
+   /** Holds the reminders of the items of the reminder combo box */
+   private final List<Duration> reminders = new ArrayList<>();
+   private ResourceBundle resources;
    private boolean canceled;
    private CalendarEntry modifiedEntry;
    private Mode mode;
@@ -81,6 +103,17 @@ public class CreateDialog extends Stage implements Initializable {
          endTimeTextField.setValue(entry.getEndTime());
          nameTextField.setText(entry.getName());
          descTextArea.setText(entry.getDescription());
+         Recurrence recurrence = entry.getRecurrence();
+         if (recurrence != null) {
+            repeatComboBox.getSelectionModel().select(
+                  recurrence.getFrequency().ordinal() + 1);
+            untilDatePicker.setValue(recurrence.getUntil());
+         }
+         if (!reminders.contains(entry.getReminder())) {
+            addReminder(entry.getReminder());
+         }
+         reminderComboBox.getSelectionModel().select(
+               reminders.indexOf(entry.getReminder()));
       } else {
          mode = Mode.NEW;
       }
@@ -96,6 +129,9 @@ public class CreateDialog extends Stage implements Initializable {
          String name = nameTextField.getText();
          String desc = descTextArea.getText();
          CalendarEntry newEntry = new CalendarEntry(ld, start, end, name, desc);
+         newEntry.setRecurrence(getRecurrence());
+         newEntry.setReminder(reminders.get(Math.max(0, reminderComboBox
+               .getSelectionModel().getSelectedIndex())));
          switch (mode) {
          case EDIT:
             Context
@@ -134,9 +170,64 @@ public class CreateDialog extends Stage implements Initializable {
       endTimeTextField.setTooltip(new Tooltip(resources.getString("endTT")));
       nameTextField.setTooltip(new Tooltip(resources.getString("nameTT")));
       descTextArea.setTooltip(new Tooltip(resources.getString("descTT")));
+      repeatComboBox.getItems().add(resources.getString("never"));
+      for (Frequency frequency : Frequency.values()) {
+         repeatComboBox.getItems().add(
+               resources.getString(frequency.name().toLowerCase(
+                     Locale.ROOT)));
+      }
+      repeatComboBox.getSelectionModel().selectFirst();
+      repeatComboBox.setTooltip(new Tooltip(resources.getString("repeatTT")));
+      untilDatePicker.disableProperty().bind(
+            repeatComboBox.getSelectionModel().selectedIndexProperty()
+                  .lessThan(1));
+      untilDatePicker.setTooltip(new Tooltip(resources.getString("untilTT")));
+      this.resources = resources;
+      for (Duration reminder : REMINDERS) {
+         addReminder(reminder);
+      }
+      reminderComboBox.getSelectionModel().selectFirst();
+      reminderComboBox.setTooltip(new Tooltip(resources.getString("remindTT")));
 
    }
 
+   /**
+    * Adds a reminder to the choices of the reminder combo box.
+    */
+   private void addReminder(Duration reminder) {
+      String text;
+      if (reminder == null) {
+         text = resources.getString("never");
+      } else if (reminder.toMinutes() < 60 || reminder.toMinutes() % 60 != 0) {
+         text = MessageFormat.format(resources.getString("minutesBefore"),
+               reminder.toMinutes());
+      } else {
+         text = MessageFormat.format(resources.getString("hoursBefore"),
+               reminder.toHours());
+      }
+      reminders.add(reminder);
+      reminderComboBox.getItems().add(text);
+   }
+
+   /**
+    * Get the rule chosen in the dialog. The interval, count and exceptions of
+    * an edited series are kept as long as its frequency isn't changed.
+    */
+   private Recurrence getRecurrence() {
+      int selected = repeatComboBox.getSelectionModel().getSelectedIndex();
+      if (selected < 1) {
+         return null;
+      }
+      Frequency frequency = Frequency.values()[selected - 1];
+      Recurrence old = modifiedEntry != null ? modifiedEntry.getRecurrence()
+            : null;
+      if (old != null && old.getFrequency() == frequency) {
+         return new Recurrence(frequency, old.getInterval(),
+               untilDatePicker.getValue(), old.getCount(), old.getExceptions());
+      }
+      return new Recurrence(frequency, 1, untilDatePicker.getValue(), 0, null);
+   }
+
    enum Mode {
       EDIT, NEW;
    }
@@ -3,7 +3,7 @@ package de.malbertz.calendar.client.ui.elements;
 import java.net.URL;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.ResourceBundle;
 
 import javafx.beans.property.SimpleListProperty;
@@ -11,17 +11,25 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.control.SelectionMode;
-import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
-import javafx.scene.control.cell.PropertyValueFactory;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import de.malbertz.calendar.client.ui.dialogs.CreateDialog;
+import de.malbertz.calendar.client.ui.elements.nodes.CachedFormat;
 import de.malbertz.calendar.client.ui.elements.nodes.CalendarContextMenu;
+import de.malbertz.calendar.client.ui.elements.nodes.FormattedCell;
 import de.malbertz.calendar2.CalendarEntry;
 
+/**
+ * This class implements the agenda. It shows all entries in a table ordered
+ * by date and start time, backed by a {@link SortedEntryList}.
+ * 
+ * @author Michael Albertz
+ *
+ */
 public class AgendaView extends TableView<CalendarEntry> implements
       Initializable, ContentPane<CalendarEntry> {
 
@@ -64,75 +72,71 @@ public class AgendaView extends TableView<CalendarEntry> implements
    public void initialize(URL location, ResourceBundle resources) {
       log.entry();
       log.info(bundle);
-      root.setItems(entryList);
+      root.setItems(new SortedEntryList(entryList));
       root.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
-      dayColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalDate>(
-                  "date"));
-      dayColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalDate>() {
-               @Override
-               protected void updateItem(LocalDate item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
-                           "EEE, d MMM yyyy", resources.getLocale());
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
-
-      startColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalTime>(
-                  "startTime"));
-      startColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalTime>() {
-               @Override
-               protected void updateItem(LocalTime item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter
-                           .ofPattern("HH:mm");
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
+      CachedFormat dayFormat = CachedFormat.of("EEE, d MMM yyyy",
+            resources.getLocale());
+      CachedFormat timeFormat = CachedFormat.of("HH:mm", resources.getLocale());
+      dayColumn.setCellValueFactory(param -> param.getValue()
+            .dateProperty());
+      dayColumn.setCellFactory(param -> new FormattedCell<>(dayFormat));
+      dayColumn.setSortable(false);
+
+      startColumn.setCellValueFactory(param -> param.getValue()
+            .startTimeProperty());
+      startColumn.setCellFactory(param -> new FormattedCell<>(timeFormat));
       startColumn.setSortable(false);
-      endColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalTime>(
-                  "endTime"));
-      endColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalTime>() {
-               @Override
-               protected void updateItem(LocalTime item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter
-                           .ofPattern("HH:mm");
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
+      endColumn.setCellValueFactory(param -> param.getValue()
+            .endTimeProperty());
+      endColumn.setCellFactory(param -> new FormattedCell<>(timeFormat));
       endColumn.setSortable(false);
 
-      nameColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, String>(
-                  "name"));
-      descColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, String>(
-                  "description"));
-
-      root.setContextMenu(new CalendarContextMenu(resources, root));
+      nameColumn.setCellValueFactory(param -> param.getValue()
+            .nameProperty());
+      nameColumn.setSortable(false);
+      descColumn.setCellValueFactory(param -> param.getValue()
+            .descriptionProperty());
+      descColumn.setSortable(false);
+
+      // we have to override since the table shows a sorted view of the list
+      // and we have to change the observablelist wrapped by our listproperty.
+      root.setContextMenu(new CalendarContextMenu(resources, root) {
+
+         @Override
+         protected void remove(Collection<CalendarEntry> c) {
+            entryList.getValue().removeAll(c);
+            root.getSelectionModel().selectFirst();
+         }
+
+         @Override
+         protected void replace(CalendarEntry oldValue,
+               CalendarEntry newValue) {
+            int index = entryList.getValue().indexOf(oldValue);
+            if (index >= 0) {
+               entryList.getValue().set(index, newValue);
+            }
+         }
+
+         @Override
+         protected void create(CalendarEntry entry) {
+            CreateDialog dialog = new CreateDialog(resources, entry);
+            if (dialog.getOwner() == null) {
+               dialog.initOwner(root.getScene().getWindow());
+            }
+            CalendarEntry newEntry = dialog.waitForEntry();
+            log.debug(newEntry);
+            if (newEntry != null) {
+               if (entry != null) {
+                  entryList.getValue().set(
+                        entryList.getValue().indexOf(entry), newEntry);
+               } else {
+                  entryList.getValue().add(newEntry);
+               }
+               select(newEntry);
+            }
+         }
+      });
 
       root.getSelectionModel().select(initialEntry);
 
@@ -147,4 +151,13 @@ public class AgendaView extends TableView<CalendarEntry> implements
       return root.getSelectionModel().getSelectedItem();
    }
 
+   @Override
+   public void select(CalendarEntry item) {
+      if (item != null) {
+         root.getSelectionModel().clearSelection();
+         root.getSelectionModel().select(item);
+         root.scrollTo(item);
+      }
+   }
+
 }
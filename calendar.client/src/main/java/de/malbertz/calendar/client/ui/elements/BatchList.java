@@ -0,0 +1,115 @@
+package de.malbertz.calendar.client.ui.elements;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.collections.ModifiableObservableListBase;
+
+/**
+ * This class implements an observable list that can be brought up to date
+ * with a whole batch of data at once.
+ * <p>
+ * {@link #update(Collection)} compares the list with the new data and
+ * removes and adds only the elements that differ, all in one change event.
+ * Listeners like a {@link DayIndex} or a table only handle what actually
+ * changed, instead of the whole list being replaced or every element firing
+ * its own event.
+ * <p>
+ * Elements are compared with {@link Object#equals(Object)} and
+ * {@link Object#hashCode()}. The list must only be used on the JavaFX
+ * application thread.
+ *
+ * @author Michael Albertz
+ *
+ * @param <E>
+ *           the type of the elements
+ */
+public class BatchList<E> extends ModifiableObservableListBase<E> {
+
+   /** Holds the elements */
+   private final ArrayList<E> elements = new ArrayList<>();
+
+   /**
+    * Brings the list up to date with the specified elements. Elements that
+    * are already in the list keep their position, the new ones are added at
+    * the end.
+    * <p>
+    * The listeners are notified once with all removed and added elements, or
+    * not at all if nothing changed.
+    *
+    * @param items
+    *           the elements the list should contain
+    */
+   public void update(Collection<? extends E> items) {
+      Map<E, Integer> wanted = new HashMap<>(items.size() * 4 / 3 + 1);
+      for (E item : items) {
+         wanted.merge(item, 1, Integer::sum);
+      }
+      beginChange();
+      try {
+         // keep the wanted elements in place and drop the others in one pass
+         List<E> old = new ArrayList<>(elements);
+         elements.clear();
+         for (E element : old) {
+            Integer count = wanted.get(element);
+            if (count == null) {
+               nextRemove(elements.size(), element);
+            } else {
+               if (count == 1) {
+                  wanted.remove(element);
+               } else {
+                  wanted.put(element, count - 1);
+               }
+               elements.add(element);
+            }
+         }
+         // what is still wanted is new
+         int from = elements.size();
+         for (E item : items) {
+            Integer count = wanted.get(item);
+            if (count != null) {
+               if (count == 1) {
+                  wanted.remove(item);
+               } else {
+                  wanted.put(item, count - 1);
+               }
+               elements.add(item);
+            }
+         }
+         if (elements.size() > from) {
+            nextAdd(from, elements.size());
+         }
+      } finally {
+         endChange();
+      }
+   }
+
+   @Override
+   public E get(int index) {
+      return elements.get(index);
+   }
+
+   @Override
+   public int size() {
+      return elements.size();
+   }
+
+   @Override
+   protected void doAdd(int index, E element) {
+      elements.add(index, element);
+   }
+
+   @Override
+   protected E doSet(int index, E element) {
+      return elements.set(index, element);
+   }
+
+   @Override
+   protected E doRemove(int index) {
+      return elements.remove(index);
+   }
+
+}
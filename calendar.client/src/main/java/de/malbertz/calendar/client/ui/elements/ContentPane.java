@@ -4,7 +4,8 @@ package de.malbertz.calendar.client.ui.elements;
  * This interface is implemented by JavaFX controllers that control the contents
  * of {@link de.malbertz.calendar.client.ui.MainScene}
  * <p>
- * It is used to receive the currently selected item in a content pane.
+ * It is used to hand the selected item over if the user switches between
+ * content panes.
  * 
  * @author Michael Albertz
  *
@@ -18,4 +19,13 @@ public interface ContentPane<T> {
     * @return the selected item
     */
    T getSelectedItem();
+
+   /**
+    * Selects the specified item and makes sure it is shown. If the item is
+    * null the selection stays as it is.
+    * 
+    * @param item
+    *           the item to select
+    */
+   void select(T item);
 }
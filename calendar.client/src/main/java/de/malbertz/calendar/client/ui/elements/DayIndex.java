@@ -0,0 +1,222 @@
+package de.malbertz.calendar.client.ui.elements;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import de.malbertz.calendar2.CalendarEntry;
+
+/**
+ * This class implements an index of entries by their day.
+ * <p>
+ * It listens to an observable list of entries and keeps its buckets up to
+ * date with every change of the list, so the entries of a range of days can
+ * be looked up in O(log n + entries in range) instead of scanning the whole
+ * list. Within a day the entries are ordered by their start time.
+ * <p>
+ * Recurring entries are kept apart from the buckets. Their occurrences are
+ * only computed for the days that are looked up, and are merged with the
+ * entries of the buckets.
+ * <p>
+ * The index must only be used on the thread that changes the list, which is
+ * the JavaFX application thread.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class DayIndex {
+
+   /** Holds the entries by day */
+   private final TreeMap<LocalDate, List<CalendarEntry>> days = new TreeMap<>();
+   /** Holds the recurring entries */
+   private final List<CalendarEntry> series = new ArrayList<>();
+   /** Holds the listeners notified about changed days */
+   private final List<DayListener> listeners = new CopyOnWriteArrayList<>();
+
+   /**
+    * Creates an index of the specified list and keeps it up to date.
+    *
+    * @param source
+    *           the list to index
+    */
+   public DayIndex(ObservableList<CalendarEntry> source) {
+      for (CalendarEntry entry : source) {
+         insert(entry);
+      }
+      source.addListener((ListChangeListener<CalendarEntry>) this::onChanged);
+   }
+
+   /**
+    * Get the entries of a range of days, ordered by day.
+    *
+    * @param first
+    *           the first day of the range
+    * @param last
+    *           the last day of the range, inclusive
+    * @return the entries of the range
+    */
+   public List<CalendarEntry> range(LocalDate first, LocalDate last) {
+      List<CalendarEntry> result = new ArrayList<>();
+      for (List<CalendarEntry> day : days.subMap(first, true, last, true)
+            .values()) {
+         result.addAll(day);
+      }
+      if (!series.isEmpty()) {
+         for (CalendarEntry entry : series) {
+            for (CalendarEntry occurrence : entry.occurrences(first, last)) {
+               result.add(occurrence);
+            }
+         }
+         result.sort(SortedEntryList.ORDER);
+      }
+      return result;
+   }
+
+   /**
+    * Get the entries of a day.
+    *
+    * @param day
+    *           the day
+    * @return an unmodifiable view of the entries of the day
+    */
+   public List<CalendarEntry> get(LocalDate day) {
+      if (!series.isEmpty()) {
+         return Collections.unmodifiableList(range(day, day));
+      }
+      List<CalendarEntry> entries = days.get(day);
+      return entries == null ? Collections.emptyList() : Collections
+            .unmodifiableList(entries);
+   }
+
+   /**
+    * Get the number of entries of a day. The number of single entries is
+    * kept up to date with every change of the list and is not counted on each
+    * call, only the recurring entries are checked.
+    * 
+    * @param day
+    *           the day
+    * @return the number of entries of the day
+    */
+   public int count(LocalDate day) {
+      List<CalendarEntry> entries = days.get(day);
+      int count = entries == null ? 0 : entries.size();
+      for (CalendarEntry entry : series) {
+         if (entry.occursOn(day)) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Adds a listener that is notified after the entries of some days changed.
+    *
+    * @param listener
+    *           the listener to add
+    */
+   public void addListener(DayListener listener) {
+      listeners.add(listener);
+   }
+
+   /**
+    * Removes a listener.
+    *
+    * @param listener
+    *           the listener to remove
+    */
+   public void removeListener(DayListener listener) {
+      listeners.remove(listener);
+   }
+
+   private void onChanged(ListChangeListener.Change<? extends CalendarEntry> c) {
+      LocalDate first = null;
+      LocalDate last = null;
+      while (c.next()) {
+         if (c.wasPermutated()) {
+            // the order of the list doesn't matter
+            continue;
+         }
+         for (CalendarEntry entry : c.getRemoved()) {
+            remove(entry);
+            first = min(first, entry.getDate());
+            last = max(last, entry.getLastDate());
+         }
+         for (CalendarEntry entry : c.getAddedSubList()) {
+            insert(entry);
+            first = min(first, entry.getDate());
+            last = max(last, entry.getLastDate());
+         }
+      }
+      if (first != null) {
+         for (DayListener listener : listeners) {
+            listener.daysChanged(first, last);
+         }
+      }
+   }
+
+   private void insert(CalendarEntry entry) {
+      if (entry.getRecurrence() != null) {
+         series.add(entry);
+         return;
+      }
+      List<CalendarEntry> day = days.computeIfAbsent(entry.getDate(),
+            d -> new ArrayList<>(2));
+      // entries with the same start time keep the order they were added in
+      int low = 0;
+      int high = day.size();
+      while (low < high) {
+         int mid = (low + high) >>> 1;
+         if (day.get(mid).getStartTime().isAfter(entry.getStartTime())) {
+            high = mid;
+         } else {
+            low = mid + 1;
+         }
+      }
+      day.add(low, entry);
+   }
+
+   private void remove(CalendarEntry entry) {
+      if (entry.getRecurrence() != null) {
+         series.remove(entry);
+         return;
+      }
+      List<CalendarEntry> day = days.get(entry.getDate());
+      if (day != null && day.remove(entry) && day.isEmpty()) {
+         days.remove(entry.getDate());
+      }
+   }
+
+   private static LocalDate min(LocalDate a, LocalDate b) {
+      return a == null || b.isBefore(a) ? b : a;
+   }
+
+   private static LocalDate max(LocalDate a, LocalDate b) {
+      return a == null || b.isAfter(a) ? b : a;
+   }
+
+   /**
+    * A listener that is notified after the entries of some days changed.
+    *
+    * @author Michael Albertz
+    *
+    */
+   @FunctionalInterface
+   public interface DayListener {
+      /**
+       * Called after the entries of some days between first and last changed.
+       *
+       * @param first
+       *           the first changed day
+       * @param last
+       *           the last changed day, inclusive
+       */
+      void daysChanged(LocalDate first, LocalDate last);
+   }
+
+}
@@ -2,24 +2,18 @@ package de.malbertz.calendar.client.ui.elements;
 
 import java.net.URL;
 import java.time.LocalDate;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.time.YearMonth;
 import java.util.Collection;
 import java.util.ResourceBundle;
 
 import javafx.beans.property.SimpleListProperty;
-import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.control.SelectionMode;
-import javafx.scene.control.TableCell;
-import javafx.scene.control.TableColumn;
-import javafx.scene.control.TableView;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.SVGPath;
 
@@ -27,16 +21,18 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.malbertz.calendar.client.ui.dialogs.CreateDialog;
+import de.malbertz.calendar.client.ui.elements.nodes.CachedFormat;
 import de.malbertz.calendar.client.ui.elements.nodes.CalendarContextMenu;
+import de.malbertz.calendar.client.ui.elements.nodes.MonthGrid;
 import de.malbertz.calendar2.CalendarEntry;
 
 public class MonthView extends GridPane implements Initializable,
       ContentPane<CalendarEntry> {
 
-   private static final Logger log = LogManager.getLogger(WeekView.class);
+   private static final Logger log = LogManager.getLogger(MonthView.class);
 
    @FXML
-   private TableView<CalendarEntry> entryTable;
+   private StackPane gridPane;
    @FXML
    private Button previousButton;
    @FXML
@@ -44,23 +40,13 @@ public class MonthView extends GridPane implements Initializable,
    @FXML
    private Button todayButton;
    @FXML
-   private TableColumn<CalendarEntry, LocalDate> dayColumn;
-   @FXML
-   private TableColumn<CalendarEntry, LocalTime> startColumn;
-   @FXML
-   private TableColumn<CalendarEntry, LocalTime> endColumn;
-   @FXML
-   private TableColumn<CalendarEntry, String> nameColumn;
-   @FXML
-   private TableColumn<CalendarEntry, String> descColumn;
-   @FXML
    private Label currentLabel;
 
    private final SimpleListProperty<CalendarEntry> entryList = new SimpleListProperty<CalendarEntry>();
-   private FilteredList<CalendarEntry> filteredList;
+   private final DayIndex index;
+   private MonthGrid monthGrid;
    private CalendarEntry initialEntry;
-   private LocalDate firstDay;
-   private LocalDate lastDay;
+   private YearMonth month;
    private ResourceBundle bundle;
 
    public MonthView(ResourceBundle bundle) throws Exception {
@@ -70,17 +56,33 @@ public class MonthView extends GridPane implements Initializable,
 
    public MonthView(ResourceBundle bundle, CalendarEntry startEntry)
          throws Exception {
+      this(bundle, startEntry, null);
+   }
+
+   /**
+    * Creates a view that looks up the entries it shows in the specified index.
+    * The index must be kept up to date with the list this view is bound to.
+    * 
+    * @param bundle
+    *           the resource bundle
+    * @param startEntry
+    *           the entry to select and show, may be null
+    * @param index
+    *           the index of the entries by day, null to index the entry list
+    *           of this view
+    */
+   public MonthView(ResourceBundle bundle, CalendarEntry startEntry, DayIndex index)
+         throws Exception {
       this.bundle = bundle;
+      this.index = index != null ? index : new DayIndex(entryList);
 
       initialEntry = startEntry;
 
-      LocalDate now = startEntry != null ? startEntry.getDate() : LocalDate
-            .now();
-      firstDay = now.withDayOfMonth(1);
-      lastDay = now.withDayOfMonth(now.lengthOfMonth());
+      month = startEntry != null ? YearMonth.from(startEntry.getDate())
+            : YearMonth.now();
 
       FXMLLoader loader = new FXMLLoader(getClass().getResource(
-            "/fxml/WeekView.fxml"));
+            "/fxml/MonthView.fxml"));
       loader.setResources(bundle);
       loader.setRoot(this);
       loader.setController(this);
@@ -90,158 +92,71 @@ public class MonthView extends GridPane implements Initializable,
    @Override
    public void initialize(URL location, ResourceBundle resources) {
 
-      initTableView();
+      monthGrid = new MonthGrid(bundle, index);
+      gridPane.getChildren().add(monthGrid);
+      initContextMenu();
       initButtonIcons();
       initButtons();
-      updateCurrentLabel();
-      updateList();
+      showMonth(month);
 
-      entryTable.getSelectionModel().select(initialEntry);
+      monthGrid.select(initialEntry);
 
    }
 
-   private void initTableView() {
-      entryTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
-      dayColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalDate>(
-                  "date"));
-      dayColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalDate>() {
-               @Override
-               protected void updateItem(LocalDate item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
-                           "EEE, d MMM yyyy", bundle.getLocale());
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
-
-      startColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalTime>(
-                  "startTime"));
-      startColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalTime>() {
-               @Override
-               protected void updateItem(LocalTime item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter
-                           .ofPattern("HH:mm");
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
-      startColumn.setSortable(false);
-      endColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalTime>(
-                  "endTime"));
-      endColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalTime>() {
-               @Override
-               protected void updateItem(LocalTime item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter
-                           .ofPattern("HH:mm");
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
-      endColumn.setSortable(false);
-
-      nameColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, String>(
-                  "name"));
-      descColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, String>(
-                  "description"));
-
-      // we have to override since filteredlist doesnt support add and we have
-      // to add it directly to
-      // the observablelist wrapped by our listproperty.
-      entryTable.setContextMenu(new CalendarContextMenu(bundle, entryTable) {
+   private void initContextMenu() {
+      // the grid has no table, so we have to change the observablelist
+      // wrapped by our listproperty ourselves.
+      CalendarContextMenu menu = new CalendarContextMenu(bundle,
+            monthGrid.getSelectedItems()) {
 
          @Override
          protected void remove(Collection<CalendarEntry> c) {
             entryList.getValue().removeAll(c);
-            entryTable.getSelectionModel().selectFirst();
+         }
+
+         @Override
+         protected void replace(CalendarEntry oldValue,
+               CalendarEntry newValue) {
+            int index = entryList.getValue().indexOf(oldValue);
+            if (index >= 0) {
+               entryList.getValue().set(index, newValue);
+            }
          }
 
          @Override
          protected void create(CalendarEntry entry) {
             CreateDialog dialog = new CreateDialog(bundle, entry);
             if (dialog.getOwner() == null) {
-               dialog.initOwner(entryTable.getScene().getWindow());
+               dialog.initOwner(monthGrid.getScene().getWindow());
             }
             CalendarEntry newEntry = dialog.waitForEntry();
             log.entry();
             if (newEntry != null) {
                if (entry != null) {
                   entryList.getValue().set(
-                        entryTable.getSelectionModel().getSelectedIndex(),
-                        newEntry);
+                        entryList.getValue().indexOf(entry), newEntry);
                } else {
                   entryList.getValue().add(newEntry);
                }
             }
          }
-      });
-
+      };
+      monthGrid.setOnContextMenuRequested(event -> menu.show(monthGrid,
+            event.getScreenX(), event.getScreenY()));
    }
 
    private void initButtons() {
-      nextButton.setOnAction(event -> {
-         firstDay = firstDay.plusMonths(1);
-         lastDay = lastDay.plusMonths(1);
-         lastDay = lastDay.withDayOfMonth(lastDay.lengthOfMonth());
-         log.debug(firstDay + " - " + lastDay);
-         updateCurrentLabel();
-         updateList();
-      });
-      previousButton.setOnAction(event -> {
-         firstDay = firstDay.minusMonths(1);
-         lastDay = lastDay.minusMonths(1);
-         lastDay = lastDay.withDayOfMonth(lastDay.lengthOfMonth());
-         log.debug(firstDay + " - " + lastDay);
-         updateCurrentLabel();
-         updateList();
-      });
-      todayButton.setOnAction(event -> {
-         LocalDate now = LocalDate.now();
-         firstDay = now.withDayOfMonth(1);
-         lastDay = now.withDayOfMonth(now.lengthOfMonth());
-         updateCurrentLabel();
-         updateList();
-      });
+      nextButton.setOnAction(event -> showMonth(month.plusMonths(1)));
+      previousButton.setOnAction(event -> showMonth(month.minusMonths(1)));
+      todayButton.setOnAction(event -> showMonth(YearMonth.now()));
    }
 
-   private void updateList() {
-      filteredList = entryList.filtered(entry -> {
-
-         if (entry.getDate().isAfter(firstDay.minusDays(1))
-               && entry.getDate().isBefore(lastDay.plusDays(1))) {
-            return true;
-         }
-         return false;
-      });
-      entryTable.setItems(filteredList);
-   }
-
-   private void updateCurrentLabel() {
-      DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMMM yyyy",
-            bundle.getLocale());
-      currentLabel.setText(firstDay.format(formatter));
+   private void showMonth(YearMonth month) {
+      this.month = month;
+      log.debug(month);
+      monthGrid.setMonth(month);
+      currentLabel.setText(CachedFormat.of("MMMM yyyy", bundle.getLocale())
+            .format(month));
    }
 
    private void initButtonIcons() {
@@ -261,7 +176,18 @@ public class MonthView extends GridPane implements Initializable,
 
    @Override
    public CalendarEntry getSelectedItem() {
-      return entryTable.getSelectionModel().getSelectedItem();
+      return monthGrid.getSelectedItem();
+   }
+
+   @Override
+   public void select(CalendarEntry item) {
+      if (item == null) {
+         return;
+      }
+      if (!YearMonth.from(item.getDate()).equals(month)) {
+         showMonth(YearMonth.from(item.getDate()));
+      }
+      monthGrid.select(item);
    }
 
 }
@@ -0,0 +1,129 @@
+package de.malbertz.calendar.client.ui.elements;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+
+import de.malbertz.calendar2.CalendarEntry;
+
+/**
+ * This class implements a read-only view of an observable list of entries
+ * that is ordered by date and start time.
+ * <p>
+ * The view is sorted once and then kept in order with every change of the
+ * list: the position of an added entry is found by binary search and only that
+ * row is inserted, removed entries are found the same way. A change of the
+ * list is passed on as one change of the affected rows, so a table showing the
+ * view never sorts or reloads all of its rows.
+ * <p>
+ * Entries with the same date and start time keep the order they were added
+ * in. The view must only be used on the thread that changes the list.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SortedEntryList extends ObservableListBase<CalendarEntry> {
+
+   /** The order of the entries */
+   public static final Comparator<CalendarEntry> ORDER = Comparator.comparing(
+         CalendarEntry::getDate).thenComparing(CalendarEntry::getStartTime);
+
+   /** Holds the entries in order */
+   private final ArrayList<CalendarEntry> elements = new ArrayList<>();
+
+   /**
+    * Creates a sorted view of the specified list and keeps it up to date.
+    *
+    * @param source
+    *           the list to view
+    */
+   public SortedEntryList(ObservableList<CalendarEntry> source) {
+      elements.addAll(source);
+      elements.sort(ORDER);
+      source.addListener((ListChangeListener<CalendarEntry>) this::onChanged);
+   }
+
+   @Override
+   public CalendarEntry get(int index) {
+      return elements.get(index);
+   }
+
+   @Override
+   public int size() {
+      return elements.size();
+   }
+
+   private void onChanged(ListChangeListener.Change<? extends CalendarEntry> c) {
+      beginChange();
+      try {
+         while (c.next()) {
+            if (c.wasPermutated()) {
+               // the order of the list doesn't matter
+               continue;
+            }
+            for (CalendarEntry entry : c.getRemoved()) {
+               int index = indexOf(entry);
+               if (index >= 0) {
+                  elements.remove(index);
+                  nextRemove(index, entry);
+               }
+            }
+            for (CalendarEntry entry : c.getAddedSubList()) {
+               int index = insertionPoint(entry);
+               elements.add(index, entry);
+               nextAdd(index, index + 1);
+            }
+         }
+      } finally {
+         endChange();
+      }
+   }
+
+   /**
+    * Get the position after the last entry that is not ordered after the
+    * specified one.
+    */
+   private int insertionPoint(CalendarEntry entry) {
+      int low = 0;
+      int high = elements.size();
+      while (low < high) {
+         int mid = (low + high) >>> 1;
+         if (ORDER.compare(elements.get(mid), entry) > 0) {
+            high = mid;
+         } else {
+            low = mid + 1;
+         }
+      }
+      return low;
+   }
+
+   /**
+    * This method finds an entry by searching the entries with the same date
+    * and start time backwards from their end.
+    *
+    * @return the index of the entry, -1 if it isn't in the view
+    */
+   @Override
+   public int indexOf(Object o) {
+      if (!(o instanceof CalendarEntry)) {
+         return -1;
+      }
+      CalendarEntry entry = (CalendarEntry) o;
+      for (int i = insertionPoint(entry) - 1; i >= 0
+            && ORDER.compare(elements.get(i), entry) == 0; i--) {
+         if (elements.get(i).equals(entry)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   @Override
+   public boolean contains(Object o) {
+      return indexOf(o) >= 0;
+   }
+
+}
@@ -3,24 +3,22 @@ package de.malbertz.calendar.client.ui.elements;
 import java.net.URL;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalField;
 import java.time.temporal.WeekFields;
 import java.util.Collection;
 import java.util.ResourceBundle;
 
 import javafx.beans.property.SimpleListProperty;
-import javafx.collections.transformation.FilteredList;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.SelectionMode;
-import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.SVGPath;
@@ -29,7 +27,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.malbertz.calendar.client.ui.dialogs.CreateDialog;
+import de.malbertz.calendar.client.ui.elements.nodes.CachedFormat;
 import de.malbertz.calendar.client.ui.elements.nodes.CalendarContextMenu;
+import de.malbertz.calendar.client.ui.elements.nodes.FormattedCell;
 import de.malbertz.calendar2.CalendarEntry;
 
 public class WeekView extends GridPane implements Initializable,
@@ -59,7 +59,9 @@ public class WeekView extends GridPane implements Initializable,
    private Label currentLabel;
 
    private final SimpleListProperty<CalendarEntry> entryList = new SimpleListProperty<CalendarEntry>();
-   private FilteredList<CalendarEntry> filteredList;
+   private final ObservableList<CalendarEntry> shownList = FXCollections
+         .observableArrayList();
+   private final DayIndex index;
    private CalendarEntry initialEntry;
    private LocalDate firstDay;
    private LocalDate lastDay;
@@ -72,7 +74,25 @@ public class WeekView extends GridPane implements Initializable,
 
    public WeekView(ResourceBundle bundle, CalendarEntry startEntry)
          throws Exception {
+      this(bundle, startEntry, null);
+   }
+
+   /**
+    * Creates a view that looks up the entries it shows in the specified index.
+    * The index must be kept up to date with the list this view is bound to.
+    * 
+    * @param bundle
+    *           the resource bundle
+    * @param startEntry
+    *           the entry to select and show, may be null
+    * @param index
+    *           the index of the entries by day, null to index the entry list
+    *           of this view
+    */
+   public WeekView(ResourceBundle bundle, CalendarEntry startEntry, DayIndex index)
+         throws Exception {
       this.bundle = bundle;
+      this.index = index != null ? index : new DayIndex(entryList);
       initialEntry = startEntry;
 
       LocalDate now = startEntry != null ? startEntry.getDate() : LocalDate
@@ -93,6 +113,12 @@ public class WeekView extends GridPane implements Initializable,
    public void initialize(URL location, ResourceBundle resources) {
 
       initTableView();
+      entryTable.setItems(shownList);
+      index.addListener((first, last) -> {
+         if (!first.isAfter(lastDay) && !last.isBefore(firstDay)) {
+            updateList();
+         }
+      });
       initButtonIcons();
       initButtons();
       updateCurrentLabel();
@@ -103,74 +129,29 @@ public class WeekView extends GridPane implements Initializable,
 
    private void initTableView() {
       entryTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
-      dayColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalDate>(
-                  "date"));
-      dayColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalDate>() {
-               @Override
-               protected void updateItem(LocalDate item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
-                           "EEE, d MMM yyyy", bundle.getLocale());
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
-
-      startColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalTime>(
-                  "startTime"));
-      startColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalTime>() {
-               @Override
-               protected void updateItem(LocalTime item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter
-                           .ofPattern("HH:mm");
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
+      CachedFormat dayFormat = CachedFormat.of("EEE, d MMM yyyy",
+            bundle.getLocale());
+      CachedFormat timeFormat = CachedFormat.of("HH:mm", bundle.getLocale());
+      dayColumn.setCellValueFactory(param -> param.getValue()
+            .dateProperty());
+      dayColumn.setCellFactory(param -> new FormattedCell<>(dayFormat));
+
+      startColumn.setCellValueFactory(param -> param.getValue()
+            .startTimeProperty());
+      startColumn.setCellFactory(param -> new FormattedCell<>(timeFormat));
       startColumn.setSortable(false);
-      endColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, LocalTime>(
-                  "endTime"));
-      endColumn
-            .setCellFactory(param -> new TableCell<CalendarEntry, LocalTime>() {
-               @Override
-               protected void updateItem(LocalTime item, boolean empty) {
-                  super.updateItem(item, empty);
-                  if (!empty) {
-                     DateTimeFormatter formatter = DateTimeFormatter
-                           .ofPattern("HH:mm");
-                     setText(item.format(formatter));
-                  } else {
-                     setText(null);
-                  }
-
-               }
-            });
+      endColumn.setCellValueFactory(param -> param.getValue()
+            .endTimeProperty());
+      endColumn.setCellFactory(param -> new FormattedCell<>(timeFormat));
       endColumn.setSortable(false);
 
-      nameColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, String>(
-                  "name"));
-      descColumn
-            .setCellValueFactory(new PropertyValueFactory<CalendarEntry, String>(
-                  "description"));
+      nameColumn.setCellValueFactory(param -> param.getValue()
+            .nameProperty());
+      descColumn.setCellValueFactory(param -> param.getValue()
+            .descriptionProperty());
 
-      // we have to override since filteredlist doesnt support add and we have
-      // to add it directly to
-      // the observablelist wrapped by our listproperty.
+      // we have to override since the table only shows a part of the list
+      // and we have to change the observablelist wrapped by our listproperty.
       entryTable.setContextMenu(new CalendarContextMenu(bundle, entryTable) {
 
          @Override
@@ -179,6 +160,15 @@ public class WeekView extends GridPane implements Initializable,
             entryTable.getSelectionModel().selectFirst();
          }
 
+         @Override
+         protected void replace(CalendarEntry oldValue,
+               CalendarEntry newValue) {
+            int index = entryList.getValue().indexOf(oldValue);
+            if (index >= 0) {
+               entryList.getValue().set(index, newValue);
+            }
+         }
+
          @Override
          protected void create(CalendarEntry entry) {
             CreateDialog dialog = new CreateDialog(bundle, entry);
@@ -190,8 +180,7 @@ public class WeekView extends GridPane implements Initializable,
             if (newEntry != null) {
                if (entry != null) {
                   entryList.getValue().set(
-                        entryTable.getSelectionModel().getSelectedIndex(),
-                        newEntry);
+                        entryList.getValue().indexOf(entry), newEntry);
                } else {
                   entryList.getValue().add(newEntry);
                }
@@ -225,25 +214,17 @@ public class WeekView extends GridPane implements Initializable,
    }
 
    private void updateList() {
-      filteredList = entryList.filtered(entry -> {
-
-         if (entry.getDate().isAfter(firstDay.minusDays(1))
-               && entry.getDate().isBefore(lastDay.plusDays(1))) {
-            return true;
-         }
-         return false;
-      });
-      entryTable.setItems(filteredList);
+      shownList.setAll(index.range(firstDay, lastDay));
    }
 
    private void updateCurrentLabel() {
-      DateTimeFormatter firstFormat = DateTimeFormatter.ofPattern("d."
+      CachedFormat firstFormat = CachedFormat.of("d."
             + (firstDay.getMonth() == lastDay.getMonth() ? "" : " MMM"),
             bundle.getLocale());
-      DateTimeFormatter lastFormat = DateTimeFormatter.ofPattern("d. MMM yyyy",
+      CachedFormat lastFormat = CachedFormat.of("d. MMM yyyy",
             bundle.getLocale());
-      currentLabel.setText(firstDay.format(firstFormat) + " - "
-            + lastDay.format(lastFormat));
+      currentLabel.setText(firstFormat.format(firstDay) + " - "
+            + lastFormat.format(lastDay));
    }
 
    private void initButtonIcons() {
@@ -266,4 +247,21 @@ public class WeekView extends GridPane implements Initializable,
       return entryTable.getSelectionModel().getSelectedItem();
    }
 
+   @Override
+   public void select(CalendarEntry item) {
+      if (item == null) {
+         return;
+      }
+      if (item.getDate().isBefore(firstDay) || item.getDate().isAfter(lastDay)) {
+         TemporalField tf = WeekFields.of(bundle.getLocale()).dayOfWeek();
+         firstDay = item.getDate().with(tf, 1);
+         lastDay = item.getDate().with(tf, 7);
+         updateCurrentLabel();
+         updateList();
+      }
+      entryTable.getSelectionModel().clearSelection();
+      entryTable.getSelectionModel().select(item);
+      entryTable.scrollTo(item);
+   }
+
 }
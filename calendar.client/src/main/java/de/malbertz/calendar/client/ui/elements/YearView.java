@@ -0,0 +1,153 @@
+package de.malbertz.calendar.client.ui.elements;
+
+import java.net.URL;
+import java.time.LocalDate;
+import java.time.Year;
+import java.util.List;
+import java.util.ResourceBundle;
+
+import javafx.beans.property.SimpleListProperty;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.fxml.Initializable;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.StackPane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.SVGPath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.malbertz.calendar.client.ui.elements.nodes.YearHeatMap;
+import de.malbertz.calendar2.CalendarEntry;
+
+/**
+ * This class implements the year overview. It shows how many entries each day
+ * of a year has as a {@link YearHeatMap}.
+ * <p>
+ * The selected item is the first entry of the selected day, so switching to
+ * another view shows that day.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class YearView extends GridPane implements Initializable,
+      ContentPane<CalendarEntry> {
+
+   private static final Logger log = LogManager.getLogger(YearView.class);
+
+   @FXML
+   private StackPane gridPane;
+   @FXML
+   private Button previousButton;
+   @FXML
+   private Button nextButton;
+   @FXML
+   private Button todayButton;
+   @FXML
+   private Label currentLabel;
+
+   private final SimpleListProperty<CalendarEntry> entryList = new SimpleListProperty<CalendarEntry>();
+   private final DayIndex index;
+   private YearHeatMap heatMap;
+   private CalendarEntry initialEntry;
+   private Year year;
+   private ResourceBundle bundle;
+
+   /**
+    * Creates a view that counts the entries per day with the specified index.
+    * The index must be kept up to date with the list this view is bound to.
+    *
+    * @param bundle
+    *           the resource bundle
+    * @param startEntry
+    *           the entry whose day to select and show, may be null
+    * @param index
+    *           the index of the entries by day, null to index the entry list
+    *           of this view
+    */
+   public YearView(ResourceBundle bundle, CalendarEntry startEntry, DayIndex index)
+         throws Exception {
+      this.bundle = bundle;
+      this.index = index != null ? index : new DayIndex(entryList);
+
+      initialEntry = startEntry;
+
+      year = startEntry != null ? Year.from(startEntry.getDate()) : Year.now();
+
+      FXMLLoader loader = new FXMLLoader(getClass().getResource(
+            "/fxml/YearView.fxml"));
+      loader.setResources(bundle);
+      loader.setRoot(this);
+      loader.setController(this);
+      loader.load();
+   }
+
+   @Override
+   public void initialize(URL location, ResourceBundle resources) {
+
+      heatMap = new YearHeatMap(bundle, index);
+      gridPane.getChildren().add(heatMap);
+      initButtonIcons();
+      initButtons();
+      showYear(year);
+
+      select(initialEntry);
+
+   }
+
+   private void initButtons() {
+      nextButton.setOnAction(event -> showYear(year.plusYears(1)));
+      previousButton.setOnAction(event -> showYear(year.minusYears(1)));
+      todayButton.setOnAction(event -> {
+         showYear(Year.now());
+         heatMap.select(LocalDate.now());
+      });
+   }
+
+   private void showYear(Year year) {
+      this.year = year;
+      log.debug(year);
+      heatMap.setYear(year);
+      currentLabel.setText(year.toString());
+   }
+
+   private void initButtonIcons() {
+      SVGPath svg = new SVGPath();
+      svg.setContent("M 0 0 v -8 l 4 4 z");
+      svg.setFill(Color.DIMGREY);
+      nextButton.setGraphic(svg);
+      svg = new SVGPath();
+      svg.setContent("M 0 0 v 8 l -4 -4 z");
+      svg.setFill(Color.DIMGREY);
+      previousButton.setGraphic(svg);
+   }
+
+   public final SimpleListProperty<CalendarEntry> entryListProperty() {
+      return this.entryList;
+   }
+
+   @Override
+   public CalendarEntry getSelectedItem() {
+      LocalDate day = heatMap.getSelectedDay();
+      if (day == null) {
+         return null;
+      }
+      List<CalendarEntry> entries = index.get(day);
+      return entries.isEmpty() ? null : entries.get(0);
+   }
+
+   @Override
+   public void select(CalendarEntry item) {
+      if (item == null) {
+         return;
+      }
+      if (!Year.from(item.getDate()).equals(year)) {
+         showYear(Year.from(item.getDate()));
+      }
+      heatMap.select(item.getDate());
+   }
+
+}
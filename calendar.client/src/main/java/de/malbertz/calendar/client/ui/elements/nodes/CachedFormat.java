@@ -0,0 +1,83 @@
+package de.malbertz.calendar.client.ui.elements.nodes;
+
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class implements a shared date time format that remembers the strings
+ * it rendered.
+ * <p>
+ * There is one instance per pattern and locale. The pattern is parsed once
+ * and the last {@link #CACHE_SIZE} values are kept with their formatted
+ * string, so cells that show the same dates and times over and over again
+ * don't format them again. Entries on the same day or at the same time share
+ * the same string.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class CachedFormat {
+
+   /** The number of formatted values kept per format */
+   private static final int CACHE_SIZE = 2048;
+   /** Holds the shared formats by pattern and locale */
+   private static final Map<String, CachedFormat> formats = new ConcurrentHashMap<>();
+
+   /** Holds the formatter of the pattern */
+   private final DateTimeFormatter formatter;
+   /** Holds the last formatted values in access order */
+   private final Map<TemporalAccessor, String> cache = new LinkedHashMap<TemporalAccessor, String>(
+         64, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+            Map.Entry<TemporalAccessor, String> eldest) {
+         return size() > CACHE_SIZE;
+      }
+   };
+
+   private CachedFormat(String pattern, Locale locale) {
+      formatter = DateTimeFormatter.ofPattern(pattern, locale);
+   }
+
+   /**
+    * Get the shared format of the specified pattern and locale.
+    *
+    * @param pattern
+    *           the pattern as used by {@link DateTimeFormatter#ofPattern}
+    * @param locale
+    *           the locale to format with
+    * @return the shared format
+    */
+   public static CachedFormat of(String pattern, Locale locale) {
+      return formats.computeIfAbsent(pattern + "|" + locale.toLanguageTag(),
+            key -> new CachedFormat(pattern, locale));
+   }
+
+   /**
+    * This method formats the specified value. The value must be immutable,
+    * like {@link java.time.LocalDate} or {@link java.time.LocalTime}.
+    *
+    * @param value
+    *           the value to format
+    * @return the formatted value, null if the value is null
+    */
+   public synchronized String format(TemporalAccessor value) {
+      if (value == null) {
+         return null;
+      }
+      String text = cache.get(value);
+      if (text == null) {
+         text = formatter.format(value);
+         cache.put(value, text);
+      }
+      return text;
+   }
+
+}
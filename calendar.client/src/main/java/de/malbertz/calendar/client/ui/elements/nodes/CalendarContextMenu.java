@@ -1,10 +1,14 @@
 package de.malbertz.calendar.client.ui.elements.nodes;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
 
 import javafx.beans.binding.Bindings;
+import javafx.collections.ObservableList;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TableView;
@@ -21,6 +25,20 @@ import de.malbertz.calendar2.CalendarEntry;
 import de.malbertz.calendar2.ServerCommand;
 import de.malbertz.calendar2.ServerCommand.Command;
 
+/**
+ * This class implements the context menu to edit, delete and create entries.
+ * <p>
+ * It works on a list of selected entries. The default implementations of
+ * {@link #remove(Collection)}, {@link #replace(CalendarEntry, CalendarEntry)}
+ * and {@link #create(CalendarEntry)} change the items of a table; menus
+ * without a table have to override them.
+ * <p>
+ * An occurrence of a recurring entry is edited by editing its series. Deleting
+ * an occurrence only leaves it out of its series.
+ * 
+ * @author Michael Albertz
+ *
+ */
 public class CalendarContextMenu extends ContextMenu {
 
    private static Logger log = LogManager.getLogger(CalendarContextMenu.class);
@@ -34,8 +52,21 @@ public class CalendarContextMenu extends ContextMenu {
 
    public CalendarContextMenu(ResourceBundle bundle,
          TableView<CalendarEntry> table) {
-      super();
+      this(bundle, table.getSelectionModel().getSelectedItems());
       this.table = table;
+   }
+
+   /**
+    * Creates a context menu for the specified selection.
+    * 
+    * @param bundle
+    *           the resource bundle
+    * @param selection
+    *           the selected entries
+    */
+   public CalendarContextMenu(ResourceBundle bundle,
+         ObservableList<CalendarEntry> selection) {
+      super();
       this.bundle = bundle;
 
       editItem = new MenuItem(bundle.getString("edit"));
@@ -43,13 +74,23 @@ public class CalendarContextMenu extends ContextMenu {
       newItem = new MenuItem(bundle.getString("new"));
       getItems().addAll(editItem, deleteItem, newItem);
 
-      editItem.setOnAction(event -> create(table.getSelectionModel()
-            .getSelectedItem()));
+      editItem.setOnAction(event -> create(selection.isEmpty() ? null
+            : seriesOf(selection.get(0))));
       deleteItem
             .setOnAction(event -> {
-               List<CalendarEntry> items = table.getSelectionModel()
-                     .getSelectedItems();
-
+               List<CalendarEntry> items = new ArrayList<>();
+               // the new version of every series an occurrence is deleted of
+               Map<CalendarEntry, CalendarEntry> series = new LinkedHashMap<>();
+
+               for (CalendarEntry calendarEntry : selection) {
+                  CalendarEntry old = calendarEntry.getSeries();
+                  if (old == null) {
+                     items.add(calendarEntry);
+                  } else {
+                     series.put(old, series.getOrDefault(old, old)
+                           .withException(calendarEntry.getDate()));
+                  }
+               }
                for (CalendarEntry calendarEntry : items) {
                   Context
                         .getInstance()
@@ -58,13 +99,25 @@ public class CalendarContextMenu extends ContextMenu {
                               new ServerCommand(Command.REMOVE, null,
                                     calendarEntry));
                }
+               for (Map.Entry<CalendarEntry, CalendarEntry> change : series
+                     .entrySet()) {
+                  Context
+                        .getInstance()
+                        .getClient()
+                        .sendCommand(
+                              new ServerCommand(Command.MODIFY, change
+                                    .getValue(), change.getKey()));
+               }
                remove(items);
+               for (Map.Entry<CalendarEntry, CalendarEntry> change : series
+                     .entrySet()) {
+                  replace(change.getKey(), change.getValue());
+               }
 
             });
       newItem.setOnAction(event -> create(null));
 
-      deleteItem.disableProperty().bind(
-            Bindings.isEmpty(table.getSelectionModel().getSelectedItems()));
+      deleteItem.disableProperty().bind(Bindings.isEmpty(selection));
       editItem.setAccelerator(new KeyCodeCombination(KeyCode.E,
             KeyCombination.CONTROL_DOWN));
       deleteItem.setAccelerator(new KeyCodeCombination(KeyCode.DELETE));
@@ -74,10 +127,10 @@ public class CalendarContextMenu extends ContextMenu {
       //@formatter:off
 		editItem.disableProperty().bind(
 				Bindings.greaterThan(						
-						Bindings.size(table.getSelectionModel().getSelectedItems()),
+						Bindings.size(selection),
 						1)
 							.or(
-									Bindings.isEmpty(table.getSelectionModel().getSelectedItems())
+									Bindings.isEmpty(selection)
 									)
 								);
 		//@formatter:on
@@ -89,6 +142,13 @@ public class CalendarContextMenu extends ContextMenu {
       table.getSelectionModel().selectFirst();
    }
 
+   protected void replace(CalendarEntry oldValue, CalendarEntry newValue) {
+      int index = table.getItems().indexOf(oldValue);
+      if (index >= 0) {
+         table.getItems().set(index, newValue);
+      }
+   }
+
    protected void create(CalendarEntry entry) {
       CreateDialog dialog = new CreateDialog(bundle, entry);
       if (dialog.getOwner() == null) {
@@ -105,4 +165,9 @@ public class CalendarContextMenu extends ContextMenu {
          }
       }
    }
+
+   /** Get the series of an occurrence, or the entry itself. */
+   private static CalendarEntry seriesOf(CalendarEntry entry) {
+      return entry.getSeries() != null ? entry.getSeries() : entry;
+   }
 }
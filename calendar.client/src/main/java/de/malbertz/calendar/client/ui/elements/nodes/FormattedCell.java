@@ -0,0 +1,39 @@
+package de.malbertz.calendar.client.ui.elements.nodes;
+
+import java.time.temporal.TemporalAccessor;
+
+import javafx.scene.control.TableCell;
+
+/**
+ * This class implements a table cell that shows a date or time formatted by a
+ * {@link CachedFormat}. It is shared by the columns of all calendar views.
+ *
+ * @author Michael Albertz
+ *
+ * @param <S>
+ *           the type of the table items
+ * @param <T>
+ *           the type of the cell value
+ */
+public class FormattedCell<S, T extends TemporalAccessor> extends
+      TableCell<S, T> {
+
+   private final CachedFormat format;
+
+   /**
+    * Creates a cell that shows its value in the specified format.
+    *
+    * @param format
+    *           the format of the value
+    */
+   public FormattedCell(CachedFormat format) {
+      this.format = format;
+   }
+
+   @Override
+   protected void updateItem(T item, boolean empty) {
+      super.updateItem(item, empty);
+      setText(empty ? null : format.format(item));
+   }
+
+}
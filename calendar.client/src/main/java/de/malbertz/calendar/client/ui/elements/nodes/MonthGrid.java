@@ -0,0 +1,348 @@
+package de.malbertz.calendar.client.ui.elements.nodes;
+
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.WeekFields;
+import java.util.List;
+import java.util.ResourceBundle;
+
+import javafx.beans.InvalidationListener;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.TextAlignment;
+
+import de.malbertz.calendar.client.ui.elements.DayIndex;
+import de.malbertz.calendar.client.ui.elements.DayIndex.DayListener;
+import de.malbertz.calendar2.CalendarEntry;
+
+/**
+ * This class implements a month grid with a column per weekday and a row per
+ * week.
+ * <p>
+ * The grid is painted on a single canvas instead of creating a node per day
+ * or entry. Every day cell shows as many entries as fit its height, taken
+ * from a {@link DayIndex}, and a "+N more" line if there are more. Clicking
+ * that line lists all entries of the day. Only the visible days are looked up
+ * and the grid is only repainted if one of them changed.
+ * <p>
+ * One entry can be selected by clicking it.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class MonthGrid extends Region {
+
+   /** The height of the weekday header */
+   private static final double HEADER_HEIGHT = 22;
+   /** The padding inside a day cell */
+   private static final double PADDING = 3;
+   private static final Color GRID_COLOR = Color.LIGHTGRAY;
+   private static final Color TEXT_COLOR = Color.BLACK;
+   private static final Color OTHER_MONTH_COLOR = Color.DARKGRAY;
+   private static final Color TODAY_COLOR = Color.web("#e8f4fb");
+   private static final Color SELECTION_COLOR = Color.web("#0096c9");
+
+   private final Canvas canvas = new Canvas();
+   private final DayIndex index;
+   private final ResourceBundle bundle;
+   private final WeekFields weekFields;
+   private final CachedFormat timeFormat;
+   private final CachedFormat weekdayFormat;
+   private final Font font = Font.getDefault();
+   private final Font boldFont = Font.font(font.getFamily(), FontWeight.BOLD,
+         font.getSize());
+   private final double lineHeight = Math.ceil(font.getSize() * 1.4);
+   /** Holds the selected entry, if there is one */
+   private final ObservableList<CalendarEntry> selection = FXCollections
+         .observableArrayList();
+   /** Repaints the grid if one of the shown days changed */
+   private final DayListener listener = this::daysChanged;
+
+   private YearMonth month;
+   /** Holds the first day of the first row */
+   private LocalDate firstShown;
+   /** Holds the number of rows */
+   private int weeks;
+
+   /**
+    * Creates a month grid that shows the entries of the specified index.
+    *
+    * @param bundle
+    *           the resource bundle
+    * @param index
+    *           the index of the entries by day
+    */
+   public MonthGrid(ResourceBundle bundle, DayIndex index) {
+      this.bundle = bundle;
+      this.index = index;
+      this.weekFields = WeekFields.of(bundle.getLocale());
+      this.timeFormat = CachedFormat.of("HH:mm", bundle.getLocale());
+      this.weekdayFormat = CachedFormat.of("EEE", bundle.getLocale());
+      getChildren().add(canvas);
+      setMinSize(0, 0);
+      setPrefSize(500, 400);
+      index.addListener(listener);
+      selection.addListener((InvalidationListener) o -> paint());
+      addEventHandler(MouseEvent.MOUSE_PRESSED, this::onMousePressed);
+      setMonth(YearMonth.now());
+   }
+
+   /**
+    * Shows the specified month.
+    *
+    * @param month
+    *           the month to show
+    */
+   public void setMonth(YearMonth month) {
+      this.month = month;
+      LocalDate first = month.atDay(1);
+      firstShown = first.with(weekFields.dayOfWeek(), 1);
+      long days = ChronoUnit.DAYS.between(firstShown, month.atEndOfMonth()) + 1;
+      weeks = (int) ((days + 6) / 7);
+      paint();
+   }
+
+   public YearMonth getMonth() {
+      return month;
+   }
+
+   /**
+    * Selects the specified entry, or clears the selection if it is null.
+    *
+    * @param entry
+    *           the entry to select
+    */
+   public void select(CalendarEntry entry) {
+      if (entry == null) {
+         selection.clear();
+      } else {
+         selection.setAll(entry);
+      }
+   }
+
+   /**
+    * Get the selected entry.
+    *
+    * @return the selected entry, null if there is none
+    */
+   public CalendarEntry getSelectedItem() {
+      return selection.isEmpty() ? null : selection.get(0);
+   }
+
+   /**
+    * Get the selected entries. The list holds one entry at most.
+    *
+    * @return the observable list of selected entries
+    */
+   public ObservableList<CalendarEntry> getSelectedItems() {
+      return selection;
+   }
+
+   /**
+    * Stops listening to the index. The grid must not be used afterwards.
+    */
+   public void dispose() {
+      index.removeListener(listener);
+   }
+
+   @Override
+   protected void layoutChildren() {
+      double width = snapSize(getWidth());
+      double height = snapSize(getHeight());
+      if (canvas.getWidth() != width || canvas.getHeight() != height) {
+         canvas.setWidth(width);
+         canvas.setHeight(height);
+         paint();
+      }
+   }
+
+   private void daysChanged(LocalDate first, LocalDate last) {
+      if (!first.isAfter(getLastShown()) && !last.isBefore(getFirstShown())) {
+         CalendarEntry selected = getSelectedItem();
+         if (selected != null
+               && !index.get(selected.getDate()).contains(selected)) {
+            selection.clear();
+         }
+         paint();
+      }
+   }
+
+   private LocalDate getFirstShown() {
+      return firstShown;
+   }
+
+   private LocalDate getLastShown() {
+      return firstShown.plusDays(weeks * 7 - 1);
+   }
+
+   private double cellWidth() {
+      return canvas.getWidth() / 7;
+   }
+
+   private double cellHeight() {
+      return (canvas.getHeight() - HEADER_HEIGHT) / weeks;
+   }
+
+   /** The number of entry lines that fit into a day cell */
+   private int capacity() {
+      return Math.max(0,
+            (int) ((cellHeight() - lineHeight - PADDING) / lineHeight));
+   }
+
+   /** The number of entries shown in a cell, the rest is summarized */
+   private static int shown(int count, int capacity) {
+      return count <= capacity ? count : Math.max(0, capacity - 1);
+   }
+
+   /**
+    * This method paints the whole grid. It only looks up the visible days.
+    */
+   private void paint() {
+      GraphicsContext gc = canvas.getGraphicsContext2D();
+      double width = canvas.getWidth();
+      double height = canvas.getHeight();
+      gc.clearRect(0, 0, width, height);
+      if (width <= 0 || height <= HEADER_HEIGHT) {
+         return;
+      }
+      double cellWidth = cellWidth();
+      double cellHeight = cellHeight();
+      int capacity = capacity();
+      LocalDate today = LocalDate.now();
+      CalendarEntry selected = getSelectedItem();
+
+      gc.setTextBaseline(VPos.TOP);
+      gc.setTextAlign(TextAlignment.LEFT);
+
+      // weekday header
+      gc.setFont(boldFont);
+      gc.setFill(TEXT_COLOR);
+      for (int col = 0; col < 7; col++) {
+         gc.fillText(weekdayFormat.format(firstShown.plusDays(col)), col
+               * cellWidth + PADDING, PADDING);
+      }
+
+      for (int row = 0; row < weeks; row++) {
+         for (int col = 0; col < 7; col++) {
+            LocalDate day = firstShown.plusDays(row * 7 + col);
+            double x = col * cellWidth;
+            double y = HEADER_HEIGHT + row * cellHeight;
+            boolean inMonth = day.getMonthValue() == month.getMonthValue()
+                  && day.getYear() == month.getYear();
+
+            if (day.equals(today)) {
+               gc.setFill(TODAY_COLOR);
+               gc.fillRect(x, y, cellWidth, cellHeight);
+            }
+            gc.save();
+            gc.beginPath();
+            gc.rect(x, y, cellWidth, cellHeight);
+            gc.clip();
+
+            gc.setFont(day.equals(today) ? boldFont : font);
+            gc.setFill(inMonth ? TEXT_COLOR : OTHER_MONTH_COLOR);
+            gc.fillText(Integer.toString(day.getDayOfMonth()), x + PADDING, y
+                  + PADDING);
+
+            gc.setFont(font);
+            List<CalendarEntry> entries = index.get(day);
+            int shown = shown(entries.size(), capacity);
+            double lineY = y + PADDING + lineHeight;
+            for (int i = 0; i < shown; i++) {
+               CalendarEntry entry = entries.get(i);
+               if (entry.equals(selected)) {
+                  gc.setFill(SELECTION_COLOR);
+                  gc.fillRect(x + 1, lineY, cellWidth - 2, lineHeight);
+                  gc.setFill(Color.WHITE);
+               } else {
+                  gc.setFill(inMonth ? TEXT_COLOR : OTHER_MONTH_COLOR);
+               }
+               gc.fillText(timeFormat.format(entry.getStartTime()) + " "
+                     + entry.getName(), x + PADDING, lineY + 1);
+               lineY += lineHeight;
+            }
+            if (shown < entries.size()) {
+               gc.setFill(OTHER_MONTH_COLOR);
+               gc.fillText(
+                     MessageFormat.format(bundle.getString("more"),
+                           entries.size() - shown), x + PADDING, lineY + 1);
+            }
+            gc.restore();
+         }
+      }
+
+      // grid lines
+      gc.setStroke(GRID_COLOR);
+      gc.setLineWidth(1);
+      for (int row = 0; row <= weeks; row++) {
+         double y = snap(HEADER_HEIGHT + row * cellHeight);
+         gc.strokeLine(0, y, width, y);
+      }
+      for (int col = 1; col < 7; col++) {
+         double x = snap(col * cellWidth);
+         gc.strokeLine(x, HEADER_HEIGHT, x, height);
+      }
+   }
+
+   /** Snaps a coordinate to the middle of a pixel for crisp lines */
+   private static double snap(double value) {
+      return Math.floor(value) + 0.5;
+   }
+
+   /**
+    * This method selects the entry under the mouse. A click on a "+N more"
+    * line lists all entries of the day.
+    */
+   private void onMousePressed(MouseEvent event) {
+      double y = event.getY() - HEADER_HEIGHT;
+      if (y < 0 || weeks == 0) {
+         return;
+      }
+      int col = Math.min(6, (int) (event.getX() / cellWidth()));
+      int row = Math.min(weeks - 1, (int) (y / cellHeight()));
+      LocalDate day = firstShown.plusDays(row * 7 + col);
+      List<CalendarEntry> entries = index.get(day);
+      int capacity = capacity();
+      int shown = shown(entries.size(), capacity);
+      int line = (int) Math.floor((y - row * cellHeight() - PADDING - lineHeight)
+            / lineHeight);
+      if (line >= 0 && line < shown) {
+         select(entries.get(line));
+      } else if (line == shown && shown < entries.size()
+            && event.getButton() == MouseButton.PRIMARY) {
+         showDay(day, event.getScreenX(), event.getScreenY());
+      } else {
+         select(null);
+      }
+   }
+
+   /**
+    * This method shows all entries of a day in a popup menu. Choosing one
+    * selects it.
+    */
+   private void showDay(LocalDate day, double screenX, double screenY) {
+      ContextMenu menu = new ContextMenu();
+      for (CalendarEntry entry : index.get(day)) {
+         MenuItem item = new MenuItem(timeFormat.format(entry.getStartTime())
+               + " - " + timeFormat.format(entry.getEndTime()) + " "
+               + entry.getName());
+         item.setOnAction(e -> select(entry));
+         menu.getItems().add(item);
+      }
+      menu.show(this, screenX, screenY);
+   }
+
+}
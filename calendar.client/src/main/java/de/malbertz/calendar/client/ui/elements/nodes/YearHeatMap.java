@@ -0,0 +1,292 @@
+package de.malbertz.calendar.client.ui.elements.nodes;
+
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.temporal.WeekFields;
+import java.util.ResourceBundle;
+
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.TextAlignment;
+
+import de.malbertz.calendar.client.ui.elements.DayIndex;
+import de.malbertz.calendar.client.ui.elements.DayIndex.DayListener;
+
+/**
+ * This class implements a heat map of the number of entries per day of a
+ * year.
+ * <p>
+ * The twelve months are painted as small month grids on a single canvas. The
+ * darker a day, the more entries it has compared to the busiest day of the
+ * year. The counts of the year are kept in an array and only the days that
+ * changed are counted again, so the map never looks at the whole entry list.
+ * <p>
+ * One day can be selected by clicking it.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class YearHeatMap extends Region {
+
+   /** The number of month columns */
+   private static final int COLUMNS = 4;
+   /** The number of month rows */
+   private static final int ROWS = 3;
+   /** The gap around a month */
+   private static final double GAP = 8;
+   private static final Color TEXT_COLOR = Color.BLACK;
+   private static final Color TODAY_COLOR = Color.BLACK;
+   private static final Color SELECTION_COLOR = Color.web("#0096c9");
+   /** The colors of the heat levels, the first one is a day without entries */
+   private static final Color[] LEVELS = { Color.web("#ebedf0"),
+         Color.web("#cce9f5"), Color.web("#80c8e6"), Color.web("#33a6d6"),
+         Color.web("#0077a0") };
+
+   private final Canvas canvas = new Canvas();
+   private final DayIndex index;
+   private final ResourceBundle bundle;
+   private final WeekFields weekFields;
+   private final CachedFormat monthFormat;
+   private final CachedFormat dayFormat;
+   private final Font font = Font.getDefault();
+   private final Font boldFont = Font.font(font.getFamily(), FontWeight.BOLD,
+         font.getSize());
+   private final Tooltip tooltip = new Tooltip();
+   /** Recounts the days of the shown year that changed */
+   private final DayListener listener = this::daysChanged;
+
+   private Year year;
+   /** Holds the number of entries per day of the year */
+   private int[] counts;
+   /** Holds the highest number of entries of a day of the year */
+   private int max;
+   private LocalDate selectedDay;
+
+   /**
+    * Creates a heat map of the entries of the specified index.
+    *
+    * @param bundle
+    *           the resource bundle
+    * @param index
+    *           the index of the entries by day
+    */
+   public YearHeatMap(ResourceBundle bundle, DayIndex index) {
+      this.bundle = bundle;
+      this.index = index;
+      this.weekFields = WeekFields.of(bundle.getLocale());
+      this.monthFormat = CachedFormat.of("MMMM", bundle.getLocale());
+      this.dayFormat = CachedFormat.of("EEE, d MMM yyyy", bundle.getLocale());
+      getChildren().add(canvas);
+      setMinSize(0, 0);
+      setPrefSize(500, 400);
+      index.addListener(listener);
+      addEventHandler(MouseEvent.MOUSE_PRESSED,
+            event -> select(dayAt(event.getX(), event.getY())));
+      addEventHandler(MouseEvent.MOUSE_MOVED, this::onMouseMoved);
+      Tooltip.install(this, tooltip);
+      setYear(Year.now());
+   }
+
+   /**
+    * Shows the specified year.
+    *
+    * @param year
+    *           the year to show
+    */
+   public void setYear(Year year) {
+      this.year = year;
+      counts = new int[year.length()];
+      for (int i = 0; i < counts.length; i++) {
+         counts[i] = index.count(year.atDay(i + 1));
+      }
+      updateMax();
+      paint();
+   }
+
+   public Year getYear() {
+      return year;
+   }
+
+   /**
+    * Selects the specified day, or clears the selection if it is null.
+    *
+    * @param day
+    *           the day to select
+    */
+   public void select(LocalDate day) {
+      selectedDay = day;
+      paint();
+   }
+
+   /**
+    * Get the selected day.
+    *
+    * @return the selected day, null if there is none
+    */
+   public LocalDate getSelectedDay() {
+      return selectedDay;
+   }
+
+   /**
+    * Stops listening to the index. The map must not be used afterwards.
+    */
+   public void dispose() {
+      index.removeListener(listener);
+   }
+
+   @Override
+   protected void layoutChildren() {
+      double width = snapSize(getWidth());
+      double height = snapSize(getHeight());
+      if (canvas.getWidth() != width || canvas.getHeight() != height) {
+         canvas.setWidth(width);
+         canvas.setHeight(height);
+         paint();
+      }
+   }
+
+   private void daysChanged(LocalDate first, LocalDate last) {
+      LocalDate start = year.atDay(1);
+      LocalDate end = year.atMonth(12).atEndOfMonth();
+      if (first.isAfter(end) || last.isBefore(start)) {
+         return;
+      }
+      LocalDate day = first.isBefore(start) ? start : first;
+      LocalDate stop = last.isAfter(end) ? end : last;
+      for (; !day.isAfter(stop); day = day.plusDays(1)) {
+         counts[day.getDayOfYear() - 1] = index.count(day);
+      }
+      updateMax();
+      paint();
+   }
+
+   private void updateMax() {
+      max = 0;
+      for (int count : counts) {
+         max = Math.max(max, count);
+      }
+   }
+
+   /** The heat level of a number of entries */
+   private int level(int count) {
+      if (count == 0) {
+         return 0;
+      }
+      return (int) Math.ceil((double) count * (LEVELS.length - 1) / max);
+   }
+
+   private double blockWidth() {
+      return canvas.getWidth() / COLUMNS;
+   }
+
+   private double blockHeight() {
+      return canvas.getHeight() / ROWS;
+   }
+
+   private double titleHeight() {
+      return Math.ceil(font.getSize() * 1.6);
+   }
+
+   /** The size of a day square, the same for all months */
+   private double cellSize() {
+      return Math.max(0, Math.min((blockWidth() - 2 * GAP) / 7,
+            (blockHeight() - 2 * GAP - titleHeight()) / 6));
+   }
+
+   /** The first day of the first row of a month */
+   private LocalDate firstShown(YearMonth month) {
+      return month.atDay(1).with(weekFields.dayOfWeek(), 1);
+   }
+
+   /**
+    * This method paints all months. It only reads the counts array.
+    */
+   private void paint() {
+      GraphicsContext gc = canvas.getGraphicsContext2D();
+      double width = canvas.getWidth();
+      double height = canvas.getHeight();
+      gc.clearRect(0, 0, width, height);
+      double cell = cellSize();
+      if (cell < 2) {
+         return;
+      }
+      LocalDate today = LocalDate.now();
+      gc.setTextBaseline(VPos.TOP);
+      gc.setTextAlign(TextAlignment.LEFT);
+      gc.setLineWidth(2);
+
+      for (int m = 0; m < 12; m++) {
+         YearMonth month = year.atMonth(m + 1);
+         double x = (m % COLUMNS) * blockWidth() + GAP;
+         double y = (m / COLUMNS) * blockHeight() + GAP;
+         gc.setFont(boldFont);
+         gc.setFill(TEXT_COLOR);
+         gc.fillText(monthFormat.format(month), x, y);
+
+         LocalDate first = firstShown(month);
+         for (int d = 1; d <= month.lengthOfMonth(); d++) {
+            LocalDate day = month.atDay(d);
+            int i = (int) (day.toEpochDay() - first.toEpochDay());
+            double cx = x + (i % 7) * cell;
+            double cy = y + titleHeight() + (i / 7) * cell;
+            gc.setFill(LEVELS[level(counts[day.getDayOfYear() - 1])]);
+            gc.fillRect(cx + 1, cy + 1, cell - 2, cell - 2);
+            if (day.equals(selectedDay)) {
+               gc.setStroke(SELECTION_COLOR);
+               gc.strokeRect(cx + 1, cy + 1, cell - 2, cell - 2);
+            } else if (day.equals(today)) {
+               gc.setStroke(TODAY_COLOR);
+               gc.strokeRect(cx + 1, cy + 1, cell - 2, cell - 2);
+            }
+         }
+      }
+   }
+
+   /**
+    * Get the day at the specified position.
+    *
+    * @return the day, null if there is no day at the position
+    */
+   private LocalDate dayAt(double x, double y) {
+      double cell = cellSize();
+      if (cell < 2 || x < 0 || y < 0) {
+         return null;
+      }
+      int col = (int) (x / blockWidth());
+      int row = (int) (y / blockHeight());
+      if (col >= COLUMNS || row >= ROWS) {
+         return null;
+      }
+      double dx = x - col * blockWidth() - GAP;
+      double dy = y - row * blockHeight() - GAP - titleHeight();
+      if (dx < 0 || dy < 0 || dx >= 7 * cell || dy >= 6 * cell) {
+         return null;
+      }
+      YearMonth month = year.atMonth(row * COLUMNS + col + 1);
+      LocalDate day = firstShown(month).plusDays(
+            (int) (dy / cell) * 7 + (int) (dx / cell));
+      return YearMonth.from(day).equals(month) ? day : null;
+   }
+
+   /**
+    * This method shows the date and number of entries of the day under the
+    * mouse in the tooltip.
+    */
+   private void onMouseMoved(MouseEvent event) {
+      LocalDate day = dayAt(event.getX(), event.getY());
+      tooltip.setText(day == null ? null : dayFormat.format(day)
+            + ": "
+            + MessageFormat.format(bundle.getString("entryCount"),
+                  counts[day.getDayOfYear() - 1]));
+   }
+
+}
@@ -0,0 +1,82 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javafx.collections.ListChangeListener;
+
+import org.junit.Test;
+
+import de.malbertz.calendar.client.ui.elements.BatchList;
+
+public class BatchListChanges {
+
+   private final List<String> mirror = new ArrayList<>();
+   private final List<Integer> removed = new ArrayList<>();
+   private final List<Integer> added = new ArrayList<>();
+
+   @Test
+   public void test() {
+      BatchList<String> list = new BatchList<>();
+      list.addListener((ListChangeListener<String>) this::replay);
+
+      update(list, Arrays.asList("a", "b", "c"));
+      assertEquals(Arrays.asList("a", "b", "c"), list);
+      assertChange(0, 3);
+
+      // kept elements stay in place, new ones are added at the end
+      update(list, Arrays.asList("c", "d", "a"));
+      assertEquals(Arrays.asList("a", "c", "d"), list);
+      assertChange(1, 1);
+
+      // nothing changed, no event
+      update(list, Arrays.asList("d", "c", "a"));
+      assertTrue(removed.isEmpty());
+
+      // equal elements are counted
+      update(list, Arrays.asList("a", "a", "d", "e", "a"));
+      assertEquals(Arrays.asList("a", "d", "a", "a", "e"), list);
+      assertChange(1, 3);
+      update(list, Arrays.asList("e", "a"));
+      assertEquals(Arrays.asList("a", "e"), list);
+      assertChange(3, 0);
+
+      update(list, Arrays.asList());
+      assertTrue(list.isEmpty());
+      assertChange(2, 0);
+   }
+
+   /** Updates the list and checks that the events describe the change */
+   private void update(BatchList<String> list, List<String> items) {
+      removed.clear();
+      added.clear();
+      list.update(items);
+      assertEquals(list, mirror);
+   }
+
+   /** Checks that one event removed and added the specified numbers */
+   private void assertChange(int removedSize, int addedSize) {
+      assertEquals(1, removed.size());
+      assertEquals(removedSize, (int) removed.get(0));
+      assertEquals(addedSize, (int) added.get(0));
+   }
+
+   /** Applies an event to the mirror of the list */
+   private void replay(ListChangeListener.Change<? extends String> c) {
+      int removedSize = 0;
+      int addedSize = 0;
+      while (c.next()) {
+         assertFalse(c.wasPermutated() || c.wasUpdated());
+         mirror.subList(c.getFrom(), c.getFrom() + c.getRemovedSize()).clear();
+         mirror.addAll(c.getFrom(), c.getAddedSubList());
+         removedSize += c.getRemovedSize();
+         addedSize += c.getAddedSize();
+      }
+      removed.add(removedSize);
+      added.add(addedSize);
+   }
+
+}
@@ -0,0 +1,42 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.util.EntryCodec;
+import de.malbertz.calendar2.util.EntryCodec.Snapshot;
+
+public class EntryCodecSerialization {
+
+   @Test
+   public void test() {
+      List<CalendarEntry> entries = Arrays.asList(new CalendarEntry(),
+            new CalendarEntry(LocalDate.of(2015, 3, 1), LocalTime.of(9, 30),
+                  LocalTime.of(10, 0), "TestName", "TestDescription"));
+      Snapshot copy = null;
+      try {
+         copy = EntryCodec.decode(EntryCodec.encode(42, entries));
+      } catch (IOException e) {
+         e.printStackTrace();
+         fail("I/O exception happend");
+      }
+      assertEquals(42, copy.getVersion());
+      assertEquals(entries, copy.getEntries());
+
+      try {
+         EntryCodec.decode(new byte[] { 1, 2, 3, 4, 5 });
+         fail("Decoded an invalid byte array");
+      } catch (IOException e) {
+         // expected
+      }
+   }
+
+}
@@ -0,0 +1,90 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.Frame;
+import de.malbertz.calendar2.ServerCommand;
+import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.SnapshotPage;
+import de.malbertz.calendar2.util.Compression;
+import de.malbertz.calendar2.util.EntryCodec;
+import de.malbertz.calendar2.util.SerializationUtils;
+
+public class FrameCompression {
+
+   @Test
+   public void test() throws Exception {
+      Random random = new Random(42);
+      byte[] noise = new byte[100000];
+      random.nextBytes(noise);
+      byte[] encoded = EntryCodec.encode(7, entries(1000));
+      for (byte[] b : new byte[][] { new byte[0], new byte[] { 1 }, noise,
+            encoded }) {
+         assertArrayEquals(b, Compression.inflate(Compression.deflate(b),
+               b.length));
+      }
+      byte[] deflated = Compression.deflate(encoded);
+      assertTrue(deflated.length < encoded.length / 4);
+      try {
+         Compression.inflate(deflated, encoded.length + 1);
+         fail("Inflated more bytes than were deflated");
+      } catch (IOException e) {
+         // expected
+      }
+      try {
+         Compression.inflate(noise, 1000);
+         fail("Inflated data that isn't deflated");
+      } catch (IOException e) {
+         // expected
+      }
+
+      // only large results are framed
+      assertNull(Frame.of(new ServerCommand(Command.HEARTBEAT, null, null)));
+      assertNull(Frame.of(page(new byte[10])));
+      CalendarEntry large = new CalendarEntry(LocalDate.of(2015, 3, 1),
+            LocalTime.of(9, 0), LocalTime.of(10, 0), "Large", new String(
+                  new char[10000]).replace('\0', 'x'));
+      assertNull(Frame.of(new ServerCommand(Command.ADD, large, null)));
+
+      // a page of entries is compressed, a page of noise still comes back
+      Frame frame = roundTrip(Frame.of(page(encoded)));
+      assertTrue(frame.isCompressed());
+      assertArrayEquals(encoded, ((SnapshotPage) frame.getCommand()
+            .getArgument()).getEntries());
+      frame = roundTrip(Frame.of(page(noise)));
+      assertArrayEquals(noise, ((SnapshotPage) frame.getCommand()
+            .getArgument()).getEntries());
+   }
+
+   private static Frame roundTrip(Frame frame) throws Exception {
+      assertNotNull(frame);
+      return SerializationUtils.unpickle(SerializationUtils.pickle(frame),
+            Frame.class);
+   }
+
+   private static ServerCommand page(byte[] entries) {
+      return new ServerCommand(Command.SNAPSHOT_PAGE, new SnapshotPage(7, 0,
+            1, entries, null));
+   }
+
+   private static List<CalendarEntry> entries(int count) {
+      List<CalendarEntry> entries = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+         entries.add(new CalendarEntry(LocalDate.of(2015, 3, 1).plusDays(i),
+               LocalTime.of(9, 0), LocalTime.of(10, 0), "Meeting " + i,
+               "Room 1, bring the notes"));
+      }
+      return entries;
+   }
+
+}
@@ -0,0 +1,106 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.malbertz.calendar.server.core.IntervalIndex;
+import de.malbertz.calendar2.CalendarEntry;
+
+public class IntervalIndexBruteForce {
+
+   private static final LocalDate FIRST = LocalDate.of(2015, 3, 1);
+   private static final int DAYS = 3;
+
+   @Test
+   public void test() {
+      Random random = new Random(42);
+      IntervalIndex index = new IntervalIndex();
+      List<CalendarEntry> entries = new ArrayList<>();
+      for (int i = 0; i < 300; i++) {
+         CalendarEntry entry = new CalendarEntry(FIRST.plusDays(random
+               .nextInt(DAYS)), time(random), time(random), "Entry" + i, "");
+         entries.add(entry);
+         index.add(entry);
+      }
+      check(index, entries, random);
+
+      for (int i = 0; i < 150; i++) {
+         index.remove(entries.remove(random.nextInt(entries.size())));
+      }
+      check(index, entries, random);
+   }
+
+   /** Compares the index with a scan of all entries */
+   private static void check(IntervalIndex index, List<CalendarEntry> entries,
+         Random random) {
+      for (CalendarEntry entry : entries) {
+         Set<CalendarEntry> expected = new HashSet<>();
+         for (CalendarEntry other : entries) {
+            if (!other.equals(entry) && start(other) < end(entry)
+                  && start(entry) < end(other)) {
+               expected.add(other);
+            }
+         }
+         assertEquals(expected, new HashSet<>(index.overlapping(entry)));
+      }
+
+      long first = start(FIRST);
+      for (int i = 0; i < 100; i++) {
+         long a = first + random.nextInt(DAYS * 1440) * 60L;
+         long b = first + random.nextInt(DAYS * 1440) * 60L;
+         long start = Math.min(a, b);
+         long end = Math.max(a, b);
+         assertArrayEquals(busy(entries, start, end), index.busy(start, end));
+      }
+   }
+
+   /** Marks the busy minutes and collects the runs of marked minutes */
+   private static long[] busy(List<CalendarEntry> entries, long start,
+         long end) {
+      long first = start(FIRST);
+      boolean[] minutes = new boolean[DAYS * 1440];
+      for (CalendarEntry entry : entries) {
+         for (long s = Math.max(start, start(entry)); s < Math.min(end,
+               end(entry)); s += 60) {
+            minutes[(int) ((s - first) / 60)] = true;
+         }
+      }
+      List<Long> ranges = new ArrayList<>();
+      for (int m = 0; m < minutes.length; m++) {
+         if (minutes[m] && (m == 0 || !minutes[m - 1])) {
+            ranges.add(first + m * 60L);
+         }
+         if (minutes[m] && (m + 1 == minutes.length || !minutes[m + 1])) {
+            ranges.add(first + (m + 1) * 60L);
+         }
+      }
+      return ranges.stream().mapToLong(Long::longValue).toArray();
+   }
+
+   private static LocalTime time(Random random) {
+      return LocalTime.of(random.nextInt(24), random.nextInt(4) * 15);
+   }
+
+   private static long start(LocalDate date) {
+      return date.toEpochDay() * 86400;
+   }
+
+   private static long start(CalendarEntry entry) {
+      return start(entry.getDate()) + entry.getStartTime().toSecondOfDay();
+   }
+
+   private static long end(CalendarEntry entry) {
+      return Math.max(start(entry), start(entry.getDate())
+            + entry.getEndTime().toSecondOfDay());
+   }
+
+}
@@ -0,0 +1,111 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import de.malbertz.calendar2.Recurrence;
+import de.malbertz.calendar2.Recurrence.Frequency;
+
+public class RecurrenceDates {
+
+   private static final LocalDate END = LocalDate.of(2019, 12, 31);
+   /** The occurrences are computed beyond the end for ranges crossing it */
+   private static final LocalDate LIMIT = END.plusDays(60);
+
+   @Test
+   public void test() {
+      // a monthly rule on the 31st falls on the last day of shorter months
+      LocalDate start = LocalDate.of(2015, 1, 31);
+      Recurrence monthly = new Recurrence(Frequency.MONTHLY, 1);
+      assertTrue(monthly.occursOn(start, LocalDate.of(2015, 2, 28)));
+      assertTrue(monthly.occursOn(start, LocalDate.of(2016, 2, 29)));
+      assertTrue(monthly.occursOn(start, LocalDate.of(2015, 4, 30)));
+      assertTrue(monthly.occursOn(start, LocalDate.of(2015, 5, 31)));
+      assertFalse(monthly.occursOn(start, LocalDate.of(2015, 3, 28)));
+      assertFalse(monthly.occursOn(start, LocalDate.of(2015, 1, 30)));
+      check(monthly, start);
+
+      check(new Recurrence(Frequency.MONTHLY, 2, null, 0,
+            Arrays.asList(LocalDate.of(2015, 3, 30))), LocalDate.of(2015, 1,
+            30));
+      check(new Recurrence(Frequency.YEARLY, 1), LocalDate.of(2016, 2, 29));
+      check(new Recurrence(Frequency.WEEKLY, 3, null, 10,
+            Arrays.asList(LocalDate.of(2015, 3, 22))), LocalDate.of(2015, 3,
+            1));
+      check(new Recurrence(Frequency.DAILY, 5, LocalDate.of(2015, 6, 30), 0,
+            null), LocalDate.of(2015, 3, 1));
+      check(new Recurrence(Frequency.MONTHLY, 1, LocalDate.of(2016, 3, 30),
+            15, null), LocalDate.of(2015, 1, 31));
+   }
+
+   /**
+    * Compares occursOn and dates for every day and for ranges starting and
+    * ending around every occurrence with the dates of the rule computed one
+    * after another.
+    */
+   private static void check(Recurrence rule, LocalDate start) {
+      TreeSet<LocalDate> expected = occurrences(rule, start);
+      for (LocalDate day = start.minusDays(3); !day.isAfter(END); day = day
+            .plusDays(1)) {
+         assertEquals(day.toString(), expected.contains(day), rule.occursOn(
+               start, day));
+      }
+      for (LocalDate date : expected.headSet(END, true)) {
+         for (int before = -1; before <= 1; before++) {
+            for (int after = -1; after <= 1; after++) {
+               LocalDate from = date.plusDays(before);
+               LocalDate to = date.plusDays(40 + after);
+               assertEquals(new ArrayList<>(expected.subSet(from, true, to,
+                     true)), list(rule.dates(start, from, to)));
+            }
+         }
+      }
+      assertEquals(new ArrayList<>(expected.headSet(END, true)), list(rule
+            .dates(start, start.minusDays(1), END)));
+   }
+
+   /** Computes the occurrences up to {@link #LIMIT} from the first date */
+   private static TreeSet<LocalDate> occurrences(Recurrence rule,
+         LocalDate start) {
+      TreeSet<LocalDate> dates = new TreeSet<>();
+      for (int n = 0; rule.getCount() == 0 || n < rule.getCount(); n++) {
+         LocalDate date = plus(start, rule, (long) n * rule.getInterval());
+         if (date.isAfter(LIMIT)
+               || (rule.getUntil() != null && date.isAfter(rule.getUntil()))) {
+            break;
+         }
+         if (!rule.getExceptions().contains(date)) {
+            dates.add(date);
+         }
+      }
+      return dates;
+   }
+
+   private static LocalDate plus(LocalDate start, Recurrence rule, long units) {
+      switch (rule.getFrequency()) {
+      case DAILY:
+         return start.plusDays(units);
+      case WEEKLY:
+         return start.plusWeeks(units);
+      case MONTHLY:
+         return start.plusMonths(units);
+      default:
+         return start.plusYears(units);
+      }
+   }
+
+   private static List<LocalDate> list(Iterator<LocalDate> iterator) {
+      List<LocalDate> list = new ArrayList<>();
+      iterator.forEachRemaining(list::add);
+      return list;
+   }
+
+}
@@ -0,0 +1,68 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import org.junit.Test;
+
+import de.malbertz.calendar.server.core.SearchIndex;
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.SearchQuery;
+import de.malbertz.calendar2.SearchResult;
+
+public class SearchIndexRanking {
+
+   private final CalendarEntry team = entry(1, "Team meeting", "");
+   private final CalendarEntry lunch = entry(2, "Lunch", "Meeting notes");
+   private final CalendarEntry meet = entry(3, "Meet", "");
+   private final CalendarEntry meeting = entry(5, "Meeting", "");
+   private final CalendarEntry repeated = entry(6, "Standup",
+         "meeting, meeting, meeting");
+
+   @Test
+   public void test() {
+      SearchIndex index = new SearchIndex();
+      for (CalendarEntry entry : new CalendarEntry[] { team, lunch, meet,
+            meeting, repeated }) {
+         index.add(entry);
+      }
+
+      // a whole word in the name ranks first, equal ranks latest first
+      assertArrayEquals(new CalendarEntry[] { meeting, team, repeated, lunch },
+            search(index, "meeting", 0, 10).getHits());
+      // a prefix counts less than a whole word
+      assertArrayEquals(new CalendarEntry[] { meet, meeting, team, repeated,
+            lunch }, search(index, "MEET!", 0, 10).getHits());
+      // every word of the query has to match
+      assertArrayEquals(new CalendarEntry[] { team },
+            search(index, "meet team", 0, 10).getHits());
+      assertEquals(0, search(index, "meetings", 0, 10).getTotal());
+
+      SearchResult page = search(index, "meet", 1, 2);
+      assertEquals(5, page.getTotal());
+      assertTrue(page.hasMore());
+      assertArrayEquals(new CalendarEntry[] { meeting, team }, page.getHits());
+
+      // an equal copy keeps the entry until both are removed
+      index.add(entry(2, "Lunch", "Meeting notes"));
+      index.remove(lunch);
+      assertEquals(4, search(index, "meeting", 0, 10).getTotal());
+      index.remove(lunch);
+      index.remove(meet);
+      assertArrayEquals(new CalendarEntry[] { meeting, team, repeated },
+            search(index, "meet", 0, 10).getHits());
+   }
+
+   private static SearchResult search(SearchIndex index, String text,
+         int offset, int limit) {
+      return index.search(new SearchQuery(text, offset, limit));
+   }
+
+   private static CalendarEntry entry(int day, String name, String description) {
+      return new CalendarEntry(LocalDate.of(2015, 3, day), LocalTime.of(9, 0),
+            LocalTime.of(10, 0), name, description);
+   }
+
+}
@@ -0,0 +1,116 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+
+import de.malbertz.calendar.server.core.ClientThread;
+import de.malbertz.calendar.server.core.CommandConsumer;
+import de.malbertz.calendar.server.core.Server;
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.ServerCommand;
+import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.SessionToken;
+import de.malbertz.calendar2.util.Compression;
+import de.malbertz.calendar2.util.EntryCodec;
+import de.malbertz.calendar2.util.EntryCodec.Snapshot;
+import de.malbertz.calendar2.util.SerializationUtils;
+
+public class SnapshotDownload {
+
+   private static final String USER = "SnapshotDownloadTest";
+
+   @Test
+   public void test() throws Exception {
+      List<CalendarEntry> entries = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+         entries.add(new CalendarEntry(LocalDate.of(2015, 3, 1).plusDays(i),
+               LocalTime.of(9, 0), LocalTime.of(10, 0), "Entry" + i, ""));
+      }
+      File file = new File(USER + ".dat");
+      try (DataOutputStream data = new DataOutputStream(new FileOutputStream(
+            file))) {
+         EntryCodec.write(data, 42, entries);
+      }
+
+      Server server = new Server();
+      BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> queue = new LinkedBlockingQueue<>();
+      CommandConsumer consumer = new CommandConsumer(queue, server);
+      Thread consumerThread = new Thread(consumer);
+      consumerThread.start();
+      Thread clientThread = null;
+      try (ServerSocket listener = new ServerSocket(0);
+            Socket socket = new Socket("localhost", listener.getLocalPort())) {
+         socket.setSoTimeout(10000);
+         // the ClientThread waits for the header of the stream
+         ObjectOutputStream out = new ObjectOutputStream(
+               socket.getOutputStream());
+         out.flush();
+         clientThread = new Thread(new ClientThread(listener.accept(), queue,
+               server));
+         clientThread.start();
+         ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+
+         send(out, new ServerCommand(Command.NEGOTIATE,
+               new String[] { Compression.DEFLATE }));
+         assertArrayEquals(new String[] { Compression.DEFLATE },
+               (String[]) ((ServerCommand) in.readObject()).getArgument());
+         send(out, new ServerCommand(Command.RESUME, new SessionToken(server
+               .getSessionTokens().issue(USER), 0)));
+         assertEquals(Boolean.TRUE, in.readObject());
+         assertEquals(Command.SESSION,
+               ((ServerCommand) in.readObject()).getCommand());
+
+         // the datafile is sent as it is, although large commands are framed,
+         // and other commands sent meanwhile follow it
+         send(out, new ServerCommand(Command.SNAPSHOT_DOWNLOAD, null));
+         send(out, new ServerCommand(Command.HEARTBEAT, null));
+         ServerCommand download = (ServerCommand) in.readObject();
+         assertEquals(Command.SNAPSHOT_DOWNLOAD, download.getCommand());
+         long size = (Long) download.getArgument();
+         assertEquals(file.length(), size);
+         byte[] b = new byte[(int) size];
+         in.readFully(b);
+         Snapshot snapshot = EntryCodec.decode(b);
+         assertEquals(42, snapshot.getVersion());
+         assertEquals(entries, snapshot.getEntries());
+         assertEquals(Command.HEARTBEAT,
+               ((ServerCommand) in.readObject()).getCommand());
+
+         // the stream goes on with objects after the datafile
+         send(out, new ServerCommand(Command.SNAPSHOT_DOWNLOAD, 42L));
+         ServerCommand notModified = (ServerCommand) in.readObject();
+         assertEquals(Command.NOT_MODIFIED, notModified.getCommand());
+      } finally {
+         if (clientThread != null) {
+            // the calendar is saved when the session ends
+            clientThread.join(10000);
+         }
+         consumer.destroy();
+         consumerThread.join(10000);
+         file.delete();
+      }
+   }
+
+   private static void send(ObjectOutputStream out, ServerCommand command)
+         throws Exception {
+      out.writeObject(SerializationUtils.pickle(command));
+      out.flush();
+   }
+
+}
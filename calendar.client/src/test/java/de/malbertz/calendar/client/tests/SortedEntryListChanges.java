@@ -0,0 +1,103 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import org.junit.Test;
+
+import de.malbertz.calendar.client.ui.elements.BatchList;
+import de.malbertz.calendar.client.ui.elements.SortedEntryList;
+import de.malbertz.calendar2.CalendarEntry;
+
+public class SortedEntryListChanges {
+
+   private final List<CalendarEntry> mirror = new ArrayList<>();
+   private int events;
+   private int count;
+
+   @Test
+   public void test() {
+      Random random = new Random(42);
+      BatchList<CalendarEntry> source = new BatchList<>();
+      List<CalendarEntry> entries = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+         entries.add(entry(random));
+      }
+      source.update(entries);
+      SortedEntryList sorted = new SortedEntryList(source);
+      mirror.addAll(sorted);
+      sorted.addListener((ListChangeListener<CalendarEntry>) this::replay);
+      check(source, sorted);
+
+      for (int i = 0; i < 200; i++) {
+         List<CalendarEntry> next = new ArrayList<>(source);
+         boolean changed = false;
+         for (int n = random.nextInt(4); n > 0 && !next.isEmpty(); n--) {
+            next.remove(random.nextInt(next.size()));
+            changed = true;
+         }
+         for (int n = random.nextInt(4); n > 0; n--) {
+            next.add(entry(random));
+            changed = true;
+         }
+         int before = events;
+         source.update(next);
+         // one event of the source is passed on as one event
+         assertEquals(changed ? before + 1 : before, events);
+         check(source, sorted);
+      }
+
+      // the view ignores a permutation of its source
+      ObservableList<CalendarEntry> list = FXCollections
+            .observableArrayList(entries);
+      SortedEntryList view = new SortedEntryList(list);
+      List<CalendarEntry> order = new ArrayList<>(view);
+      FXCollections.sort(list, (x, y) -> y.getName().compareTo(x.getName()));
+      assertEquals(order, view);
+   }
+
+   /**
+    * Checks that the view holds the entries of the source in order, entries
+    * with the same date and start time in the order of the source, and that
+    * the events described every change.
+    */
+   private void check(List<CalendarEntry> source, SortedEntryList sorted) {
+      List<CalendarEntry> expected = new ArrayList<>(source);
+      expected.sort(SortedEntryList.ORDER);
+      assertEquals(expected, sorted);
+      assertEquals(sorted, mirror);
+      for (int i = 0; i < sorted.size(); i++) {
+         assertEquals(i, sorted.indexOf(sorted.get(i)));
+      }
+   }
+
+   /** Applies an event to the mirror of the view */
+   private void replay(ListChangeListener.Change<? extends CalendarEntry> c) {
+      while (c.next()) {
+         assertFalse(c.wasPermutated() || c.wasUpdated());
+         mirror.subList(c.getFrom(), c.getFrom() + c.getRemovedSize()).clear();
+         mirror.addAll(c.getFrom(), c.getAddedSubList());
+      }
+      events++;
+   }
+
+   /**
+    * Creates a new entry on one of a few days and times, so many have the
+    * same date and start time.
+    */
+   private CalendarEntry entry(Random random) {
+      return new CalendarEntry(LocalDate.of(2015, 3, 1 + random.nextInt(3)),
+            LocalTime.of(8 + random.nextInt(3), 0), LocalTime.of(12, 0),
+            "Entry" + count++, "");
+   }
+
+}
@@ -5,6 +5,10 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ ClientServerCommunication.class,
-      ServerCommandSerialization2.class })
+      ServerCommandSerialization2.class, EntryCodecSerialization.class,
+      IntervalIndexBruteForce.class, RecurrenceDates.class,
+      TimingWheelCascade.class, SearchIndexRanking.class,
+      BatchListChanges.class, SortedEntryListChanges.class,
+      FrameCompression.class, SnapshotDownload.class })
 public class TestSuite {
 }
@@ -0,0 +1,71 @@
+package de.malbertz.calendar.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.malbertz.calendar.server.core.TimingWheel;
+import de.malbertz.calendar.server.core.TimingWheel.Timer;
+
+public class TimingWheelCascade {
+
+   @Test
+   public void test() {
+      // a range of 64 ticks, so timers cascade over two levels or wrap
+      check(new Random(42), 1001, 200, new int[] { 4, 4, 4 });
+      // the levels of the reminders: seconds, minutes and hours
+      check(new Random(7), 0, 2 * 86400, new int[] { 60, 60, 24 });
+   }
+
+   /**
+    * Schedules, cancels and expires random timers. Every timer has to expire
+    * with the first advance that reaches its deadline, or the next tick if
+    * its deadline had passed when it was scheduled.
+    */
+   private static void check(Random random, long start, int span, int[] sizes) {
+      TimingWheel<Integer> wheel = new TimingWheel<>(start, sizes);
+      Map<Integer, Timer<Integer>> timers = new HashMap<>();
+      Map<Integer, Long> expiries = new HashMap<>();
+      int next = 0;
+      long end = start + 4 * span;
+      while (wheel.getCurrent() < end) {
+         long current = wheel.getCurrent();
+         for (int i = random.nextInt(8); i > 0; i--) {
+            long deadline = current + random.nextInt(span) - span / 10;
+            timers.put(next, wheel.schedule(deadline, next));
+            expiries.put(next, Math.max(deadline, current + 1));
+            next++;
+         }
+         if (!timers.isEmpty() && random.nextInt(4) == 0) {
+            Integer id = timers.keySet().iterator().next();
+            wheel.cancel(timers.remove(id));
+            expiries.remove(id);
+         }
+
+         long tick = current + 1 + random.nextInt(span / 20 + 1);
+         List<Integer> expired = wheel.advance(tick);
+         long last = Long.MIN_VALUE;
+         for (Integer id : expired) {
+            Long expiry = expiries.remove(id);
+            assertNotNull("Expired twice or cancelled: " + id, expiry);
+            assertTrue("Expired early: " + id, expiry <= tick);
+            assertTrue("Out of order: " + id, expiry >= last);
+            assertFalse(timers.remove(id).isPending());
+            last = expiry;
+         }
+         for (long expiry : expiries.values()) {
+            assertTrue("Not expired: " + expiry, expiry > tick);
+         }
+      }
+      // the remaining timers expire once their deadlines are reached
+      assertEquals(expiries.keySet(), new HashSet<>(wheel.advance(end + 2
+            * span)));
+   }
+
+}
@@ -1,9 +1,27 @@
 package de.malbertz.calendar.server.authentication;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.util.Enumeration;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,25 +29,60 @@ import org.apache.logging.log4j.Logger;
 /**
  * This class implements static methods to manage the user database of the
  * server.
- * 
+ * <p>
+ * The user-password table is held in memory. Changes are appended to a
+ * journal next to the property file by a background thread shortly after
+ * they happened. A change is queued while the entry of the user is locked, so
+ * the changes of every user are journaled in the order they were made. Once
+ * the journal grows beyond {@link #COMPACT_THRESHOLD} records it is compacted
+ * into the property file, which is replaced atomically.
+ * <p>
+ * Passwords are stored as salted hashes, see {@link PasswordHash}. Plain text
+ * passwords of older tables are replaced by a hash on the first successful
+ * login.
+ *
  * @author Michael Albertz
  *
  */
 public class Authenticator {
 
    private static final Logger log = LogManager.getLogger(Authenticator.class);
-   /** Holds the properties that contain the user-password key-value pairs */
-   private static Properties table = new Properties();
+   /** Holds the user-password-hash key-value pairs */
+   private static final Map<String, String> table = new ConcurrentHashMap<>();
+   /** Holds the changes that are not yet written to the journal */
+   private static final ConcurrentLinkedQueue<Change> pending = new ConcurrentLinkedQueue<>();
    /** Holds the file path of the property file */
    private static final String DATA_PATH = "/table.properties";
+   /** Holds the file name of the journal */
+   private static final String JOURNAL_NAME = "table.journal";
+   /** The delay in milliseconds between a change and its flush */
+   private static final long FLUSH_DELAY = 500;
+   /** The number of journal records that triggers a compaction */
+   private static final int COMPACT_THRESHOLD = 10000;
+   /** Holds the thread that flushes the journal */
+   private static final ScheduledExecutorService flusher = Executors
+         .newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Authenticator-Flusher");
+            t.setDaemon(true);
+            return t;
+         });
+   /** Determines if a flush is scheduled */
+   private static boolean flushScheduled = false;
+   /** The number of records in the journal */
+   private static int journalSize = 0;
 
    /*
-    * Initiate the property object before the first call of a method.
+    * Initiate the table before the first call of a method.
     */
    static {
       try {
          log.debug("Loading name-password-table ...");
-         table.load(Authenticator.class.getResourceAsStream(DATA_PATH));
+         Properties properties = new Properties();
+         properties.load(Authenticator.class.getResourceAsStream(DATA_PATH));
+         for (String name : properties.stringPropertyNames()) {
+            table.put(name, properties.getProperty(name));
+         }
+         replayJournal();
          log.debug("Successfully loaded name-password-table");
       } catch (Exception e) {
          log.fatal("name-password-table could not be loaded. Exiting ...");
@@ -51,27 +104,25 @@ public class Authenticator {
    }
 
    /**
-    * Get an enumeration of all user-password key-value pairs.
-    * 
-    * @return an enumeration of all user-password key-value pairs
+    * Get the names of all users.
+    *
+    * @return an unmodifiable view of all user names
     */
-   public static Enumeration<Object> getAll() {
-      return table.keys();
+   public static Set<String> getAll() {
+      return Collections.unmodifiableSet(table.keySet());
    }
 
    /**
     * This method removes a user by a specified name from the user-password
     * table.
-    * 
+    *
     * @param name
     *           the name of the user to remove
     * @return was the operation successful
     */
    public static boolean remove(String name) {
-      String prop = table.getProperty(name);
-      if (prop != null) {
-         table.remove(name);
-         store();
+      if (change(name, Objects::nonNull, null)) {
+         scheduleFlush();
          return true;
       }
       return false;
@@ -80,7 +131,7 @@ public class Authenticator {
    /**
     * This method adds a new user with specified name and password to the
     * user-password-table.
-    * 
+    *
     * @param name
     *           the name of the new user
     * @param password
@@ -88,21 +139,43 @@ public class Authenticator {
     * @return was the operation successful
     */
    public static boolean add(String name, String password) {
-      String prop = table.getProperty(name);
-      if (prop == null) {
-         table.setProperty(name, password);
-         store();
-         table.getProperty(name);
+      if (table.containsKey(name)) {
+         return false;
+      }
+      if (change(name, Objects::isNull, PasswordHash.hash(password))) {
+         scheduleFlush();
          return true;
       }
       return false;
    }
 
+   /**
+    * This method adds all users of the specified name-password map that don't
+    * exist yet. The passwords are hashed in parallel and the whole batch is
+    * persisted with a single flush.
+    *
+    * @param users
+    *           the names and passwords of the new users
+    * @return the number of users that were added
+    */
+   public static int addAll(Map<String, String> users) {
+      int added = (int) users
+            .entrySet()
+            .parallelStream()
+            .filter(user -> !table.containsKey(user.getKey()))
+            .filter(user -> change(user.getKey(), Objects::isNull,
+                  PasswordHash.hash(user.getValue()))).count();
+      scheduleFlush();
+      return added;
+   }
+
    /**
     * This method authenticates a user.
     * <p>
-    * It compares specified name and password to the name-password table.
-    * 
+    * It verifies the specified password against the hash stored for the
+    * name. This is deliberately slow, see {@link LoginService} for the
+    * pipeline that runs it.
+    *
     * @param name
     *           the name of the user to be authenticated
     * @param password
@@ -110,39 +183,187 @@ public class Authenticator {
     * @return does the user exist and are the credentials correct
     */
    public static boolean authenticate(String name, String password) {
-      log.debug("Trying to authenticate: name=" + name + ",password="
-            + password);
-      String prop = table.getProperty(name);
-      if (prop != null) {
-         return prop.equals(password);
+      log.debug("Trying to authenticate: name=" + name);
+      String prop = table.get(name);
+      if (prop == null) {
+         return false;
       }
-      return false;
-   }
-
-   /** Stores the current properties. */
-   private static void store() {
-      try (FileOutputStream os = new FileOutputStream(new File(
-            Authenticator.class.getResource(DATA_PATH).toURI()))) {
-         table.store(os, null);
-      } catch (Exception e) {
-         log.fatal("Failed to store name-password-table.", e);
+      if (PasswordHash.isHash(prop)) {
+         return PasswordHash.verify(password, prop);
       }
+      if (prop.equals(password)) {
+         // upgrade a legacy plain text password
+         if (change(name, prop::equals, PasswordHash.hash(password))) {
+            scheduleFlush();
+         }
+         return true;
+      }
+      return false;
    }
 
    /**
     * This method checks if a user by the specified name exists in the
     * name-password table.
-    * 
+    *
     * @param name
     *           the name of the user
     * @return does the user exist
     */
    public static boolean exists(String name) {
-      return null != table.getProperty(name);
+      return table.containsKey(name);
+   }
+
+   /**
+    * This method writes all pending changes to the journal and waits until it
+    * is done. Used when the server stops.
+    */
+   public static void flush() {
+      try {
+         flusher.submit(Authenticator::writePending).get();
+      } catch (Exception e) {
+         log.error("Failed to flush name-password-table.", e);
+      }
+   }
+
+   /**
+    * Replaces the hash of a user by the specified one if the current one
+    * passes the test, and queues the change for the journal while the entry
+    * of the user is locked.
+    *
+    * @param name
+    *           the name of the user
+    * @param test
+    *           the test of the current hash, null if the user doesn't exist
+    * @param hash
+    *           the new hash, null to remove the user
+    * @return was the table changed
+    */
+   private static boolean change(String name, Predicate<String> test,
+         String hash) {
+      boolean[] changed = new boolean[1];
+      table.compute(name, (key, current) -> {
+         if (!test.test(current)) {
+            return current;
+         }
+         pending.add(new Change(key, hash));
+         changed[0] = true;
+         return hash;
+      });
+      return changed[0];
+   }
 
+   /** Schedules a flush unless one is scheduled already. */
+   private static synchronized void scheduleFlush() {
+      if (!flushScheduled) {
+         flushScheduled = true;
+         flusher.schedule(() -> {
+            synchronized (Authenticator.class) {
+               flushScheduled = false;
+            }
+            writePending();
+         }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Appends all pending changes to the journal and compacts it if it grew too
+    * large. Only called on the flusher thread.
+    */
+   private static void writePending() {
+      if (pending.isEmpty()) {
+         return;
+      }
+      try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(journalFile(), true)))) {
+         Change change;
+         while ((change = pending.poll()) != null) {
+            out.writeUTF(change.name);
+            out.writeBoolean(change.password != null);
+            if (change.password != null) {
+               out.writeUTF(change.password);
+            }
+            journalSize++;
+         }
+      } catch (Exception e) {
+         log.fatal("Failed to write name-password-journal.", e);
+         return;
+      }
+      if (journalSize > COMPACT_THRESHOLD) {
+         store();
+      }
+   }
+
+   /**
+    * Stores the current table and truncates the journal. The property file is
+    * replaced atomically, so a crash leaves either the old table and the
+    * journal or the new table.
+    */
+   private static void store() {
+      Properties properties = new Properties();
+      properties.putAll(table);
+      try {
+         File file = dataFile();
+         File tmp = new File(file.getPath() + ".tmp");
+         try (FileOutputStream os = new FileOutputStream(tmp, false)) {
+            properties.store(os, null);
+         }
+         Files.move(tmp.toPath(), file.toPath(),
+               StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+         new FileOutputStream(journalFile()).close();
+         journalSize = 0;
+      } catch (Exception e) {
+         log.fatal("Failed to store name-password-table.", e);
+      }
+   }
+
+   /** Applies the journal written since the last compaction to the table. */
+   private static void replayJournal() throws Exception {
+      File f = journalFile();
+      if (!f.exists()) {
+         return;
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(f)))) {
+         while (true) {
+            String name = in.readUTF();
+            if (in.readBoolean()) {
+               table.put(name, in.readUTF());
+            } else {
+               table.remove(name);
+            }
+            journalSize++;
+         }
+      } catch (EOFException e) {
+         // end of journal, a torn last record is dropped
+      } catch (IOException e) {
+         log.error("Failed to replay name-password-journal.", e);
+      }
+   }
+
+   private static File dataFile() throws Exception {
+      return new File(Authenticator.class.getResource(DATA_PATH).toURI());
+   }
+
+   private static File journalFile() throws Exception {
+      return new File(dataFile().getParentFile(), JOURNAL_NAME);
    }
 
    private Authenticator() {
    }
 
+   /**
+    * A change of the user-password table. A password of null marks a
+    * removal.
+    */
+   private static class Change {
+      private final String name;
+      private final String password;
+
+      private Change(String name, String password) {
+         this.name = name;
+         this.password = password;
+      }
+   }
+
 }
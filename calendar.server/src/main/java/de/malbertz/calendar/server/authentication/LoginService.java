@@ -0,0 +1,207 @@
+package de.malbertz.calendar.server.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class implements the login pipeline of the server.
+ * <p>
+ * Password verification is expensive, so it runs on a bounded pool with one
+ * thread per processor instead of on the calling ClientThread. Each remote
+ * address may only have {@link #PER_ADDRESS_LIMIT} logins in flight, further
+ * attempts wait for a slot up to {@link #SLOT_TIMEOUT} seconds.
+ * <p>
+ * Successful verifications are cached for {@link #CACHE_TTL} milliseconds, so
+ * a client that reconnects after a network blip doesn't pay for the slow hash
+ * again. The cache only holds a keyed digest of the password. Every
+ * {@link #invalidate(String) invalidation} of a user bumps its generation, so a
+ * verification that was still running when the user was removed or its
+ * password changed is neither cached nor successful.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class LoginService {
+
+   private static final Logger log = LogManager.getLogger(LoginService.class);
+   /** The number of logins that may be in flight per remote address */
+   private static final int PER_ADDRESS_LIMIT = 4;
+   /** The seconds a login waits for a slot of its address */
+   private static final long SLOT_TIMEOUT = 10;
+   /** The number of logins that may wait for a pool thread */
+   private static final int QUEUE_CAPACITY = 4096;
+   /** The milliseconds a successful verification is cached */
+   private static final long CACHE_TTL = 5 * 60 * 1000;
+
+   /** Holds the pool that verifies passwords */
+   private final ThreadPoolExecutor pool;
+   /** Holds the login slots per remote address */
+   private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<>();
+   /** Holds the cached verifications by user name */
+   private final ConcurrentMap<String, Verification> cache = new ConcurrentHashMap<>();
+   /** Holds the number of invalidations by user name */
+   private final ConcurrentMap<String, Long> generations = new ConcurrentHashMap<>();
+   /** Holds the secret the cached digests are keyed with */
+   private final byte[] secret = new byte[32];
+
+   /**
+    * Creates a new LoginService with one verification thread per processor.
+    */
+   public LoginService() {
+      int threads = Runtime.getRuntime().availableProcessors();
+      AtomicInteger count = new AtomicInteger();
+      pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), r -> {
+               Thread t = new Thread(r, "Login-" + count.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            });
+      new SecureRandom().nextBytes(secret);
+   }
+
+   /**
+    * This method authenticates a user connected from the specified address.
+    * <p>
+    * It blocks the calling thread until the credentials are verified.
+    *
+    * @param address
+    *           the remote address of the client
+    * @param name
+    *           the name of the user
+    * @param password
+    *           the password of the user
+    * @return are the credentials correct
+    * @throws InterruptedException
+    *            if the calling thread was interrupted while waiting
+    */
+   public boolean login(String address, String name, String password)
+         throws InterruptedException {
+      byte[] digest = digest(name, password);
+      Verification cached = cache.get(name);
+      if (cached != null && cached.isValid()
+            && MessageDigest.isEqual(cached.digest, digest)
+            && Authenticator.exists(name)) {
+         log.debug("Login of " + name + " verified from cache");
+         return true;
+      }
+
+      // the slot is only dropped by the last login that uses it
+      Slot slot = slots.compute(address, (a, s) -> {
+         Slot used = s != null ? s : new Slot();
+         used.users++;
+         return used;
+      });
+      try {
+         if (!slot.permits.tryAcquire(SLOT_TIMEOUT, TimeUnit.SECONDS)) {
+            log.warn("Too many concurrent logins from " + address);
+            return false;
+         }
+         try {
+            return verify(address, name, password, digest);
+         } finally {
+            slot.permits.release();
+         }
+      } finally {
+         // drop idle slots so the map doesn't grow with every address seen
+         slots.computeIfPresent(address, (a, s) -> --s.users == 0 ? null : s);
+      }
+   }
+
+   /**
+    * This method verifies credentials on the pool and caches a successful
+    * verification.
+    */
+   private boolean verify(String address, String name, String password,
+         byte[] digest) throws InterruptedException {
+      long generation = generations.getOrDefault(name, 0L);
+      try {
+         Future<Boolean> result = pool.submit(() -> Authenticator
+               .authenticate(name, password));
+         if (!result.get()) {
+            return false;
+         }
+         Verification verification = new Verification(digest,
+               System.currentTimeMillis() + CACHE_TTL);
+         cache.put(name, verification);
+         // invalidate bumps the generation before it clears the cache
+         if (generations.getOrDefault(name, 0L) != generation) {
+            cache.remove(name, verification);
+            log.info("Credentials of " + name + " changed during the login");
+            return false;
+         }
+         return true;
+      } catch (RejectedExecutionException e) {
+         log.warn("Login queue is full, rejecting login from " + address);
+         return false;
+      } catch (ExecutionException e) {
+         log.error("Failed to verify login of " + name, e.getCause());
+         return false;
+      }
+   }
+
+   /**
+    * This method removes the cached verification of a user. It has to be
+    * called if the user was removed or its password changed.
+    *
+    * @param name
+    *           the name of the user
+    */
+   public void invalidate(String name) {
+      generations.merge(name, 1L, Long::sum);
+      cache.remove(name);
+   }
+
+   private byte[] digest(String name, String password) {
+      try {
+         MessageDigest md = MessageDigest.getInstance("SHA-256");
+         md.update(secret);
+         md.update(name.getBytes(StandardCharsets.UTF_8));
+         md.update((byte) 0);
+         return md.digest(password.getBytes(StandardCharsets.UTF_8));
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * The login slots of a remote address. The number of logins using the
+    * slots is only changed while the map holds the address.
+    */
+   private static class Slot {
+      private final Semaphore permits = new Semaphore(PER_ADDRESS_LIMIT);
+      private int users;
+   }
+
+   /**
+    * A cached successful verification.
+    */
+   private static class Verification {
+      private final byte[] digest;
+      private final long expires;
+
+      private Verification(byte[] digest, long expires) {
+         this.digest = digest;
+         this.expires = expires;
+      }
+
+      private boolean isValid() {
+         return System.currentTimeMillis() < expires;
+      }
+   }
+
+}
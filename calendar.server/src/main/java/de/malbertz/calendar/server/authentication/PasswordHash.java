@@ -0,0 +1,101 @@
+package de.malbertz.calendar.server.authentication;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class implements static methods to hash and verify passwords.
+ * <p>
+ * Passwords are hashed with PBKDF2 and a random salt per password. A hash is
+ * stored as "pbkdf2$ITERATIONS$SALT$HASH" with salt and hash encoded in
+ * Base64, so the iteration count can be raised later without breaking
+ * existing hashes.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class PasswordHash {
+
+   /** The prefix of a stored hash */
+   private static final String PREFIX = "pbkdf2";
+   /** The algorithm used to derive the hash */
+   private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+   /** The number of iterations used for new hashes */
+   private static final int ITERATIONS = 65536;
+   /** The length of the salt in bytes */
+   private static final int SALT_LENGTH = 16;
+   /** The length of the hash in bits */
+   private static final int HASH_LENGTH = 256;
+   /** Holds the random number generator for salts */
+   private static final SecureRandom random = new SecureRandom();
+
+   /**
+    * This method hashes a password with a new random salt.
+    *
+    * @param password
+    *           the password to hash
+    * @return the encoded hash
+    */
+   public static String hash(String password) {
+      byte[] salt = new byte[SALT_LENGTH];
+      random.nextBytes(salt);
+      Base64.Encoder encoder = Base64.getEncoder();
+      return PREFIX + "$" + ITERATIONS + "$" + encoder.encodeToString(salt)
+            + "$" + encoder.encodeToString(derive(password, salt, ITERATIONS));
+   }
+
+   /**
+    * This method verifies a password against an encoded hash.
+    *
+    * @param password
+    *           the password to verify
+    * @param stored
+    *           the encoded hash
+    * @return does the password match the hash
+    */
+   public static boolean verify(String password, String stored) {
+      String[] parts = stored.split("\\$");
+      if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+         return false;
+      }
+      Base64.Decoder decoder = Base64.getDecoder();
+      byte[] expected = decoder.decode(parts[3]);
+      byte[] actual = derive(password, decoder.decode(parts[2]),
+            Integer.parseInt(parts[1]));
+      return MessageDigest.isEqual(expected, actual);
+   }
+
+   /**
+    * This method checks if a stored value is an encoded hash or a legacy plain
+    * text password.
+    *
+    * @param stored
+    *           the stored value
+    * @return is the value an encoded hash
+    */
+   public static boolean isHash(String stored) {
+      return stored.startsWith(PREFIX + "$");
+   }
+
+   private static byte[] derive(String password, byte[] salt, int iterations) {
+      PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt,
+            iterations, HASH_LENGTH);
+      try {
+         return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec)
+               .getEncoded();
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException(ALGORITHM + " is not available", e);
+      } finally {
+         spec.clearPassword();
+      }
+   }
+
+   private PasswordHash() {
+   }
+
+}
@@ -0,0 +1,99 @@
+package de.malbertz.calendar.server.authentication;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class implements the store of session resumption tokens.
+ * <p>
+ * A token is issued after a successful login and can be redeemed once within
+ * {@link #TOKEN_TTL} milliseconds to authenticate as the same user without
+ * sending the credentials again. Redeeming a token invalidates it, the
+ * resumed session gets a new one.
+ * 
+ * @author Michael Albertz
+ *
+ */
+public class SessionTokens {
+
+   /** The milliseconds a token stays valid */
+   private static final long TOKEN_TTL = 60 * 60 * 1000;
+   /** The length of a token in bytes */
+   private static final int TOKEN_LENGTH = 32;
+
+   /** Holds the issued tokens */
+   private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+   /** Holds the random number generator for tokens */
+   private final SecureRandom random = new SecureRandom();
+
+   /**
+    * Issue a new token for a user.
+    * 
+    * @param name
+    *           the name of the authenticated user
+    * @return the token
+    */
+   public String issue(String name) {
+      byte[] bytes = new byte[TOKEN_LENGTH];
+      random.nextBytes(bytes);
+      String token = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(bytes);
+      tickets.put(token, new Ticket(name, System.currentTimeMillis()
+            + TOKEN_TTL));
+      if (tickets.size() % 1024 == 0) {
+         purge();
+      }
+      return token;
+   }
+
+   /**
+    * Redeem a token.
+    * 
+    * @param token
+    *           the token to redeem
+    * @return the name of the user the token was issued to, null if the token
+    *         is unknown or expired
+    */
+   public String redeem(String token) {
+      if (token == null) {
+         return null;
+      }
+      Ticket ticket = tickets.remove(token);
+      if (ticket == null || ticket.expires < System.currentTimeMillis()) {
+         return null;
+      }
+      return ticket.name;
+   }
+
+   /**
+    * Invalidate all tokens of a user.
+    * 
+    * @param name
+    *           the name of the user
+    */
+   public void invalidate(String name) {
+      tickets.values().removeIf(ticket -> ticket.name.equals(name));
+   }
+
+   /** Removes expired tokens. */
+   private void purge() {
+      long now = System.currentTimeMillis();
+      tickets.values().removeIf(ticket -> ticket.expires < now);
+   }
+
+   /**
+    * The user and expiry a token was issued for.
+    */
+   private static class Ticket {
+      private final String name;
+      private final long expires;
+
+      private Ticket(String name, long expires) {
+         this.name = name;
+         this.expires = expires;
+      }
+   }
+
+}
@@ -0,0 +1,113 @@
+package de.malbertz.calendar.server.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.malbertz.calendar2.CalendarEntry;
+
+/**
+ * This class implements the store of the {@link UserCalendar}s that are in use.
+ * <p>
+ * A calendar is loaded when the first session of a user acquires it and saved
+ * and dropped when the last session releases it, so all sessions of a user
+ * share the same entries.
+ * 
+ * @author Michael Albertz
+ *
+ */
+public class CalendarStore {
+
+   private static final Logger log = LogManager.getLogger(CalendarStore.class);
+
+   /** Holds the calendars in use by user name */
+   private final Map<String, UserCalendar> calendars = new HashMap<>();
+   /** Holds the number of sessions using a calendar by user name */
+   private final Map<String, Integer> references = new HashMap<>();
+
+   /**
+    * Get the calendar of a user and load it if it isn't in use yet.
+    * 
+    * @param userName
+    *           the name of the user
+    * @return the calendar
+    * @throws IOException
+    *            if the datafile couldn't be read
+    */
+   public synchronized UserCalendar acquire(String userName)
+         throws IOException {
+      UserCalendar calendar = calendars.get(userName);
+      if (calendar == null) {
+         calendar = new UserCalendar(userName);
+         calendar.load();
+         calendars.put(userName, calendar);
+      }
+      references.merge(userName, 1, Integer::sum);
+      return calendar;
+   }
+
+   /**
+    * Release the calendar of a user. The last release saves the calendar.
+    * 
+    * @param calendar
+    *           the calendar to release
+    */
+   public synchronized void release(UserCalendar calendar) {
+      String userName = calendar.getUserName();
+      if (references.merge(userName, -1, Integer::sum) > 0) {
+         return;
+      }
+      references.remove(userName);
+      calendars.remove(userName);
+      try {
+         calendar.save();
+      } catch (IOException e) {
+         log.fatal("Couln't save calendar of " + userName, e);
+      }
+   }
+
+   /**
+    * Get the merged busy times of a user in [start, end). If no session uses
+    * the calendar only the times of the entries in its datafile are read,
+    * without decoding their names and descriptions, and only an
+    * {@link IntervalIndex} of them is built.
+    * 
+    * @param userName
+    *           the name of the user
+    * @param start
+    *           the start of the range, in seconds
+    * @param end
+    *           the end of the range, in seconds
+    * @return the busy times as pairs of start and end
+    * @throws IOException
+    *            if the datafile couldn't be read
+    */
+   public long[] busy(String userName, long start, long end)
+         throws IOException {
+      UserCalendar calendar = get(userName);
+      if (calendar != null) {
+         return calendar.busy(start, end);
+      }
+      IntervalIndex intervals = new IntervalIndex();
+      for (CalendarEntry entry : UserCalendar.readTimes(userName)
+            .getEntries()) {
+         intervals.add(entry);
+      }
+      return intervals.busy(start, end);
+   }
+
+   /**
+    * Get the calendar of a user if it is in use.
+    * 
+    * @param userName
+    *           the name of the user
+    * @return the calendar, null if no session uses it
+    */
+   public synchronized UserCalendar get(String userName) {
+      return calendars.get(userName);
+   }
+
+}
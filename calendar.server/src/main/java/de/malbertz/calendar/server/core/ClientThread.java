@@ -1,14 +1,19 @@
 package de.malbertz.calendar.server.core;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Observable;
 import java.util.concurrent.BlockingQueue;
@@ -16,10 +21,11 @@ import java.util.concurrent.BlockingQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import de.malbertz.calendar.server.authentication.Authenticator;
-import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.Frame;
 import de.malbertz.calendar2.ServerCommand;
 import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.SessionToken;
+import de.malbertz.calendar2.util.Compression;
 import de.malbertz.calendar2.util.SerializationUtils;
 
 /**
@@ -30,7 +36,13 @@ import de.malbertz.calendar2.util.SerializationUtils;
  * <p>
  * The status {@link ClientThreadState#AUTHENTICATED} will be reached if the
  * client sent a String array that contains name and password of a user existing
- * in the user-password-table.
+ * in the user-password-table, or a {@link Command#RESUME} command with a valid
+ * session token. Every authenticated client receives a {@link Command#SESSION}
+ * command with the token for its next resumption.
+ * <p>
+ * Before the authentication the client can negotiate a compression with
+ * {@link Command#NEGOTIATE}. If it did, large commands are sent to it in
+ * compressed {@link Frame}s.
  * <p>
  * After successful authentication the ClientThread will keep listening for
  * ServerCommands. All other objects received will be discarded.
@@ -39,7 +51,7 @@ import de.malbertz.calendar2.util.SerializationUtils;
  * command consumer will eventually execute it.
  * <p>
  * This class extends {@link Observable}. That is used to notify the Server if
- * the client loses connection or a fatal error happened.
+ * the client got authenticated, loses connection or a fatal error happened.
  * 
  * @author Michael Albertz
  *
@@ -47,6 +59,8 @@ import de.malbertz.calendar2.util.SerializationUtils;
 public class ClientThread extends Observable implements Runnable {
 
    private static final Logger log = LogManager.getLogger(ClientThread.class);
+   /** The maximum number of bytes of a block of file content */
+   private static final int MAX_BLOCK = 1 << 20;
 
    /** Holds the output stream of the socket */
    private ObjectOutputStream out;
@@ -54,6 +68,8 @@ public class ClientThread extends Observable implements Runnable {
    private ObjectInputStream in;
    /** Holds the blocking command queue the command consumer is taking from */
    private BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> commandQueue;
+   /** Holds the server that provides logins, tokens and calendars */
+   private Server server;
    /** Holds the socket of the client */
    private Socket socket;
    /** Determines if the client thread is running */
@@ -62,26 +78,35 @@ public class ClientThread extends Observable implements Runnable {
    private ClientThreadState state;
    /** Holds the username of the connected user */
    private String userName = null;
-   /** Holds the entrys of the connected and authenticated user */
-   private List<CalendarEntry> entryList;
+   /** Holds the calendar of the connected and authenticated user */
+   private UserCalendar calendar;
+   /** Holds the download of all entries of the calendar */
+   private SnapshotPager pager;
+   /** Determines if large commands are sent compressed */
+   private volatile boolean compressing;
+   /** Holds the objects sent while a file is transferred, null if none is */
+   private List<Object> deferred;
 
    /**
-    * Creates a new ClientThread thats connected to the specified socket and
-    * puts commands in the specified command queue.
+    * Creates a new ClientThread thats connected to the specified socket, puts
+    * commands in the specified command queue and authenticates with the
+    * specified server.
     * 
     * @param socket
     *           the socket connected to a client
     * @param commandQueue
     *           the command queue to put commands
+    * @param server
+    *           the server that verifies credentials and stores calendars
     */
    public ClientThread(Socket socket,
-         BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> commandQueue)
-         throws IOException {
+         BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> commandQueue,
+         Server server) throws IOException {
       this.socket = socket;
       this.commandQueue = commandQueue;
+      this.server = server;
       running = false;
       state = ClientThreadState.AUTHENTICATING;
-      entryList = new ArrayList<>();
       try {
          out = new ObjectOutputStream(socket.getOutputStream());
          in = new ObjectInputStream(socket.getInputStream());
@@ -129,29 +154,92 @@ public class ClientThread extends Observable implements Runnable {
          // notify observers to clean up
          this.setChanged();
          this.notifyObservers(this);
-         try {
-            saveEntryList();
-         } catch (IOException e) {
-            log.fatal("Couln't save entry list", e);
+         if (calendar != null) {
+            server.getCalendarStore().release(calendar);
          }
       }
    }
 
    /**
     * This method sends the specified object to the connected client.
+    * <p>
+    * It is synchronized, because the command consumer pushes changes to the
+    * client while the client thread may answer a login.
+    * <p>
+    * The stream is reset after a command that can be large, like a page of a
+    * snapshot, so neither the stream nor the one of the client keeps a
+    * reference to it for the rest of the connection.
+    * <p>
+    * While a {@link FileTransfer} holds the stream the object is kept, and
+    * sent after the content of the file.
     * 
     * @param obj
     *           the object to send
     */
-   public void send(Object obj) throws IOException {
+   public synchronized void send(Object obj) throws IOException {
+      if (deferred != null) {
+         log.debug("Deferring until the file is sent: " + obj);
+         deferred.add(obj);
+         return;
+      }
+      write(obj);
+   }
+
+   /**
+    * This method reserves the stream for the specified command followed by
+    * the content of a file, and returns the transfer that sends both.
+    * <p>
+    * The objects sent to the client until the transfer ended are kept, so the
+    * content follows right after the command and neither the transfer nor
+    * the threads sending to the client wait for each other.
+    * 
+    * @param command
+    *           the command announcing the content
+    * @param file
+    *           the file to send, closed by the transfer
+    * @param size
+    *           the number of bytes to send from the start of the file
+    * @return the transfer to run, null if another one holds the stream
+    */
+   public synchronized FileTransfer transfer(ServerCommand command,
+         FileChannel file, long size) {
+      if (deferred != null) {
+         return null;
+      }
+      deferred = new ArrayList<>();
+      return new FileTransfer(command, file, size);
+   }
+
+   /**
+    * This method writes an object to the stream, framed if it is large and the
+    * client compresses.
+    */
+   private void write(Object obj) throws IOException {
       log.debug("Sending to client: " + obj);
-      if (obj instanceof CalendarEntry[]) {
-         for (CalendarEntry entry : (CalendarEntry[]) obj) {
-            log.debug(entry);
+      boolean large = obj instanceof ServerCommand
+            && Frame.isLarge((ServerCommand) obj);
+      if (compressing && large) {
+         Frame frame = Frame.of((ServerCommand) obj);
+         if (frame != null) {
+            obj = frame;
          }
-         out.writeObject(SerializationUtils.pickle((CalendarEntry[]) obj));
       }
       out.writeObject(obj);
+      if (large) {
+         out.reset();
+      }
+   }
+
+   /**
+    * This method sends the objects kept during a transfer and releases the
+    * stream.
+    */
+   private synchronized void resume() throws IOException {
+      List<Object> objects = deferred;
+      deferred = null;
+      for (Object obj : objects) {
+         write(obj);
+      }
    }
 
    /**
@@ -176,17 +264,21 @@ public class ClientThread extends Observable implements Runnable {
          if (login.length == 2) {
             log.info("Checking credentials ...");
             log.trace("name=" + login[0] + ",pass=" + login[1]);
-            boolean authenticated = Authenticator.authenticate(login[0],
-                  login[1]);
-            state = authenticated ? ClientThreadState.AUTHENTICATED
-                  : ClientThreadState.AUTHENTICATING;
-            if (authenticated) {
-               this.userName = login[0];
-               loadEntryList();
+            boolean authenticated;
+            try {
+               authenticated = server.getLoginService().login(getAddress(),
+                     login[0], login[1]);
+            } catch (InterruptedException e) {
+               log.warn("Interrupted while checking credentials of: " + this);
+               authenticated = false;
             }
             log.info(authenticated ? "Client authenticated"
                   : "Client not authenticated as " + login[0]);
-            send(authenticated);
+            if (authenticated) {
+               authenticated(login[0]);
+            } else {
+               send(false);
+            }
          } else {
             log.warn("Illegal String array from client: " + this);
          }
@@ -195,6 +287,14 @@ public class ClientThread extends Observable implements Runnable {
          try {
             command = SerializationUtils.unpickle((byte[]) obj,
                   ServerCommand.class);
+            if (command.getCommand() == Command.RESUME) {
+               resume((SessionToken) command.getArgument());
+               return;
+            }
+            if (command.getCommand() == Command.NEGOTIATE) {
+               negotiate((String[]) command.getArgument());
+               return;
+            }
             if (state != ClientThreadState.AUTHENTICATED) {
                log.warn("Illegal command: Received a ServerCommand while not authenticated from: "
                      + this);
@@ -223,53 +323,116 @@ public class ClientThread extends Observable implements Runnable {
    }
 
    /**
-    * This method loads the entry list for an authenticated client from a
-    * datafile to a list accessible by {@link ClientThread#getEntryList()}.
+    * This method tries to resume a session with the specified token.
+    * <p>
+    * If the token is valid the client is authenticated as the user the token
+    * was issued to, otherwise the client has to send its credentials.
+    * 
+    * @param token
+    *           the session token presented by the client
     */
-   private void loadEntryList() throws IOException {
-      File f = new File(userName + ".dat");
-      f.createNewFile();
-      try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(f))) {
-         Object obj = in.readObject();
-         if (obj instanceof CalendarEntry[]) {
-            CalendarEntry[] array = (CalendarEntry[]) obj;
-            for (CalendarEntry calendarEntry : array) {
-               entryList.add(calendarEntry);
-            }
-         } else {
-            log.error("Corrupt data file for: " + getIdentification());
-            f.delete();
-         }
-      } catch (ClassNotFoundException e) {
-         log.error("Corrupt data file for: " + getIdentification());
-         f.delete();
+   private void resume(SessionToken token) throws IOException {
+      if (state != ClientThreadState.AUTHENTICATING) {
+         log.info("Illegal command: Received RESUME while not authenticating from: "
+               + this);
+         return;
+      }
+      String name = server.getSessionTokens().redeem(token.getToken());
+      if (name == null) {
+         log.info("Client presented an invalid session token: " + this);
+         send(false);
+         return;
       }
+      log.info("Client resumed session of " + name);
+      authenticated(name);
+   }
+
+   /**
+    * This method chooses the compression of the commands sent to the client
+    * from the compressions it can read, and tells the client.
+    * 
+    * @param offered
+    *           the compressions the client can read
+    */
+   private void negotiate(String[] offered) throws IOException {
+      if (state != ClientThreadState.AUTHENTICATING) {
+         log.info("Illegal command: Received NEGOTIATE while not authenticating from: "
+               + this);
+         return;
+      }
+      boolean deflate = Arrays.asList(offered).contains(Compression.DEFLATE);
+      synchronized (this) {
+         send(new ServerCommand(Command.NEGOTIATE,
+               deflate ? new String[] { Compression.DEFLATE } : new String[0]));
+         compressing = deflate;
+      }
+   }
 
+   /**
+    * Does the client get large commands compressed?
+    * 
+    * @return did the client negotiate a compression
+    */
+   public boolean isCompressing() {
+      return compressing;
    }
 
    /**
-    * This method saves the current entry list to a datafile with the filename
-    * "USER.dat".
+    * This method finishes the authentication as the specified user.
+    * <p>
+    * It acquires the calendar of the user, notifies the observers and sends
+    * the client the confirmation and a new session token.
+    * 
+    * @param name
+    *           the name of the authenticated user
     */
-   private void saveEntryList() throws IOException {
-      File f = new File(userName + ".dat");
-      f.createNewFile();
-      try (ObjectOutputStream out = new ObjectOutputStream(
-            new FileOutputStream(f, false))) {
-         CalendarEntry[] array = new CalendarEntry[entryList.size()];
-         array = entryList.toArray(array);
-         out.writeObject(array);
+   private void authenticated(String name) throws IOException {
+      this.userName = name;
+      this.calendar = server.getCalendarStore().acquire(name);
+      this.pager = new SnapshotPager(calendar);
+      state = ClientThreadState.AUTHENTICATED;
+      // no change may be pushed before the client got its session
+      synchronized (this) {
+         this.setChanged();
+         this.notifyObservers(ClientThreadState.AUTHENTICATED);
+         send(true);
+         send(new ServerCommand(Command.SESSION, new SessionToken(server
+               .getSessionTokens().issue(name), calendar.getVersion())));
       }
    }
 
-   public List<CalendarEntry> getEntryList() {
-      return entryList;
+   /**
+    * Get the calendar of the authenticated user.
+    * 
+    * @return the calendar, null if the client isn't authenticated
+    */
+   public UserCalendar getCalendar() {
+      return calendar;
+   }
+
+   /**
+    * Get the download of all entries of the calendar of the authenticated
+    * user.
+    * 
+    * @return the pager, null if the client isn't authenticated
+    */
+   public SnapshotPager getPager() {
+      return pager;
    }
 
    public String getName() {
       return userName;
    }
 
+   /**
+    * Get the host address of the connected client.
+    * 
+    * @return the remote host address
+    */
+   public String getAddress() {
+      return socket.getInetAddress().getHostAddress();
+   }
+
    public String getIdentification() {
       return userName != null ? userName + socket.getRemoteSocketAddress()
             : socket.getRemoteSocketAddress().toString();
@@ -281,6 +444,110 @@ public class ClientThread extends Observable implements Runnable {
 
    }
 
+   /**
+    * This class implements the transfer of a command followed by the content
+    * of a file to the client, that holds the stream until it ended.
+    * <p>
+    * The content is written as block data records of the object stream, so
+    * the client reads it with {@link ObjectInputStream#readFully(byte[])}
+    * right after it read the command, before it reads any other object. It
+    * is transferred by the channel of the file and never copied to the heap
+    * if the socket has a channel.
+    * <p>
+    * The headers of the records are written by hand, which relies on the
+    * object stream being in block data mode. An ObjectOutputStream writes its
+    * own primitive data as block data records except while writing an
+    * object, and only the transfer writes to it until it ended. If the
+    * transfer fails the stream is broken, so the client is stopped.
+    * 
+    * @author Michael Albertz
+    *
+    */
+   final class FileTransfer implements Runnable {
+
+      /** Holds the command announcing the content */
+      private final ServerCommand command;
+      /** Holds the file to send */
+      private final FileChannel file;
+      /** Holds the number of bytes to send */
+      private final long size;
+
+      private FileTransfer(ServerCommand command, FileChannel file, long size) {
+         this.command = command;
+         this.file = file;
+         this.size = size;
+      }
+
+      /**
+       * This method sends the command and the content of the file, then the
+       * objects sent to the client meanwhile.
+       */
+      @Override
+      public void run() {
+         try (FileChannel f = file) {
+            synchronized (ClientThread.this) {
+               assert deferred != null : "The stream isn't reserved";
+               log.debug("Sending to client: " + command);
+               out.writeObject(command);
+               out.flush();
+            }
+            send();
+         } catch (IOException e) {
+            log.error("Failed to send file to " + ClientThread.this, e);
+            synchronized (ClientThread.this) {
+               deferred = null;
+            }
+            stopClient();
+            return;
+         }
+         try {
+            resume();
+         } catch (IOException e) {
+            log.error("Failed to send to " + ClientThread.this);
+         }
+      }
+
+      /**
+       * This method releases the stream without sending anything but the
+       * objects sent to the client meanwhile.
+       */
+      public void cancel() {
+         try {
+            file.close();
+         } catch (IOException e) {
+            log.warn("Couldn't close file sent to " + ClientThread.this);
+         }
+         try {
+            resume();
+         } catch (IOException e) {
+            log.error("Failed to send to " + ClientThread.this);
+         }
+      }
+
+      /** Writes the content of the file in block data records */
+      private void send() throws IOException {
+         OutputStream raw = socket.getOutputStream();
+         WritableByteChannel target = socket.getChannel() != null ? socket
+               .getChannel() : Channels.newChannel(raw);
+         DataOutputStream header = new DataOutputStream(raw);
+         long position = 0;
+         while (position < size) {
+            int block = (int) Math.min(size - position, MAX_BLOCK);
+            header.writeByte(ObjectStreamConstants.TC_BLOCKDATALONG);
+            header.writeInt(block);
+            for (long end = position + block; position < end;) {
+               long sent = file.transferTo(position, end - position, target);
+               if (sent <= 0) {
+                  throw new EOFException("File ended after " + position
+                        + " of " + size + " bytes");
+               }
+               position += sent;
+            }
+         }
+      }
+
+   }
+
    /**
     * The State a {@link ClientThread} can be in.
     * 
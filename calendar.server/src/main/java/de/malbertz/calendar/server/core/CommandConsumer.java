@@ -1,22 +1,56 @@
 package de.malbertz.calendar.server.core;
 
 import java.io.IOException;
-import java.util.AbstractMap.SimpleEntry;
+import java.nio.channels.FileChannel;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.ChangeSet;
+import de.malbertz.calendar2.EntryFilter;
+import de.malbertz.calendar2.FilteredEntries;
+import de.malbertz.calendar2.SearchQuery;
 import de.malbertz.calendar2.ServerCommand;
 import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.SnapshotCursor;
 
 /**
  * This class implements a command consumer.
  * <p>
  * After it is inititialized and the thread it implements is started it will
  * keep taking commands from a blocking queue and executing them.
+ * <p>
+ * Every {@link Command#ADD}, {@link Command#MODIFY} and {@link Command#REMOVE}
+ * is acknowledged with the new version of the data to the client that sent
+ * it, and pushed as {@link Command#CHANGES} to the other sessions of the user.
+ * If an added entry overlaps other entries the client is told with
+ * {@link Command#CONFLICTS}. The reminders of the changed entries are
+ * rescheduled with the {@link ReminderScheduler} of the server.
+ * <p>
+ * The matches of a {@link Command#REQUEST_FILTERED} are sent back in parts of
+ * {@link #FILTER_CHUNK} entries. A {@link Command#REQUEST_ALL} is answered with
+ * one page of the entries at a time, the client requests the next page with
+ * the cursor of the last one. So a large calendar neither has to be encoded at
+ * once nor keeps the other clients waiting while it is sent. The pages are
+ * encoded once per version of the calendar, and a client that already has the
+ * current version is answered with {@link Command#NOT_MODIFIED}. A
+ * {@link Command#SNAPSHOT_DOWNLOAD} is answered with the datafile of the
+ * calendar as it is, without reading its entries, if it is current. It is
+ * sent uncompressed to a compressing client as well, the entries of the
+ * datafile are encoded compactly already. The datafiles are sent by
+ * {@link #DOWNLOAD_THREADS} threads of their own, so a slow client doesn't
+ * hold up the commands of the others. If all of them are busy and
+ * {@link #DOWNLOAD_CAPACITY} downloads wait, or the client still receives a
+ * datafile, the first page of the entries is sent instead.
  * 
  * @author Michael Albertz
  *
@@ -31,8 +65,20 @@ public class CommandConsumer implements Runnable {
     */
    private static final SimpleEntry<ClientThread, ServerCommand> POISON_PILL = new SimpleEntry<ClientThread, ServerCommand>(
          null, null);
+   /** The number of matches of a filter sent at once */
+   private static final int FILTER_CHUNK = 256;
+   /** The number of threads sending datafiles */
+   private static final int DOWNLOAD_THREADS = 2;
+   /** The maximum number of datafiles waiting to be sent */
+   private static final int DOWNLOAD_CAPACITY = 16;
    /** Holds the blocking queue the command consumer is taking from */
    private final BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> queue;
+   /** Holds the server whose sessions receive the changes */
+   private final Server server;
+   /** Answers the free/busy questions */
+   private final FreeBusyService freeBusy;
+   /** Holds the threads that send the datafiles */
+   private final ThreadPoolExecutor downloads;
    /** Determines whether of not the server is running */
    private boolean running;
 
@@ -41,10 +87,22 @@ public class CommandConsumer implements Runnable {
     * 
     * @param commandQueue
     *           the queue to take from
+    * @param server
+    *           the server whose sessions receive the changes
     */
    public CommandConsumer(
-         BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> commandQueue) {
+         BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> commandQueue,
+         Server server) {
       queue = commandQueue;
+      this.server = server;
+      this.freeBusy = new FreeBusyService(server.getCalendarStore());
+      this.downloads = new ThreadPoolExecutor(DOWNLOAD_THREADS,
+            DOWNLOAD_THREADS, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(DOWNLOAD_CAPACITY), r -> {
+               Thread t = new Thread(r, "Download");
+               t.setDaemon(true);
+               return t;
+            });
       running = false;
    }
 
@@ -72,6 +130,9 @@ public class CommandConsumer implements Runnable {
    /**
     * This method consumes the specified entry by executing the command for the
     * client.
+    * <p>
+    * A command that fails is logged and dropped, so it can't stop the
+    * execution of the commands of all other clients.
     * 
     * @param entry
     *           the entry to consume
@@ -82,44 +143,131 @@ public class CommandConsumer implements Runnable {
          running = false;
          return;
       }
-      ClientThread client = entry.getKey();
-      ServerCommand command = entry.getValue();
+      try {
+         execute(entry.getKey(), entry.getValue());
+      } catch (RuntimeException e) {
+         log.error("Failed to execute command: " + entry.getValue()
+               + " from " + entry.getKey().getIdentification(), e);
+      }
+   }
+
+   /**
+    * This method executes a command for a client.
+    * 
+    * @param client
+    *           the client that sent the command
+    * @param command
+    *           the command to execute
+    */
+   private void execute(ClientThread client, ServerCommand command) {
       if (command.getCommand() != Command.HEARTBEAT) {
          log.info("Executing command: " + command + " from "
                + client.getIdentification());
       }
-      List<CalendarEntry> list = client.getEntryList();
+      UserCalendar calendar = client.getCalendar();
       if (command.getCommand() != Command.HEARTBEAT) {
-         log.debug("Current List: ");
-         for (CalendarEntry calendarEntry : list) {
-            log.debug(calendarEntry);
-         }
+         logList(calendar);
       }
 
+      long version = calendar.getVersion();
       switch (command.getCommand()) {
       case ADD:
          log.debug("Adding " + command.getNewValue());
-         list.add(command.getNewValue());
+         calendar.add(command.getNewValue());
+         server.getReminders().added(calendar.getUserName(),
+               command.getNewValue());
+         acknowledge(client, calendar, version);
+         CalendarEntry[] conflicts = calendar.conflicts(command.getNewValue());
+         if (conflicts.length > 0) {
+            sendConflicts(client, command.getNewValue(), conflicts);
+         }
          break;
       case MODIFY:
          log.debug("Replacing " + command.getOldValue() + " with "
                + command.getNewValue());
-         list.set(list.indexOf(command.getOldValue()), command.getNewValue());
+         if (calendar.modify(command.getOldValue(), command.getNewValue())) {
+            server.getReminders().removed(calendar.getUserName(),
+                  command.getOldValue());
+            server.getReminders().added(calendar.getUserName(),
+                  command.getNewValue());
+         } else {
+            log.warn("Entry to modify not found: " + command.getOldValue());
+         }
+         acknowledge(client, calendar, version);
          break;
       case REMOVE:
          log.debug("Removing " + command.getOldValue());
-         list.remove(command.getOldValue());
+         if (calendar.remove(command.getOldValue())) {
+            server.getReminders().removed(calendar.getUserName(),
+                  command.getOldValue());
+         }
+         acknowledge(client, calendar, version);
+         break;
+      case REQUEST_CHANGES:
+         try {
+            client.send(new ServerCommand(Command.CHANGES, calendar
+                  .changesSince((Long) command.getArgument())));
+         } catch (IOException e) {
+            log.error("Failed to send requested changes to " + client);
+         }
+         break;
+      case CHECK_CONFLICTS:
+         sendConflicts(client, command.getNewValue(),
+               calendar.conflicts(command.getNewValue()));
+         break;
+      case SEARCH:
+         try {
+            client.send(new ServerCommand(Command.SEARCH_RESULT, calendar
+                  .search((SearchQuery) command.getArgument())));
+         } catch (IOException e) {
+            log.error("Failed to send search result to " + client);
+         }
+         break;
+      case FREE_BUSY:
+      case FIND_SLOT:
+         freeBusy.submit(client, command);
+         break;
+      case REQUEST_FILTERED:
+         sendFiltered(client, (EntryFilter) command.getArgument(),
+               calendar.filter((EntryFilter) command.getArgument()));
+         break;
+      case COUNT_BY_DAY:
+         LocalDate[] range = (LocalDate[]) command.getArgument();
+         try {
+            client.send(new ServerCommand(Command.DAY_COUNTS, calendar
+                  .countByDay(range[0], range[1])));
+         } catch (IOException e) {
+            log.error("Failed to send day counts to " + client);
+         }
          break;
       case REQUEST_ALL:
-         CalendarEntry[] array = new CalendarEntry[list.size()];
-         array = list.toArray(array);
          try {
-            client.send(array);
+            if (command.getArgument() instanceof Long) {
+               if ((Long) command.getArgument() == version) {
+                  client.send(new ServerCommand(Command.NOT_MODIFIED, version));
+                  break;
+               }
+               command.setArgument(null);
+            }
+            client.send(new ServerCommand(Command.SNAPSHOT_PAGE, client
+                  .getPager().page((SnapshotCursor) command.getArgument())));
          } catch (IOException e) {
-            log.error("Failed to send requested data: " + array + " to "
-                  + client);
+            log.error("Failed to send requested data to " + client);
          }
 
+         break;
+      case SNAPSHOT_DOWNLOAD:
+         try {
+            if (command.getArgument() != null
+                  && (Long) command.getArgument() == version) {
+               client.send(new ServerCommand(Command.NOT_MODIFIED, version));
+            } else if (!sendSaved(client, calendar)) {
+               client.send(new ServerCommand(Command.SNAPSHOT_PAGE, client
+                     .getPager().page(null)));
+            }
+         } catch (IOException e) {
+            log.error("Failed to send requested data to " + client);
+         }
          break;
       case HEARTBEAT:
          try {
@@ -133,13 +281,159 @@ public class CommandConsumer implements Runnable {
          break;
       }
       if (command.getCommand() != Command.HEARTBEAT) {
+         logList(calendar);
+      }
+      log.debug("Executed command: " + command + " from "
+            + client.getIdentification());
+   }
+
+   /**
+    * This method acknowledges a change to the client that sent it and pushes
+    * it to the other sessions of the user.
+    * 
+    * @param client
+    *           the client that sent the change
+    * @param calendar
+    *           the changed calendar
+    * @param before
+    *           the version of the calendar before the change
+    */
+   private void acknowledge(ClientThread client, UserCalendar calendar,
+         long before) {
+      long version = calendar.getVersion();
+      try {
+         client.send(new ServerCommand(Command.ACK, version));
+      } catch (IOException e) {
+         log.info("Failed to acknowledge change to: " + client);
+      }
+      if (version == before) {
+         return;
+      }
+      ServerCommand push = new ServerCommand(Command.CHANGES,
+            calendar.changesSince(before));
+      for (ClientThread session : server.getSessions(calendar.getUserName())) {
+         if (session != client) {
+            try {
+               session.send(push);
+            } catch (IOException e) {
+               log.info("Failed to push change to: " + session);
+            }
+         }
+      }
+   }
+
+   /**
+    * This method hands the datafile of a calendar to a download thread, if it
+    * holds the current version and one is free.
+    * 
+    * @param client
+    *           the client to send to
+    * @param calendar
+    *           the calendar to send
+    * @return will the datafile be sent
+    * @throws IOException
+    *            if an I/O error occurs while opening the datafile
+    */
+   private boolean sendSaved(ClientThread client, UserCalendar calendar)
+         throws IOException {
+      FileChannel file = calendar.openSaved();
+      if (file == null) {
+         return false;
+      }
+      ClientThread.FileTransfer transfer = null;
+      try {
+         long size = file.size();
+         if (size <= Integer.MAX_VALUE - 8) {
+            transfer = client.transfer(new ServerCommand(
+                  Command.SNAPSHOT_DOWNLOAD, size), file, size);
+         }
+      } finally {
+         if (transfer == null) {
+            file.close();
+         }
+      }
+      if (transfer == null) {
+         return false;
+      }
+      try {
+         downloads.execute(transfer);
+         return true;
+      } catch (RejectedExecutionException e) {
+         log.info("All download threads are busy, sending pages to "
+               + client);
+         transfer.cancel();
+         return false;
+      }
+   }
+
+   /**
+    * This method sends the entries that overlap an entry to a client.
+    * 
+    * @param client
+    *           the client to send to
+    * @param entry
+    *           the checked entry
+    * @param conflicts
+    *           the entries that overlap it
+    */
+   private void sendConflicts(ClientThread client, CalendarEntry entry,
+         CalendarEntry[] conflicts) {
+      try {
+         client.send(new ServerCommand(Command.CONFLICTS, entry, null,
+               conflicts));
+      } catch (IOException e) {
+         log.info("Failed to send conflicts to: " + client);
+      }
+   }
+
+   /**
+    * This method sends the matches of a filter to a client, in parts of
+    * {@link #FILTER_CHUNK} entries.
+    * 
+    * @param client
+    *           the client to send to
+    * @param filter
+    *           the filter that was run
+    * @param matches
+    *           the matches, followed by one more if there are more
+    */
+   private void sendFiltered(ClientThread client, EntryFilter filter,
+         List<CalendarEntry> matches) {
+      int limit = Math.max(0,
+            Math.min(filter.getLimit(), UserCalendar.MAX_FILTER_LIMIT));
+      boolean more = matches.size() > limit;
+      int size = Math.min(matches.size(), limit);
+      int offset = Math.max(0, filter.getOffset());
+      int from = 0;
+      do {
+         int to = Math.min(size, from + FILTER_CHUNK);
+         List<CalendarEntry> part = matches.subList(from, to);
+         try {
+            client.send(new ServerCommand(Command.FILTERED,
+                  new FilteredEntries(filter, offset + from, part
+                        .toArray(new CalendarEntry[part.size()]), to == size,
+                        more)));
+         } catch (IOException e) {
+            log.error("Failed to send filtered entries to " + client);
+            return;
+         }
+         from = to;
+      } while (from < size);
+   }
+
+   /**
+    * This method logs all entries of the calendar on debug level.
+    * 
+    * @param calendar
+    *           the calendar to log
+    */
+   private void logList(UserCalendar calendar) {
+      if (log.isDebugEnabled()) {
          log.debug("Current List: ");
-         for (CalendarEntry calendarEntry : list) {
+         for (CalendarEntry calendarEntry : calendar.toArray()) {
             log.debug(calendarEntry);
          }
       }
-      log.debug("Executed command: " + command + " from "
-            + client.getIdentification());
    }
 
    /**
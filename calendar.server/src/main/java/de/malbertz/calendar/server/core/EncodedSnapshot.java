@@ -0,0 +1,85 @@
+package de.malbertz.calendar.server.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.SnapshotCursor;
+import de.malbertz.calendar2.SnapshotPage;
+import de.malbertz.calendar2.util.EntryCodec;
+
+/**
+ * This class implements all entries of one version of a calendar, split in
+ * {@link SnapshotPage}s.
+ * <p>
+ * A page is encoded by {@link EntryCodec} when it is requested the first time
+ * and then kept, so every further download of the same version, by another
+ * session or after a reconnect, sends the cached bytes. The
+ * {@link UserCalendar} keeps the snapshot of its current version until it
+ * changes.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class EncodedSnapshot {
+
+   /** Holds the version of the entries */
+   private final long version;
+   /** Holds the entries */
+   private final CalendarEntry[] entries;
+   /** Holds the number of entries of a page */
+   private final int pageSize;
+   /** Holds the pages encoded so far, by index */
+   private final SnapshotPage[] pages;
+
+   /**
+    * Creates a new snapshot of the specified entries.
+    *
+    * @param version
+    *           the version of the entries
+    * @param entries
+    *           a copy of the entries
+    * @param pageSize
+    *           the number of entries of a page
+    */
+   public EncodedSnapshot(long version, CalendarEntry[] entries, int pageSize) {
+      this.version = version;
+      this.entries = entries;
+      this.pageSize = pageSize;
+      this.pages = new SnapshotPage[Math.max(1,
+            (entries.length + pageSize - 1) / pageSize)];
+   }
+
+   /**
+    * Get the page starting at the specified entry.
+    *
+    * @param offset
+    *           the index of the first entry of the page, a multiple of the
+    *           page size
+    * @return the page
+    * @throws IOException
+    *            if an entry can't be encoded
+    * @throws IllegalArgumentException
+    *            if there is no page at the offset
+    */
+   public synchronized SnapshotPage page(int offset) throws IOException {
+      if (offset < 0 || offset % pageSize != 0
+            || offset / pageSize >= pages.length) {
+         throw new IllegalArgumentException("No page at: " + offset);
+      }
+      int index = offset / pageSize;
+      if (pages[index] == null) {
+         int to = Math.min(entries.length, offset + pageSize);
+         pages[index] = new SnapshotPage(version, offset, entries.length,
+               EntryCodec.encode(version,
+                     Arrays.asList(entries).subList(offset, to)),
+               to < entries.length ? new SnapshotCursor(version, to) : null);
+      }
+      return pages[index];
+   }
+
+   public long getVersion() {
+      return version;
+   }
+
+}
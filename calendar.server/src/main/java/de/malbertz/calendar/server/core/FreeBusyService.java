@@ -0,0 +1,237 @@
+package de.malbertz.calendar.server.core;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.malbertz.calendar.server.authentication.Authenticator;
+import de.malbertz.calendar.server.core.IntervalIndex.LongList;
+import de.malbertz.calendar2.FreeBusyQuery;
+import de.malbertz.calendar2.ServerCommand;
+import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.TimeRanges;
+
+/**
+ * This class implements the free/busy lookup for a group of users.
+ * <p>
+ * The busy times of every user are read from the {@link IntervalIndex} of
+ * their calendar, so only the entries within the range are looked at. Of the
+ * calendar of a user without a session only the times of the entries are
+ * read into an IntervalIndex, their names and descriptions are skipped. The
+ * users are split in halves on a {@link ForkJoinPool} until every task has
+ * one user, and the merged busy times of both halves are merged again on the
+ * way back.
+ * <p>
+ * The queries of the clients are {@link #submit(ClientThread, ServerCommand)
+ * submitted} to a thread of the service, so reading the calendars doesn't hold
+ * up the command consumer. At most {@link #QUEUE_CAPACITY} queries wait for
+ * it, further ones are dropped.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class FreeBusyService {
+
+   private static final Logger log = LogManager
+         .getLogger(FreeBusyService.class);
+   /** The maximum number of users of a query */
+   private static final int MAX_USERS = 100;
+   /** The maximum number of days of a query */
+   private static final int MAX_DAYS = 366;
+   /** The maximum number of free slots returned */
+   private static final int MAX_SLOTS = 10;
+   /** The maximum number of queries waiting to be answered */
+   private static final int QUEUE_CAPACITY = 64;
+
+   /** Holds the calendars of the users */
+   private final CalendarStore store;
+   /** Holds the thread that answers the queries */
+   private final ThreadPoolExecutor pool;
+
+   /**
+    * Creates a new FreeBusyService that reads the calendars of the specified
+    * store.
+    *
+    * @param store
+    *           the store of the calendars
+    */
+   public FreeBusyService(CalendarStore store) {
+      this.store = store;
+      this.pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), r -> {
+               Thread t = new Thread(r, "FreeBusy");
+               t.setDaemon(true);
+               return t;
+            });
+   }
+
+   /**
+    * This method answers a {@link Command#FREE_BUSY} or
+    * {@link Command#FIND_SLOT} of a client on the thread of the service.
+    *
+    * @param client
+    *           the client that sent the query
+    * @param command
+    *           the query
+    */
+   public void submit(ClientThread client, ServerCommand command) {
+      FreeBusyQuery query = (FreeBusyQuery) command.getArgument();
+      try {
+         pool.execute(() -> {
+            try {
+               if (command.getCommand() == Command.FIND_SLOT) {
+                  client.send(new ServerCommand(Command.FREE_SLOTS,
+                        findSlots(query)));
+               } else {
+                  client.send(new ServerCommand(Command.BUSY_TIMES,
+                        freeBusy(query)));
+               }
+            } catch (IOException e) {
+               log.error("Failed to send free/busy times to " + client);
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         log.warn("Free/busy queue is full, dropping query of " + client);
+      }
+   }
+
+   /**
+    * Get the merged busy times of the users of the query.
+    *
+    * @param query
+    *           the query
+    * @return the busy times
+    */
+   public TimeRanges freeBusy(FreeBusyQuery query) {
+      List<String> unknown = new ArrayList<>();
+      long[] busy = busy(query, unknown);
+      return new TimeRanges(query, busy, unknown.toArray(new String[unknown
+            .size()]));
+   }
+
+   /**
+    * Get the earliest gaps in which all users of the query are free for its
+    * duration.
+    *
+    * @param query
+    *           the query
+    * @return the free gaps, each at least as long as the duration
+    */
+   public TimeRanges findSlots(FreeBusyQuery query) {
+      List<String> unknown = new ArrayList<>();
+      long[] busy = busy(query, unknown);
+      long start = seconds(query.getStart());
+      long end = end(query);
+      long duration = Math.max(1, query.getDuration().getSeconds());
+
+      LongList free = new LongList();
+      int slots = 0;
+      long from = start;
+      for (int i = 0; i <= busy.length && slots < MAX_SLOTS; i += 2) {
+         long to = i < busy.length ? busy[i] : end;
+         if (to - from >= duration) {
+            free.addRange(from, to);
+            slots++;
+         }
+         if (i < busy.length) {
+            from = busy[i + 1];
+         }
+      }
+      return new TimeRanges(query, free.toArray(),
+            unknown.toArray(new String[unknown.size()]));
+   }
+
+   /**
+    * Get the merged busy times of the known users of the query.
+    *
+    * @param query
+    *           the query
+    * @param unknown
+    *           receives the users that don't exist
+    * @return the busy times
+    */
+   private long[] busy(FreeBusyQuery query, List<String> unknown) {
+      Set<String> users = new LinkedHashSet<>();
+      for (String user : query.getUsers()) {
+         if (users.size() == MAX_USERS) {
+            break;
+         }
+         if (user != null && Authenticator.exists(user)) {
+            users.add(user);
+         } else {
+            unknown.add(user);
+         }
+      }
+      long start = seconds(query.getStart());
+      long end = end(query);
+      if (users.isEmpty() || end <= start) {
+         return new long[0];
+      }
+      return ForkJoinPool.commonPool().invoke(
+            new BusyTask(users.toArray(new String[users.size()]), 0, users
+                  .size(), start, end));
+   }
+
+   /** Get the end of the query, cut to {@link #MAX_DAYS} after its start */
+   private static long end(FreeBusyQuery query) {
+      return Math.min(seconds(query.getEnd()), seconds(query.getStart())
+            + MAX_DAYS * 86400L);
+   }
+
+   private static long seconds(LocalDateTime time) {
+      return time.toEpochSecond(ZoneOffset.UTC);
+   }
+
+   /**
+    * A task that gets the merged busy times of a part of the users.
+    */
+   private class BusyTask extends RecursiveTask<long[]> {
+
+      private static final long serialVersionUID = 1L;
+
+      private final String[] users;
+      private final int from;
+      private final int to;
+      private final long start;
+      private final long end;
+
+      private BusyTask(String[] users, int from, int to, long start, long end) {
+         this.users = users;
+         this.from = from;
+         this.to = to;
+         this.start = start;
+         this.end = end;
+      }
+
+      @Override
+      protected long[] compute() {
+         if (to - from == 1) {
+            try {
+               return store.busy(users[from], start, end);
+            } catch (IOException e) {
+               log.error("Couldn't read calendar of " + users[from], e);
+               return new long[0];
+            }
+         }
+         int middle = (from + to) >>> 1;
+         BusyTask left = new BusyTask(users, from, middle, start, end);
+         left.fork();
+         long[] right = new BusyTask(users, middle, to, start, end).compute();
+         return IntervalIndex.merge(left.join(), right);
+      }
+   }
+
+}
@@ -0,0 +1,418 @@
+package de.malbertz.calendar.server.core;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.concurrent.ThreadLocalRandom;
+
+import de.malbertz.calendar2.CalendarEntry;
+
+/**
+ * This class implements an interval tree of entries.
+ * <p>
+ * Every entry covers the time from its start to its end on its date, as
+ * seconds since the epoch. The intervals are half-open, so an entry that ends
+ * at 10:00 doesn't overlap one that starts at 10:00. The tree is a treap
+ * ordered by start and end, where every node also knows the latest end in its
+ * subtree. Finding the entries that overlap an interval takes
+ * O(log n + k) for k overlapping entries.
+ * <p>
+ * A recurring entry can't be put in the tree, as it may cover an endless
+ * number of intervals. Such series are kept in a list instead, and only their
+ * occurrences within the days of a query are computed when it is answered.
+ * <p>
+ * The index isn't thread safe, the owner has to synchronize.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class IntervalIndex {
+
+   /** The number of seconds of a day */
+   private static final long DAY = 86400;
+
+   /** The number of days the occurrences of a series are checked for */
+   private static final int CONFLICT_DAYS = 366;
+
+   /** Holds the root of the tree */
+   private Node root;
+   /** Holds the recurring entries */
+   private final List<CalendarEntry> series = new ArrayList<>();
+
+   /**
+    * This method adds an entry.
+    *
+    * @param entry
+    *           the entry to add
+    */
+   public void add(CalendarEntry entry) {
+      if (entry.getRecurrence() != null) {
+         series.add(entry);
+         return;
+      }
+      root = insert(root, start(entry), end(entry), entry);
+   }
+
+   /**
+    * This method removes an entry.
+    *
+    * @param entry
+    *           the entry to remove
+    */
+   public void remove(CalendarEntry entry) {
+      if (entry.getRecurrence() != null) {
+         series.remove(entry);
+         return;
+      }
+      root = delete(root, start(entry), end(entry), entry);
+   }
+
+   /**
+    * Get the entries that overlap the specified entry. Entries equal to the
+    * specified one are left out, so an entry doesn't conflict with itself.
+    * <p>
+    * The occurrences of a series are checked for the first
+    * {@link #CONFLICT_DAYS} days. A series is returned as a whole if one of
+    * its occurrences overlaps.
+    *
+    * @param entry
+    *           the entry to check
+    * @return the overlapping entries, ordered by their first overlap
+    */
+   public List<CalendarEntry> overlapping(CalendarEntry entry) {
+      Set<CalendarEntry> result = new LinkedHashSet<>();
+      for (CalendarEntry occurrence : entry.occurrences(entry.getDate(), entry
+            .getDate().plusDays(CONFLICT_DAYS - 1))) {
+         long start = start(occurrence);
+         long end = end(occurrence);
+         collect(root, start, end, result);
+         for (CalendarEntry other : series) {
+            if (other.occursOn(occurrence.getDate())
+                  && overlaps(other, occurrence)) {
+               result.add(other);
+            }
+         }
+      }
+      result.removeIf(entry::equals);
+      return new ArrayList<>(result);
+   }
+
+   /**
+    * Get the time covered by the entries between start and end, as sorted
+    * and merged pairs of start and end. Only the intervals of the tree and
+    * the occurrences of the series within the range are read.
+    *
+    * @param start
+    *           the start in seconds, like the intervals of the entries
+    * @param end
+    *           the end in seconds, exclusive
+    * @return the busy ranges, cut to start and end
+    */
+   public long[] busy(long start, long end) {
+      LongList ranges = new LongList();
+      busy(root, start, end, ranges);
+      if (series.isEmpty() || end <= start) {
+         return ranges.toArray();
+      }
+      // the occurrences of the series within the days of the range
+      List<long[]> occurrences = new ArrayList<>();
+      LocalDate from = LocalDate.ofEpochDay(Math.floorDiv(start, DAY));
+      LocalDate to = LocalDate.ofEpochDay(Math.floorDiv(end - 1, DAY));
+      for (CalendarEntry other : series) {
+         for (CalendarEntry occurrence : other.occurrences(from, to)) {
+            long s = Math.max(start, start(occurrence));
+            long e = Math.min(end, end(occurrence));
+            if (s < e) {
+               occurrences.add(new long[] { s, e });
+            }
+         }
+      }
+      occurrences.sort((a, b) -> Long.compare(a[0], b[0]));
+      LongList merged = new LongList();
+      for (long[] range : occurrences) {
+         merged.addRange(range[0], range[1]);
+      }
+      return merge(ranges.toArray(), merged.toArray());
+   }
+
+   /**
+    * Get the single entries that start on a range of days and match a
+    * predicate, ordered by start. The tree is only walked within the range and
+    * the walk stops as soon as enough entries are found.
+    *
+    * @param first
+    *           the first day, null for no limit
+    * @param last
+    *           the last day, inclusive, null for no limit
+    * @param filter
+    *           the predicate the entries have to match
+    * @param max
+    *           the maximum number of entries to return
+    * @return the matching entries
+    */
+   public List<CalendarEntry> find(LocalDate first, LocalDate last,
+         Predicate<CalendarEntry> filter, int max) {
+      List<CalendarEntry> result = new ArrayList<>();
+      if (max > 0) {
+         find(root, first == null ? Long.MIN_VALUE : first.toEpochDay() * DAY,
+               last == null ? Long.MAX_VALUE : (last.toEpochDay() + 1) * DAY,
+               filter, max, result);
+      }
+      return result;
+   }
+
+   /**
+    * Get the recurring entries. They are not part of the tree.
+    *
+    * @return an unmodifiable view of the recurring entries
+    */
+   public List<CalendarEntry> series() {
+      return Collections.unmodifiableList(series);
+   }
+
+   /**
+    * Merges two sorted arrays of merged ranges.
+    *
+    * @return the merged ranges
+    */
+   static long[] merge(long[] a, long[] b) {
+      LongList merged = new LongList();
+      int i = 0;
+      int j = 0;
+      while (i < a.length || j < b.length) {
+         if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+            merged.addRange(a[i], a[i + 1]);
+            i += 2;
+         } else {
+            merged.addRange(b[j], b[j + 1]);
+            j += 2;
+         }
+      }
+      return merged.toArray();
+   }
+
+   /** Do the times of two entries overlap, ignoring their dates? */
+   private static boolean overlaps(CalendarEntry a, CalendarEntry b) {
+      long aStart = a.getStartTime().toSecondOfDay();
+      long aEnd = Math.max(aStart, a.getEndTime().toSecondOfDay());
+      long bStart = b.getStartTime().toSecondOfDay();
+      long bEnd = Math.max(bStart, b.getEndTime().toSecondOfDay());
+      return aStart < bEnd && bStart < aEnd;
+   }
+
+   private static long start(CalendarEntry entry) {
+      return entry.getDate().toEpochDay() * DAY
+            + entry.getStartTime().toSecondOfDay();
+   }
+
+   private static long end(CalendarEntry entry) {
+      // an entry ending before it starts is treated as empty
+      return Math.max(start(entry), entry.getDate().toEpochDay() * DAY
+            + entry.getEndTime().toSecondOfDay());
+   }
+
+   /** Collects the entries of the subtree that overlap [start, end) */
+   private static void collect(Node node, long start, long end,
+         Collection<CalendarEntry> result) {
+      if (node == null || node.maxEnd <= start) {
+         return;
+      }
+      collect(node.left, start, end, result);
+      if (node.start < end) {
+         if (node.end > start) {
+            result.addAll(node.entries);
+         }
+         collect(node.right, start, end, result);
+      }
+   }
+
+   /**
+    * Adds the matching entries of the subtree starting in [start, end) in
+    * order.
+    *
+    * @return is the result full
+    */
+   private static boolean find(Node node, long start, long end,
+         Predicate<CalendarEntry> filter, int max, List<CalendarEntry> result) {
+      if (node == null) {
+         return false;
+      }
+      if (node.start >= start && find(node.left, start, end, filter, max,
+            result)) {
+         return true;
+      }
+      if (node.start >= start && node.start < end) {
+         for (CalendarEntry entry : node.entries) {
+            if (filter.test(entry)) {
+               result.add(entry);
+               if (result.size() == max) {
+                  return true;
+               }
+            }
+         }
+      }
+      return node.start < end
+            && find(node.right, start, end, filter, max, result);
+   }
+
+   /** Adds the intervals of the subtree in [start, end) in order */
+   private static void busy(Node node, long start, long end, LongList ranges) {
+      if (node == null || node.maxEnd <= start) {
+         return;
+      }
+      busy(node.left, start, end, ranges);
+      if (node.start < end) {
+         if (node.end > start && node.end > node.start) {
+            ranges.addRange(Math.max(start, node.start),
+                  Math.min(end, node.end));
+         }
+         busy(node.right, start, end, ranges);
+      }
+   }
+
+   private static int compare(Node node, long start, long end) {
+      int c = Long.compare(start, node.start);
+      return c != 0 ? c : Long.compare(end, node.end);
+   }
+
+   private static Node insert(Node node, long start, long end,
+         CalendarEntry entry) {
+      if (node == null) {
+         return new Node(start, end, entry);
+      }
+      int c = compare(node, start, end);
+      if (c == 0) {
+         node.entries.add(entry);
+         return node;
+      }
+      if (c < 0) {
+         node.left = insert(node.left, start, end, entry);
+         if (node.left.priority > node.priority) {
+            node = rotateRight(node);
+         }
+      } else {
+         node.right = insert(node.right, start, end, entry);
+         if (node.right.priority > node.priority) {
+            node = rotateLeft(node);
+         }
+      }
+      node.update();
+      return node;
+   }
+
+   private static Node delete(Node node, long start, long end,
+         CalendarEntry entry) {
+      if (node == null) {
+         return null;
+      }
+      int c = compare(node, start, end);
+      if (c < 0) {
+         node.left = delete(node.left, start, end, entry);
+      } else if (c > 0) {
+         node.right = delete(node.right, start, end, entry);
+      } else if (node.entries.remove(entry) && node.entries.isEmpty()) {
+         return merge(node.left, node.right);
+      }
+      node.update();
+      return node;
+   }
+
+   /** Merges two subtrees whose keys are all smaller in the left one */
+   private static Node merge(Node left, Node right) {
+      if (left == null) {
+         return right;
+      }
+      if (right == null) {
+         return left;
+      }
+      if (left.priority > right.priority) {
+         left.right = merge(left.right, right);
+         left.update();
+         return left;
+      }
+      right.left = merge(left, right.left);
+      right.update();
+      return right;
+   }
+
+   private static Node rotateRight(Node node) {
+      Node left = node.left;
+      node.left = left.right;
+      left.right = node;
+      node.update();
+      left.update();
+      return left;
+   }
+
+   private static Node rotateLeft(Node node) {
+      Node right = node.right;
+      node.right = right.left;
+      right.left = node;
+      node.update();
+      right.update();
+      return right;
+   }
+
+   /**
+    * A growing array of ranges that merges a range into the last one if they
+    * overlap. The ranges have to be added ordered by start.
+    */
+   static class LongList {
+      private long[] values = new long[16];
+      private int size;
+
+      void addRange(long start, long end) {
+         if (size > 0 && start <= values[size - 1]) {
+            values[size - 1] = Math.max(values[size - 1], end);
+            return;
+         }
+         if (size + 2 > values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+         }
+         values[size++] = start;
+         values[size++] = end;
+      }
+
+      long[] toArray() {
+         return Arrays.copyOf(values, size);
+      }
+   }
+
+   /**
+    * A node of the tree. It holds all entries with the same interval.
+    */
+   private static class Node {
+      private final long start;
+      private final long end;
+      private final int priority = ThreadLocalRandom.current().nextInt();
+      private final List<CalendarEntry> entries = new ArrayList<>(1);
+      /** Holds the latest end of this subtree */
+      private long maxEnd;
+      private Node left;
+      private Node right;
+
+      private Node(long start, long end, CalendarEntry entry) {
+         this.start = start;
+         this.end = end;
+         this.maxEnd = end;
+         entries.add(entry);
+      }
+
+      private void update() {
+         maxEnd = end;
+         if (left != null) {
+            maxEnd = Math.max(maxEnd, left.maxEnd);
+         }
+         if (right != null) {
+            maxEnd = Math.max(maxEnd, right.maxEnd);
+         }
+      }
+   }
+
+}
@@ -0,0 +1,312 @@
+package de.malbertz.calendar.server.core;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.malbertz.calendar.server.authentication.Authenticator;
+import de.malbertz.calendar.server.core.TimingWheel.Timer;
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.ServerCommand;
+import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.util.EntryCodec.Snapshot;
+
+/**
+ * This class implements the scheduler of the reminders of all users.
+ * <p>
+ * Only the reminders due within the next {@link #HORIZON} are held in memory,
+ * as timers of a {@link TimingWheel} that ticks every second. Every
+ * {@link #LOAD_INTERVAL} the calendars of all users are read to load the
+ * reminders that moved into the horizon since, straight from the datafiles
+ * of the calendars that aren't in use, without building their indexes. The
+ * {@link #added(String, CalendarEntry) added} and
+ * {@link #removed(String, CalendarEntry) removed} entries of the calendars in
+ * use are scheduled and cancelled as they change, which takes O(1) per
+ * reminder.
+ * <p>
+ * A reminder that is due is pushed as {@link Command#REMINDER} to all
+ * connected sessions of its user. Entries are in the time zone of the server.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class ReminderScheduler implements Runnable {
+
+   private static final Logger log = LogManager
+         .getLogger(ReminderScheduler.class);
+   /** How far ahead the reminders are held in memory */
+   private static final Duration HORIZON = Duration.ofHours(6);
+   /** How often the reminders of the horizon are loaded */
+   private static final Duration LOAD_INTERVAL = Duration.ofHours(1);
+   /** The number of slots of the levels of the wheel: seconds, minutes, hours */
+   private static final int[] WHEEL = { 60, 60, 24 };
+
+   /** Holds the server whose sessions receive the reminders */
+   private final Server server;
+   /** Holds the time zone of the entries */
+   private final ZoneId zone = ZoneId.systemDefault();
+   /** Holds the reminders due within the horizon, in seconds */
+   private final TimingWheel<Reminder> wheel;
+   /** Holds the timers of every entry of every user */
+   private final Map<String, Map<CalendarEntry, List<Timer<Reminder>>>> timers = new HashMap<>();
+   /** Holds the second up to which the reminders are loaded, exclusive */
+   private long loadedUntil;
+   /** Determines whether or not the scheduler is running */
+   private volatile boolean running;
+
+   /**
+    * Creates a new scheduler for the users of the specified server.
+    *
+    * @param server
+    *           the server whose sessions receive the reminders
+    */
+   public ReminderScheduler(Server server) {
+      this.server = server;
+      long now = now();
+      this.wheel = new TimingWheel<>(now, WHEEL);
+      this.loadedUntil = now;
+   }
+
+   /**
+    * This method gets called if the thread gets started.
+    * <p>
+    * It loads the reminders of the horizon and then advances the wheel every
+    * second until the scheduler is {@link #destroy() destroyed}.
+    */
+   @Override
+   public void run() {
+      running = true;
+      long nextLoad = now();
+      while (running) {
+         long now = now();
+         if (now >= nextLoad) {
+            load(now + HORIZON.getSeconds());
+            nextLoad = now + LOAD_INTERVAL.getSeconds();
+         }
+         List<Reminder> due;
+         synchronized (this) {
+            due = wheel.advance(now);
+            for (Reminder reminder : due) {
+               forget(reminder);
+            }
+         }
+         for (Reminder reminder : due) {
+            deliver(reminder);
+         }
+         try {
+            Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+         } catch (InterruptedException e) {
+            log.warn("ReminderScheduler was interrupted!", e);
+         }
+      }
+      log.info("ReminderScheduler closed.");
+   }
+
+   /**
+    * Stops the scheduler after its current tick.
+    */
+   public void destroy() {
+      running = false;
+   }
+
+   /**
+    * Schedules the reminders of an entry that was added to a calendar, if
+    * they are due within the loaded horizon. Later reminders are loaded when
+    * they move into the horizon.
+    *
+    * @param userName
+    *           the user whose calendar changed
+    * @param entry
+    *           the added entry
+    */
+   public synchronized void added(String userName, CalendarEntry entry) {
+      if (entry.getReminder() != null) {
+         schedule(userName, entry, wheel.getCurrent(), loadedUntil);
+      }
+   }
+
+   /**
+    * Cancels the reminders of an entry that was removed from a calendar.
+    *
+    * @param userName
+    *           the user whose calendar changed
+    * @param entry
+    *           the removed entry
+    */
+   public synchronized void removed(String userName, CalendarEntry entry) {
+      Map<CalendarEntry, List<Timer<Reminder>>> entries = timers
+            .get(userName);
+      if (entries == null) {
+         return;
+      }
+      List<Timer<Reminder>> list = entries.remove(entry);
+      if (list != null) {
+         for (Timer<Reminder> timer : list) {
+            wheel.cancel(timer);
+         }
+         if (entries.isEmpty()) {
+            timers.remove(userName);
+         }
+      }
+   }
+
+   /**
+    * Loads the reminders of all users due between the loaded horizon and the
+    * specified second.
+    */
+   private void load(long until) {
+      long from;
+      synchronized (this) {
+         from = loadedUntil;
+         if (until <= from) {
+            return;
+         }
+         // entries added from now on are scheduled up to the new horizon
+         loadedUntil = until;
+      }
+      int loaded = 0;
+      for (String userName : Authenticator.getAll()) {
+         try {
+            Snapshot saved = UserCalendar.read(userName);
+            synchronized (this) {
+               List<CalendarEntry> entries = entries(userName, saved);
+               for (CalendarEntry entry : entries) {
+                  if (entry.getReminder() != null) {
+                     loaded += schedule(userName, entry, from, until);
+                  }
+               }
+            }
+         } catch (IOException e) {
+            log.error("Couldn't read calendar of " + userName, e);
+         }
+      }
+      log.debug("Loaded " + loaded + " reminders");
+   }
+
+   /**
+    * Get the current entries of a user while the scheduler is locked, so
+    * every later change of them is {@link #added(String, CalendarEntry)
+    * added} or {@link #removed(String, CalendarEntry) removed} after they are
+    * scheduled.
+    * <p>
+    * The entries of a calendar in use are taken from it. Otherwise the entries
+    * read from the datafile before are current, unless the calendar was
+    * changed and saved since, which its version tells.
+    *
+    * @param userName
+    *           the name of the user
+    * @param saved
+    *           the entries read from the datafile of the user
+    * @return the entries
+    */
+   private List<CalendarEntry> entries(String userName, Snapshot saved)
+         throws IOException {
+      UserCalendar calendar = server.getCalendarStore().get(userName);
+      if (calendar != null) {
+         return Arrays.asList(calendar.toArray());
+      }
+      if (UserCalendar.readVersion(userName) != saved.getVersion()) {
+         saved = UserCalendar.read(userName);
+      }
+      return saved.getEntries();
+   }
+
+   /**
+    * Schedules the reminders of an entry due in [from, until) that aren't
+    * scheduled yet.
+    *
+    * @return the number of scheduled reminders
+    */
+   private int schedule(String userName, CalendarEntry entry, long from,
+         long until) {
+      Duration before = entry.getReminder();
+      // the days an occurrence reminded of within the range starts on
+      LocalDate first = date(from).plus(before).toLocalDate();
+      LocalDate last = date(until).plus(before).toLocalDate();
+      int scheduled = 0;
+      for (CalendarEntry occurrence : entry.occurrences(first, last)) {
+         long due = occurrence.getDate().atTime(occurrence.getStartTime())
+               .minus(before).atZone(zone).toEpochSecond();
+         if (due < from || due >= until) {
+            continue;
+         }
+         List<Timer<Reminder>> list = timers.computeIfAbsent(userName,
+               u -> new HashMap<>()).computeIfAbsent(entry,
+               e -> new ArrayList<>(1));
+         if (list.stream().noneMatch(timer -> timer.getDeadline() == due)) {
+            list.add(wheel.schedule(due, new Reminder(userName, entry,
+                  occurrence)));
+            scheduled++;
+         }
+      }
+      return scheduled;
+   }
+
+   /** Drops the timer of a reminder that is due. */
+   private void forget(Reminder reminder) {
+      Map<CalendarEntry, List<Timer<Reminder>>> entries = timers
+            .get(reminder.userName);
+      if (entries == null) {
+         return;
+      }
+      List<Timer<Reminder>> list = entries.get(reminder.entry);
+      if (list != null) {
+         list.removeIf(timer -> !timer.isPending());
+         if (list.isEmpty()) {
+            entries.remove(reminder.entry);
+            if (entries.isEmpty()) {
+               timers.remove(reminder.userName);
+            }
+         }
+      }
+   }
+
+   /** Pushes a reminder to the sessions of its user. */
+   private void deliver(Reminder reminder) {
+      ServerCommand push = new ServerCommand(Command.REMINDER,
+            reminder.occurrence, null);
+      for (ClientThread session : server.getSessions(reminder.userName)) {
+         try {
+            session.send(push);
+         } catch (IOException e) {
+            log.info("Failed to push reminder to: " + session);
+         }
+      }
+   }
+
+   private LocalDateTime date(long second) {
+      return LocalDateTime.ofInstant(Instant.ofEpochSecond(second), zone);
+   }
+
+   private static long now() {
+      return System.currentTimeMillis() / 1000;
+   }
+
+   /**
+    * A reminder of an occurrence of an entry.
+    */
+   private static class Reminder {
+      private final String userName;
+      private final CalendarEntry entry;
+      private final CalendarEntry occurrence;
+
+      private Reminder(String userName, CalendarEntry entry,
+            CalendarEntry occurrence) {
+         this.userName = userName;
+         this.entry = entry;
+         this.occurrence = occurrence;
+      }
+   }
+
+}
@@ -0,0 +1,205 @@
+package de.malbertz.calendar.server.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.SearchQuery;
+import de.malbertz.calendar2.SearchResult;
+
+/**
+ * This class implements an inverted index of the words in the names and
+ * descriptions of entries.
+ * <p>
+ * Every word points to the entries that contain it and how well it matches
+ * them: a word in the name counts {@link #NAME_WEIGHT} times as much as a word
+ * that is only in the description. The words are sorted, so all words
+ * starting with a prefix are found with one range lookup. Entries are added
+ * and removed one by one as the calendar changes.
+ * <p>
+ * The index isn't thread safe, the owner has to synchronize.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SearchIndex {
+
+   /** How much more a word in the name counts than one in the description */
+   private static final int NAME_WEIGHT = 3;
+   /** How much more a whole word counts than a prefix of it */
+   private static final int EXACT_WEIGHT = 2;
+   /** The maximum number of hits returned at once */
+   private static final int MAX_LIMIT = 100;
+   /** The order of hits with the same rank, latest first */
+   private static final Comparator<CalendarEntry> RECENT_FIRST = Comparator
+         .comparing(CalendarEntry::getDate)
+         .thenComparing(CalendarEntry::getStartTime).reversed();
+
+   /** Holds the postings of the entries by word */
+   private final TreeMap<String, Map<CalendarEntry, Posting>> words = new TreeMap<>();
+
+   /**
+    * This method adds the words of an entry.
+    *
+    * @param entry
+    *           the entry to add
+    */
+   public void add(CalendarEntry entry) {
+      for (Map.Entry<String, Integer> word : score(entry).entrySet()) {
+         Posting posting = words.computeIfAbsent(word.getKey(),
+               w -> new HashMap<>(4)).computeIfAbsent(entry,
+               e -> new Posting(word.getValue()));
+         posting.copies++;
+      }
+   }
+
+   /**
+    * This method removes the words of an entry.
+    *
+    * @param entry
+    *           the entry to remove
+    */
+   public void remove(CalendarEntry entry) {
+      for (String word : score(entry).keySet()) {
+         Map<CalendarEntry, Posting> postings = words.get(word);
+         if (postings == null) {
+            continue;
+         }
+         Posting posting = postings.get(entry);
+         if (posting != null && --posting.copies == 0) {
+            postings.remove(entry);
+            if (postings.isEmpty()) {
+               words.remove(word);
+            }
+         }
+      }
+   }
+
+   /**
+    * Searches the entries. Every word of the query has to be the start of a
+    * word of an entry. The hits are ranked by how well the words match and
+    * then by date, latest first.
+    *
+    * @param query
+    *           the query
+    * @return the requested page of hits
+    */
+   public SearchResult search(SearchQuery query) {
+      List<String> terms = tokenize(query.getText());
+      if (terms.isEmpty()) {
+         return new SearchResult(query, 0, new CalendarEntry[0]);
+      }
+      Map<CalendarEntry, Integer> ranks = null;
+      for (String term : terms) {
+         Map<CalendarEntry, Integer> matches = match(term);
+         if (ranks == null) {
+            ranks = matches;
+         } else {
+            // keep only the entries that match all terms
+            Map<CalendarEntry, Integer> both = new HashMap<>();
+            for (Map.Entry<CalendarEntry, Integer> rank : ranks.entrySet()) {
+               Integer other = matches.get(rank.getKey());
+               if (other != null) {
+                  both.put(rank.getKey(), rank.getValue() + other);
+               }
+            }
+            ranks = both;
+         }
+         if (ranks.isEmpty()) {
+            break;
+         }
+      }
+      List<Map.Entry<CalendarEntry, Integer>> hits = new ArrayList<>(
+            ranks.entrySet());
+      hits.sort(Map.Entry.<CalendarEntry, Integer> comparingByValue()
+            .reversed().thenComparing(Map.Entry.comparingByKey(RECENT_FIRST)));
+
+      int from = Math.max(0, Math.min(query.getOffset(), hits.size()));
+      int to = Math.min(hits.size(),
+            from + Math.max(0, Math.min(query.getLimit(), MAX_LIMIT)));
+      CalendarEntry[] page = new CalendarEntry[to - from];
+      for (int i = from; i < to; i++) {
+         page[i - from] = hits.get(i).getKey();
+      }
+      return new SearchResult(query, hits.size(), page);
+   }
+
+   /**
+    * Get the entries with a word starting with the specified term and the
+    * best rank of such a word per entry.
+    */
+   private Map<CalendarEntry, Integer> match(String term) {
+      Map<CalendarEntry, Integer> matches = new HashMap<>();
+      for (Map.Entry<String, Map<CalendarEntry, Posting>> word : words
+            .subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+         int weight = word.getKey().length() == term.length() ? EXACT_WEIGHT
+               : 1;
+         for (Map.Entry<CalendarEntry, Posting> posting : word.getValue()
+               .entrySet()) {
+            matches.merge(posting.getKey(), posting.getValue().score * weight,
+                  Math::max);
+         }
+      }
+      return matches;
+   }
+
+   /**
+    * Get the words of an entry and their weight. A repeated word doesn't
+    * count more, so entries can't rank higher by repeating words.
+    */
+   private static Map<String, Integer> score(CalendarEntry entry) {
+      Map<String, Integer> scores = new HashMap<>();
+      for (String word : tokenize(entry.getName())) {
+         scores.put(word, NAME_WEIGHT);
+      }
+      for (String word : tokenize(entry.getDescription())) {
+         scores.putIfAbsent(word, 1);
+      }
+      return scores;
+   }
+
+   /**
+    * Splits a text into lower case words of letters and digits.
+    *
+    * @param text
+    *           the text to split, may be null
+    * @return the words
+    */
+   static List<String> tokenize(String text) {
+      List<String> tokens = new ArrayList<>();
+      if (text == null) {
+         return tokens;
+      }
+      int start = -1;
+      for (int i = 0; i <= text.length(); i++) {
+         boolean letter = i < text.length()
+               && Character.isLetterOrDigit(text.charAt(i));
+         if (letter && start < 0) {
+            start = i;
+         } else if (!letter && start >= 0) {
+            tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            start = -1;
+         }
+      }
+      return tokens;
+   }
+
+   /**
+    * The rank of a word for an entry, shared by all equal copies of the
+    * entry.
+    */
+   private static class Posting {
+      private final int score;
+      private int copies;
+
+      private Posting(int score) {
+         this.score = score;
+      }
+   }
+
+}
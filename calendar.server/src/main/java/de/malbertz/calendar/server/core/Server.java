@@ -2,14 +2,18 @@ package de.malbertz.calendar.server.core;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.Enumeration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.Vector;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -17,6 +21,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.malbertz.calendar.server.authentication.Authenticator;
+import de.malbertz.calendar.server.authentication.LoginService;
+import de.malbertz.calendar.server.authentication.SessionTokens;
 import de.malbertz.calendar2.ServerCommand;
 
 /**
@@ -28,8 +34,12 @@ import de.malbertz.calendar2.ServerCommand;
  * If a new client connected a new {@link ClientThread} will be created and
  * started.
  * <p>
- * It implements the {@link Observer} interface. If a {@link ClientThread} ends
- * it will notify the server and the client will be removed.
+ * It implements the {@link Observer} interface. If a {@link ClientThread} is
+ * authenticated or ends it will notify the server and the
+ * {@link SessionRegistry} will be updated.
+ * <p>
+ * While it is running a {@link ReminderScheduler} pushes the due reminders to
+ * the connected users.
  * 
  * @author Michael Albertz
  *
@@ -39,7 +49,15 @@ public class Server implements Observer {
    private static Logger log = LogManager.getLogger(Server.class);
 
    /** Holds all active ClientThreads. */
-   private Vector<ClientThread> clients;
+   private SessionRegistry clients;
+   /** Holds the login service shared by all ClientThreads. */
+   private LoginService loginService;
+   /** Holds the issued session tokens. */
+   private SessionTokens sessionTokens;
+   /** Holds the calendars of the authenticated users. */
+   private CalendarStore calendarStore;
+   /** Holds the scheduler of the reminders. */
+   private ReminderScheduler reminders;
    /** Holds received commands. */
    private BlockingQueue<SimpleEntry<ClientThread, ServerCommand>> commandQueue;
    /** Holds the ServerSocket. */
@@ -56,7 +74,10 @@ public class Server implements Observer {
     * and its not listening for new connections.
     */
    public Server() {
-      this.clients = new Vector<ClientThread>();
+      this.clients = new SessionRegistry();
+      this.loginService = new LoginService();
+      this.sessionTokens = new SessionTokens();
+      this.calendarStore = new CalendarStore();
       this.commandQueue = new LinkedBlockingQueue<SimpleEntry<ClientThread, ServerCommand>>();
       this.port = 27999;
       this.listening = false;
@@ -75,6 +96,29 @@ public class Server implements Observer {
       return Authenticator.add(name, password);
    }
 
+   /**
+    * Create new users from a file. Each line of the file holds the name and
+    * the password of one user separated by whitespace.
+    * 
+    * @param file
+    *           the file to import from
+    * @return the number of users that were created
+    * @throws IOException
+    *            if the file couldn't be read
+    */
+   public int importUsers(File file) throws IOException {
+      Map<String, String> users = new LinkedHashMap<String, String>();
+      for (String line : Files.readAllLines(file.toPath())) {
+         String[] user = line.trim().split("\\s+");
+         if (user.length == 2) {
+            users.putIfAbsent(user[0], user[1]);
+         } else if (!line.trim().isEmpty()) {
+            log.warn("Skipping invalid line: " + line);
+         }
+      }
+      return Authenticator.addAll(users);
+   }
+
    /**
     * Remove an existing user by a specified name.
     * 
@@ -83,26 +127,37 @@ public class Server implements Observer {
     * @return was the operation successful
     */
    public boolean removeUser(String name) {
-      return Authenticator.remove(name);
+      // invalidate after removing, so a verification still running drops
+      // its result
+      boolean removed = Authenticator.remove(name);
+      loginService.invalidate(name);
+      sessionTokens.invalidate(name);
+      return removed;
    }
 
    /**
-    * Kicks a connected user by a specified name from the server.
+    * Kicks all sessions of a connected user by a specified name or remote
+    * address from the server.
     * 
     * @param name
-    *           the name of the user to kick
+    *           the name or the remote address of the user to kick
     * @return was the opperation successful
     */
    public boolean kickUser(String name) {
-      for (ClientThread client : clients) {
-         if (client.getName() != null && (client.getName().equals(name))) {
-            client.stopClient();
-            log.info("Kicked " + client);
-            return true;
-         }
+      Set<ClientThread> sessions = clients.getByName(name);
+      if (sessions.isEmpty()) {
+         sessions = clients.getByAddress(name);
+      }
+      boolean kicked = false;
+      for (ClientThread client : sessions) {
+         client.stopClient();
+         log.info("Kicked " + client);
+         kicked = true;
       }
-      log.debug("Failed to kick " + name);
-      return false;
+      if (!kicked) {
+         log.debug("Failed to kick " + name);
+      }
+      return kicked;
    }
 
    /**
@@ -134,6 +189,10 @@ public class Server implements Observer {
       if (!listening) {
          serverThread = new ServerThread();
          serverThread.start();
+         reminders = new ReminderScheduler(this);
+         Thread reminderThread = new Thread(reminders);
+         reminderThread.setDaemon(true);
+         reminderThread.start();
          cleanData();
          listening = true;
       }
@@ -146,11 +205,11 @@ public class Server implements Observer {
    public void stopServer() {
       if (listening) {
          serverThread.stopServerThread();
-         Enumeration<ClientThread> e = clients.elements();
-         while (e.hasMoreElements()) {
-            ClientThread ct = (ClientThread) e.nextElement();
+         reminders.destroy();
+         for (ClientThread ct : clients.getAll()) {
             ct.stopClient();
          }
+         Authenticator.flush();
          listening = false;
       }
    }
@@ -158,13 +217,18 @@ public class Server implements Observer {
    /**
     * This method will be called if Observables notify the Observer.
     * <p>
-    * This happens when a client thread ends. The server will then remove the
-    * client from the client list.
+    * This happens when a client thread got authenticated or ends. The server
+    * will then register the client by its name or remove it from the
+    * registry.
     */
    @Override
    public void update(Observable o, Object arg) {
-      clients.removeElement(o);
+      if (arg == ClientThread.ClientThreadState.AUTHENTICATED) {
+         clients.authenticated((ClientThread) o);
+         return;
+      }
       if (o instanceof ClientThread) {
+         clients.remove((ClientThread) o);
          log.info("Client(" + ((ClientThread) o).getIdentification()
                + ") disconnected");
       } else {
@@ -172,8 +236,35 @@ public class Server implements Observer {
       }
    }
 
-   public Vector<ClientThread> getClients() {
-      return clients;
+   public Collection<ClientThread> getClients() {
+      return clients.getAll();
+   }
+
+   /**
+    * Get the authenticated sessions of a user.
+    * 
+    * @param name
+    *           the name of the user
+    * @return the sessions, an empty set if the user isn't connected
+    */
+   public Set<ClientThread> getSessions(String name) {
+      return clients.getByName(name);
+   }
+
+   public LoginService getLoginService() {
+      return loginService;
+   }
+
+   public SessionTokens getSessionTokens() {
+      return sessionTokens;
+   }
+
+   public CalendarStore getCalendarStore() {
+      return calendarStore;
+   }
+
+   public ReminderScheduler getReminders() {
+      return reminders;
    }
 
    public int getPort() {
@@ -218,7 +309,7 @@ public class Server implements Observer {
       @Override
       public void run() {
          listen = true;
-         commandConsumer = new CommandConsumer(commandQueue);
+         commandConsumer = new CommandConsumer(commandQueue, Server.this);
          new Thread(commandConsumer).start();
          try {
             log.info("Starting ServerSocket on port: " + Server.this.port
@@ -232,10 +323,11 @@ public class Server implements Observer {
                log.info("New incoming connection");
                try {
                   log.debug("Creating new ClientThread ...");
-                  ClientThread client = new ClientThread(socket, commandQueue);
+                  ClientThread client = new ClientThread(socket, commandQueue,
+                        Server.this);
                   log.debug("Successfully created ClientThread: " + client);
                   client.addObserver(Server.this);
-                  Server.this.clients.addElement(client);
+                  Server.this.clients.add(client);
                   log.debug("Creating thread for: " + client + " ...");
                   Thread t = new Thread(client);
                   log.debug("Successfully created thread for: " + client);
@@ -0,0 +1,138 @@
+package de.malbertz.calendar.server.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class implements a registry of the {@link ClientThread}s connected to
+ * the server.
+ * <p>
+ * Sessions are indexed by the remote address as soon as they connect and by
+ * the user name once they are authenticated. A user or an address may have
+ * several sessions at the same time.
+ * <p>
+ * All methods are thread safe and never lock the whole registry. Iterating
+ * over {@link #getAll()} is weakly consistent and doesn't block sessions that
+ * connect or disconnect meanwhile.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SessionRegistry {
+
+   /** Holds all registered sessions */
+   private final Set<ClientThread> sessions = ConcurrentHashMap.newKeySet();
+   /** Holds the authenticated sessions by user name */
+   private final ConcurrentMap<String, Set<ClientThread>> byName = new ConcurrentHashMap<>();
+   /** Holds the sessions by remote address */
+   private final ConcurrentMap<String, Set<ClientThread>> byAddress = new ConcurrentHashMap<>();
+
+   /**
+    * Registers a newly connected session by its remote address.
+    *
+    * @param client
+    *           the session to register
+    */
+   public void add(ClientThread client) {
+      sessions.add(client);
+      put(byAddress, client.getAddress(), client);
+   }
+
+   /**
+    * Registers an authenticated session by its user name.
+    *
+    * @param client
+    *           the authenticated session
+    */
+   public void authenticated(ClientThread client) {
+      if (sessions.contains(client) && client.getName() != null) {
+         put(byName, client.getName(), client);
+      }
+   }
+
+   /**
+    * Removes a session from the registry.
+    *
+    * @param client
+    *           the session to remove
+    * @return was the session registered
+    */
+   public boolean remove(ClientThread client) {
+      if (!sessions.remove(client)) {
+         return false;
+      }
+      take(byAddress, client.getAddress(), client);
+      if (client.getName() != null) {
+         take(byName, client.getName(), client);
+      }
+      return true;
+   }
+
+   /**
+    * Get the authenticated sessions of a user.
+    *
+    * @param name
+    *           the name of the user
+    * @return the sessions, an empty set if there are none
+    */
+   public Set<ClientThread> getByName(String name) {
+      return view(byName.get(name));
+   }
+
+   /**
+    * Get the sessions connected from a remote address.
+    *
+    * @param address
+    *           the remote host address
+    * @return the sessions, an empty set if there are none
+    */
+   public Set<ClientThread> getByAddress(String address) {
+      return view(byAddress.get(address));
+   }
+
+   /**
+    * Get all registered sessions.
+    *
+    * @return a weakly consistent, unmodifiable view of all sessions
+    */
+   public Collection<ClientThread> getAll() {
+      return Collections.unmodifiableSet(sessions);
+   }
+
+   /**
+    * Get the number of registered sessions.
+    *
+    * @return the number of sessions
+    */
+   public int size() {
+      return sessions.size();
+   }
+
+   private static void put(ConcurrentMap<String, Set<ClientThread>> map,
+         String key, ClientThread client) {
+      map.compute(key, (k, set) -> {
+         if (set == null) {
+            set = ConcurrentHashMap.newKeySet();
+         }
+         set.add(client);
+         return set;
+      });
+   }
+
+   private static void take(ConcurrentMap<String, Set<ClientThread>> map,
+         String key, ClientThread client) {
+      map.computeIfPresent(key, (k, set) -> {
+         set.remove(client);
+         return set.isEmpty() ? null : set;
+      });
+   }
+
+   private static Set<ClientThread> view(Set<ClientThread> set) {
+      return set == null ? Collections.emptySet() : Collections
+            .unmodifiableSet(set);
+   }
+
+}
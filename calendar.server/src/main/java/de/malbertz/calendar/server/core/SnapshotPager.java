@@ -0,0 +1,72 @@
+package de.malbertz.calendar.server.core;
+
+import java.io.IOException;
+
+import de.malbertz.calendar2.SnapshotCursor;
+import de.malbertz.calendar2.SnapshotPage;
+
+/**
+ * This class implements the download of all entries of a calendar by one
+ * client, in {@link SnapshotPage}s of {@link #PAGE_SIZE} entries.
+ * <p>
+ * When a download starts the {@link EncodedSnapshot} of the current version is
+ * pinned, so the following pages belong to the same version even if the
+ * calendar changes meanwhile. A cursor of another connection is continued if
+ * the calendar is still at its version, otherwise the download starts over.
+ * <p>
+ * The pager isn't thread safe, it is only used by the command consumer.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SnapshotPager {
+
+   /** The number of entries of a page */
+   static final int PAGE_SIZE = 512;
+
+   /** Holds the calendar to download */
+   private final UserCalendar calendar;
+   /** Holds the pinned snapshot, null if no download is running */
+   private EncodedSnapshot snapshot;
+
+   /**
+    * Creates a new pager for the specified calendar.
+    *
+    * @param calendar
+    *           the calendar to download
+    */
+   public SnapshotPager(UserCalendar calendar) {
+      this.calendar = calendar;
+   }
+
+   /**
+    * Get the page at the specified cursor.
+    *
+    * @param cursor
+    *           the cursor of the page, null for the first page
+    * @return the page
+    * @throws IOException
+    *            if an entry can't be encoded
+    */
+   public SnapshotPage page(SnapshotCursor cursor) throws IOException {
+      if (cursor == null || snapshot == null
+            || cursor.getVersion() != snapshot.getVersion()) {
+         // the order of the entries only changes with the version, so a
+         // cursor of the current version can be continued
+         snapshot = calendar.snapshot();
+      }
+      SnapshotPage page;
+      try {
+         page = snapshot.page(cursor != null
+               && cursor.getVersion() == snapshot.getVersion() ? cursor
+               .getOffset() : 0);
+      } catch (IllegalArgumentException e) {
+         page = snapshot.page(0);
+      }
+      if (page.isLast()) {
+         snapshot = null;
+      }
+      return page;
+   }
+
+}
@@ -0,0 +1,222 @@
+package de.malbertz.calendar.server.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements a hierarchical timing wheel.
+ * <p>
+ * Time is counted in ticks. Every level of the wheel is a ring of slots, and
+ * a slot of a level covers as many ticks as the whole level below it, like
+ * the hands of a clock. A timer is put in the slot of the lowest level whose
+ * range reaches its deadline. When the wheel reaches a slot of a higher level
+ * its timers are moved down to the levels below, and the timers of the slot
+ * of the lowest level expire.
+ * <p>
+ * Every slot is a doubly linked list, so scheduling and cancelling a timer
+ * take O(1), no matter how many timers are waiting. Timers further away than
+ * the range of the wheel are kept in the last slot of the highest level and
+ * moved again when it is reached.
+ * <p>
+ * The wheel isn't thread safe, the owner has to synchronize.
+ *
+ * @author Michael Albertz
+ *
+ * @param <T>
+ *           the type of the values of the timers
+ */
+public class TimingWheel<T> {
+
+   /** Holds the slots by level */
+   private final Timer<T>[][] levels;
+   /** Holds the number of ticks a slot covers by level */
+   private final long[] units;
+   /** Holds the current tick */
+   private long current;
+
+   /**
+    * Creates a new wheel.
+    *
+    * @param start
+    *           the current tick
+    * @param sizes
+    *           the number of slots of every level, starting with the lowest
+    */
+   @SuppressWarnings("unchecked")
+   public TimingWheel(long start, int... sizes) {
+      if (sizes.length == 0) {
+         throw new IllegalArgumentException("No levels");
+      }
+      this.current = start;
+      this.levels = (Timer<T>[][]) new Timer<?>[sizes.length][];
+      this.units = new long[sizes.length];
+      long unit = 1;
+      for (int level = 0; level < sizes.length; level++) {
+         if (sizes[level] < 2) {
+            throw new IllegalArgumentException("Invalid size: " + sizes[level]);
+         }
+         units[level] = unit;
+         levels[level] = (Timer<T>[]) new Timer<?>[sizes[level]];
+         for (int slot = 0; slot < sizes[level]; slot++) {
+            // every slot starts with an empty list
+            Timer<T> head = new Timer<>(0, null);
+            head.previous = head;
+            head.next = head;
+            levels[level][slot] = head;
+         }
+         unit *= sizes[level];
+      }
+   }
+
+   /**
+    * Schedules a value to expire at the specified tick. A deadline that has
+    * passed expires with the next tick.
+    *
+    * @param deadline
+    *           the tick the value expires at
+    * @param value
+    *           the value
+    * @return the timer, to cancel it
+    */
+   public Timer<T> schedule(long deadline, T value) {
+      Timer<T> timer = new Timer<>(deadline, value);
+      place(timer, 1);
+      return timer;
+   }
+
+   /**
+    * Cancels a timer. Cancelling a timer that expired or was cancelled does
+    * nothing.
+    *
+    * @param timer
+    *           the timer to cancel
+    */
+   public void cancel(Timer<T> timer) {
+      timer.unlink();
+   }
+
+   /**
+    * Advances the wheel to the specified tick.
+    *
+    * @param tick
+    *           the new current tick
+    * @return the values of the timers that expired, in order of their
+    *         deadline
+    */
+   public List<T> advance(long tick) {
+      List<T> expired = new ArrayList<>();
+      while (current < tick) {
+         current++;
+         // move the timers of the reached slots down, highest level first
+         for (int level = levels.length - 1; level > 0; level--) {
+            if (current % units[level] == 0) {
+               Timer<T> head = slot(level, current);
+               while (head.next != head) {
+                  Timer<T> timer = head.next;
+                  timer.unlink();
+                  // a timer due now goes to the slot that expires next
+                  place(timer, 0);
+               }
+            }
+         }
+         Timer<T> head = slot(0, current);
+         for (Timer<T> timer = head.next; timer != head;) {
+            Timer<T> next = timer.next;
+            if (timer.deadline <= current) {
+               timer.unlink();
+               expired.add(timer.value);
+            }
+            timer = next;
+         }
+      }
+      return expired;
+   }
+
+   /**
+    * Get the current tick.
+    *
+    * @return the current tick
+    */
+   public long getCurrent() {
+      return current;
+   }
+
+   /**
+    * Puts a timer in the slot of the lowest level that reaches it, at least
+    * the specified number of ticks ahead.
+    */
+   private void place(Timer<T> timer, long min) {
+      long delay = Math.max(min, timer.deadline - current);
+      int top = levels.length - 1;
+      for (int level = 0; level < top; level++) {
+         if (delay < units[level + 1]) {
+            slot(level, current + delay).append(timer);
+            return;
+         }
+      }
+      long range = units[top] * levels[top].length;
+      slot(top, current + Math.min(delay, range - units[top])).append(timer);
+   }
+
+   /** Get the slot of a level that covers the specified tick. */
+   private Timer<T> slot(int level, long tick) {
+      Timer<T>[] slots = levels[level];
+      return slots[Math.floorMod(tick / units[level], slots.length)];
+   }
+
+   /**
+    * A scheduled value. Timers are the nodes of the lists of the slots, the
+    * head of a list is a timer without a value.
+    *
+    * @author Michael Albertz
+    *
+    * @param <T>
+    *           the type of the value
+    */
+   public static class Timer<T> {
+      private final long deadline;
+      private final T value;
+      private Timer<T> previous;
+      private Timer<T> next;
+
+      private Timer(long deadline, T value) {
+         this.deadline = deadline;
+         this.value = value;
+      }
+
+      /** Adds a timer to the end of the list this timer is the head of. */
+      private void append(Timer<T> timer) {
+         timer.previous = previous;
+         timer.next = this;
+         previous.next = timer;
+         previous = timer;
+      }
+
+      private void unlink() {
+         if (next != null) {
+            previous.next = next;
+            next.previous = previous;
+            previous = null;
+            next = null;
+         }
+      }
+
+      public long getDeadline() {
+         return deadline;
+      }
+
+      public T getValue() {
+         return value;
+      }
+
+      /**
+       * Is this timer still waiting?
+       *
+       * @return was the timer neither cancelled nor did it expire
+       */
+      public boolean isPending() {
+         return next != null;
+      }
+   }
+
+}
@@ -0,0 +1,558 @@
+package de.malbertz.calendar.server.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.ChangeSet;
+import de.malbertz.calendar2.DayCounts;
+import de.malbertz.calendar2.EntryFilter;
+import de.malbertz.calendar2.SearchQuery;
+import de.malbertz.calendar2.SearchResult;
+import de.malbertz.calendar2.ServerCommand;
+import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.util.EntryCodec;
+import de.malbertz.calendar2.util.EntryCodec.Snapshot;
+
+/**
+ * This class implements the calendar of a user on the server.
+ * <p>
+ * It is shared by all sessions of the user and holds the entries together with
+ * a version that is incremented by every change. The calendar is stored in a
+ * datafile with the filename "USER.dat", encoded by {@link EntryCodec}, so the
+ * datafile of the current version can be sent to a client as it is.
+ * <p>
+ * The last {@link #MAX_CHANGES} changes are kept in memory, so a client that
+ * reconnects can ask for the {@link #changesSince(long) changes since} the
+ * version it knows instead of downloading all entries again.
+ * <p>
+ * The number of entries per day is kept up to date with every change, so the
+ * {@link #countByDay(LocalDate, LocalDate) counts of a range} are looked up
+ * without scanning the entries. An {@link IntervalIndex} finds the
+ * {@link #conflicts(CalendarEntry) entries that overlap} an entry the same
+ * way, and a {@link SearchIndex} {@link #search(SearchQuery) searches} the
+ * words of the entries.
+ * <p>
+ * The encoded entries of the current version are cached for downloads until
+ * the next change.
+ * <p>
+ * A recurring entry is stored once. The day counts and the indexes only
+ * compute its occurrences for the days a query asks for.
+ * 
+ * @author Michael Albertz
+ *
+ */
+public class UserCalendar {
+
+   private static final Logger log = LogManager.getLogger(UserCalendar.class);
+   /** The number of changes kept in memory */
+   private static final int MAX_CHANGES = 1000;
+   /** The maximum number of days counted at once */
+   private static final int MAX_COUNT_DAYS = 3660;
+   /** The maximum number of entries a filter returns at once */
+   static final int MAX_FILTER_LIMIT = 10000;
+
+   /** Holds the name of the user */
+   private final String userName;
+   /** Holds the entries of the user */
+   private final List<CalendarEntry> entryList = new ArrayList<>();
+   /** Holds the version of the entries */
+   private long version = 0;
+   /** Holds the version in the datafile, -1 if it isn't encoded */
+   private long savedVersion = -1;
+   /** Holds the last changes, the last one lead to {@link #version} */
+   private final ArrayDeque<ServerCommand> changes = new ArrayDeque<>();
+   /** Holds the number of single entries by day, days without are missing */
+   private final TreeMap<LocalDate, Integer> dayCounts = new TreeMap<>();
+   /** Holds the entries by the time they cover */
+   private final IntervalIndex intervals = new IntervalIndex();
+   /** Holds the entries by the words of their name and description */
+   private final SearchIndex words = new SearchIndex();
+   /** Holds the entries of the current version, null until downloaded */
+   private EncodedSnapshot snapshot;
+
+   /**
+    * Creates a new empty calendar for the specified user.
+    * 
+    * @param userName
+    *           the name of the user
+    */
+   UserCalendar(String userName) {
+      this.userName = userName;
+   }
+
+   /**
+    * This method adds an entry.
+    * 
+    * @param entry
+    *           the entry to add
+    */
+   public synchronized void add(CalendarEntry entry) {
+      entryList.add(entry);
+      index(entry);
+      changed(new ServerCommand(Command.ADD, entry, null));
+   }
+
+   /**
+    * This method replaces an entry.
+    * 
+    * @param oldValue
+    *           the entry to replace
+    * @param newValue
+    *           the replacement
+    * @return was the entry found
+    */
+   public synchronized boolean modify(CalendarEntry oldValue,
+         CalendarEntry newValue) {
+      int index = entryList.indexOf(oldValue);
+      if (index < 0) {
+         return false;
+      }
+      entryList.set(index, newValue);
+      unindex(oldValue);
+      index(newValue);
+      changed(new ServerCommand(Command.MODIFY, newValue, oldValue));
+      return true;
+   }
+
+   /**
+    * This method removes an entry.
+    * 
+    * @param entry
+    *           the entry to remove
+    * @return was the entry found
+    */
+   public synchronized boolean remove(CalendarEntry entry) {
+      if (entryList.remove(entry)) {
+         unindex(entry);
+         changed(new ServerCommand(Command.REMOVE, null, entry));
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Get the changes since the specified version.
+    * <p>
+    * The changes are unknown if the version is older than the oldest change
+    * kept in memory or newer than the current version.
+    * 
+    * @param since
+    *           the version the client knows
+    * @return the changes from the specified to the current version
+    */
+   public synchronized ChangeSet changesSince(long since) {
+      if (since < version - changes.size() || since > version) {
+         return new ChangeSet(since, version, null);
+      }
+      List<ServerCommand> list = new ArrayList<>((int) (version - since));
+      Iterator<ServerCommand> it = changes.descendingIterator();
+      for (long v = version; v > since; v--) {
+         list.add(it.next());
+      }
+      Collections.reverse(list);
+      return new ChangeSet(since, version, list);
+   }
+
+   /**
+    * Get the number of entries per day of a range of days. Ranges longer than
+    * {@link #MAX_COUNT_DAYS} are cut off.
+    * 
+    * @param first
+    *           the first day of the range
+    * @param last
+    *           the last day of the range, inclusive
+    * @return the number of entries per day
+    */
+   public synchronized DayCounts countByDay(LocalDate first, LocalDate last) {
+      long days = Math.min(MAX_COUNT_DAYS,
+            Math.max(0, ChronoUnit.DAYS.between(first, last) + 1));
+      int[] counts = new int[(int) days];
+      if (days > 0) {
+         LocalDate end = first.plusDays(days - 1);
+         for (Map.Entry<LocalDate, Integer> day : dayCounts.subMap(first,
+               true, end, true).entrySet()) {
+            counts[(int) ChronoUnit.DAYS.between(first, day.getKey())] = day
+                  .getValue();
+         }
+         for (CalendarEntry series : intervals.series()) {
+            for (CalendarEntry occurrence : series.occurrences(first, end)) {
+               counts[(int) ChronoUnit.DAYS.between(first,
+                     occurrence.getDate())]++;
+            }
+         }
+      }
+      return new DayCounts(first, counts);
+   }
+
+   /**
+    * Get the entries that overlap the specified entry, not counting entries
+    * equal to it.
+    * 
+    * @param entry
+    *           the entry to check
+    * @return the overlapping entries, ordered by start
+    */
+   public synchronized CalendarEntry[] conflicts(CalendarEntry entry) {
+      List<CalendarEntry> conflicts = intervals.overlapping(entry);
+      return conflicts.toArray(new CalendarEntry[conflicts.size()]);
+   }
+
+   /**
+    * Get the time covered by the entries between start and end.
+    * 
+    * @param start
+    *           the start in seconds since 1970-01-01T00:00
+    * @param end
+    *           the end in seconds, exclusive
+    * @return the sorted and merged pairs of start and end of the busy ranges
+    * @see IntervalIndex#busy(long, long)
+    */
+   public synchronized long[] busy(long start, long end) {
+      return intervals.busy(start, end);
+   }
+
+   /**
+    * Searches the names and descriptions of the entries.
+    * 
+    * @param query
+    *           the query
+    * @return the requested page of hits
+    */
+   public synchronized SearchResult search(SearchQuery query) {
+      return words.search(query);
+   }
+
+   /**
+    * Get the entries that match a filter. The single entries of the range of
+    * days are read from the {@link IntervalIndex}, the occurrences of series
+    * are computed for at most {@link #MAX_COUNT_DAYS} days from the start of
+    * the range or of the series.
+    * 
+    * @param filter
+    *           the filter
+    * @return the requested page of matches ordered by date and start time,
+    *         followed by one more match if there are more
+    */
+   public synchronized List<CalendarEntry> filter(EntryFilter filter) {
+      int limit = Math.max(0, Math.min(filter.getLimit(), MAX_FILTER_LIMIT));
+      int offset = Math.max(0, filter.getOffset());
+      int max = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit + 1);
+      List<CalendarEntry> matches = intervals.find(filter.getFirst(),
+            filter.getLast(), filter::matches, max);
+      for (CalendarEntry series : intervals.series()) {
+         LocalDate first = filter.getFirst() != null
+               && filter.getFirst().isAfter(series.getDate()) ? filter
+               .getFirst() : series.getDate();
+         LocalDate last = first.plusDays(MAX_COUNT_DAYS - 1);
+         if (filter.getLast() != null && filter.getLast().isBefore(last)) {
+            last = filter.getLast();
+         }
+         int found = 0;
+         for (CalendarEntry occurrence : series.occurrences(first, last)) {
+            if (found == max) {
+               break;
+            }
+            if (filter.matches(occurrence)) {
+               matches.add(occurrence);
+               found++;
+            }
+         }
+      }
+      matches.sort(Comparator.comparing(CalendarEntry::getDate).thenComparing(
+            CalendarEntry::getStartTime));
+      return new ArrayList<>(matches.subList(Math.min(offset, matches.size()),
+            Math.min(max, matches.size())));
+   }
+
+   /**
+    * Get a copy of all entries.
+    * 
+    * @return the entries
+    */
+   public synchronized CalendarEntry[] toArray() {
+      return entryList.toArray(new CalendarEntry[entryList.size()]);
+   }
+
+   /**
+    * Get all entries of the current version for a download. The snapshot is
+    * kept until the next change, so its encoded pages are shared by all
+    * downloads of the version.
+    * 
+    * @return the entries of the current version
+    */
+   public synchronized EncodedSnapshot snapshot() {
+      if (snapshot == null) {
+         snapshot = new EncodedSnapshot(version, toArray(),
+               SnapshotPager.PAGE_SIZE);
+      }
+      return snapshot;
+   }
+
+   /**
+    * Get the entries. The list must only be read while holding the lock of
+    * this calendar.
+    * 
+    * @return the entries
+    */
+   public List<CalendarEntry> getEntryList() {
+      return entryList;
+   }
+
+   public synchronized long getVersion() {
+      return version;
+   }
+
+   public String getUserName() {
+      return userName;
+   }
+
+   /**
+    * Opens the datafile to send it, if it holds the current version.
+    * 
+    * @return the datafile, null if it is outdated or can't be opened
+    */
+   public synchronized FileChannel openSaved() {
+      if (savedVersion != version) {
+         return null;
+      }
+      try {
+         // a later save replaces the file, the channel keeps reading this one
+         return FileChannel.open(getFile().toPath(), StandardOpenOption.READ);
+      } catch (IOException e) {
+         log.warn("Couldn't open data file of " + userName, e);
+         return null;
+      }
+   }
+
+   /**
+    * This method loads the calendar from its datafile.
+    */
+   synchronized void load() throws IOException {
+      File f = getFile();
+      if (!f.exists() || f.length() == 0) {
+         return;
+      }
+      try (BufferedInputStream in = new BufferedInputStream(
+            new FileInputStream(f))) {
+         boolean serialized = isSerialized(in);
+         Snapshot snapshot;
+         if (serialized) {
+            // datafile written before the entries were encoded
+            snapshot = readSerialized(new ObjectInputStream(in));
+            if (snapshot == null) {
+               log.error("Corrupt data file for: " + userName);
+               f.delete();
+               return;
+            }
+         } else {
+            snapshot = EntryCodec.read(new DataInputStream(in));
+         }
+         for (CalendarEntry calendarEntry : snapshot.getEntries()) {
+            entryList.add(calendarEntry);
+            index(calendarEntry);
+         }
+         version = snapshot.getVersion();
+         if (!serialized) {
+            savedVersion = version;
+         }
+      }
+   }
+
+   /**
+    * This method reads the entries of a user from the datafile without
+    * loading the calendar, so none of the indexes are built. The entries are
+    * only current if no session uses the calendar.
+    * 
+    * @param userName
+    *           the name of the user
+    * @return the entries and their version, none if there is no datafile
+    * @throws IOException
+    *            if the datafile couldn't be read or is corrupt
+    */
+   static Snapshot read(String userName) throws IOException {
+      return read(userName, false);
+   }
+
+   /**
+    * This method reads only the times of the entries of a user from the
+    * datafile, like {@link #read(String)}. The names and descriptions aren't
+    * decoded, unless the datafile was written by Java serialization.
+    * 
+    * @param userName
+    *           the name of the user
+    * @return the times of the entries as entries without texts and reminders
+    * @throws IOException
+    *            if the datafile couldn't be read or is corrupt
+    * @see EntryCodec#readTimes(java.io.DataInput)
+    */
+   static Snapshot readTimes(String userName) throws IOException {
+      return read(userName, true);
+   }
+
+   /** Reads the entries of a user, only their times if specified. */
+   private static Snapshot read(String userName, boolean times)
+         throws IOException {
+      File f = getFile(userName);
+      if (!f.exists() || f.length() == 0) {
+         return new Snapshot(0, Collections.emptyList());
+      }
+      try (BufferedInputStream in = new BufferedInputStream(
+            new FileInputStream(f))) {
+         if (!isSerialized(in)) {
+            DataInputStream data = new DataInputStream(in);
+            return times ? EntryCodec.readTimes(data) : EntryCodec.read(data);
+         }
+         Snapshot snapshot = readSerialized(new ObjectInputStream(in));
+         if (snapshot == null) {
+            throw new IOException("Corrupt data file for: " + userName);
+         }
+         return snapshot;
+      }
+   }
+
+   /**
+    * This method reads the version of the datafile of a user from its
+    * header, without reading the entries.
+    * 
+    * @param userName
+    *           the name of the user
+    * @return the version, 0 if there is no datafile and -1 if it was written
+    *         by Java serialization
+    * @throws IOException
+    *            if the datafile couldn't be read
+    */
+   static long readVersion(String userName) throws IOException {
+      File f = getFile(userName);
+      if (!f.exists() || f.length() == 0) {
+         return 0;
+      }
+      try (BufferedInputStream in = new BufferedInputStream(
+            new FileInputStream(f))) {
+         if (isSerialized(in)) {
+            return -1;
+         }
+         return EntryCodec.readHeader(new DataInputStream(in));
+      }
+   }
+
+   /** Tells if a datafile was written by Java serialization. */
+   private static boolean isSerialized(BufferedInputStream in)
+         throws IOException {
+      in.mark(2);
+      boolean serialized = new DataInputStream(in).readShort() == ObjectStreamConstants.STREAM_MAGIC;
+      in.reset();
+      return serialized;
+   }
+
+   /**
+    * This method reads the entries of a datafile written by Java
+    * serialization.
+    * 
+    * @return the entries and their version, null if the datafile is corrupt
+    */
+   private static Snapshot readSerialized(ObjectInputStream in)
+         throws IOException {
+      Object obj;
+      try {
+         obj = in.readObject();
+      } catch (ClassNotFoundException e) {
+         return null;
+      }
+      if (!(obj instanceof CalendarEntry[])) {
+         return null;
+      }
+      long version = 0;
+      try {
+         version = in.readLong();
+      } catch (EOFException e) {
+         // datafile written before versions were stored
+      }
+      return new Snapshot(version, Arrays.asList((CalendarEntry[]) obj));
+   }
+
+   /**
+    * This method saves the calendar to its datafile, encoded by
+    * {@link EntryCodec}.
+    * <p>
+    * The file is replaced atomically, so a download of the old file isn't
+    * torn and a crash never leaves a torn datafile.
+    */
+   synchronized void save() throws IOException {
+      File file = getFile();
+      File tmp = new File(file.getPath() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp, false)))) {
+         EntryCodec.write(out, version, entryList);
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      savedVersion = version;
+   }
+
+   /** Records a change and increments the version. */
+   private void changed(ServerCommand change) {
+      if (changes.size() == MAX_CHANGES) {
+         changes.removeFirst();
+      }
+      changes.addLast(change);
+      version++;
+      snapshot = null;
+   }
+
+   /** Adds an entry to the day counts and the indexes. */
+   private void index(CalendarEntry entry) {
+      if (entry.getRecurrence() == null) {
+         dayCounts.merge(entry.getDate(), 1, Integer::sum);
+      }
+      intervals.add(entry);
+      words.add(entry);
+   }
+
+   /** Removes an entry from the day counts and the indexes. */
+   private void unindex(CalendarEntry entry) {
+      if (entry.getRecurrence() == null) {
+         dayCounts.merge(entry.getDate(), -1, (a, b) -> a + b == 0 ? null
+               : a + b);
+      }
+      intervals.remove(entry);
+      words.remove(entry);
+   }
+
+   private File getFile() {
+      return getFile(userName);
+   }
+
+   private static File getFile(String userName) {
+      return new File(userName + ".dat");
+   }
+
+}
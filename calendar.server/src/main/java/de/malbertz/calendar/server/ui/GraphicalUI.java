@@ -4,8 +4,16 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ResourceBundle;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -17,6 +25,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import de.malbertz.calendar.server.core.Server;
 
 public class GraphicalUI extends Application implements Initializable {
@@ -60,17 +69,184 @@ public class GraphicalUI extends Application implements Initializable {
       primaryStage.show();
    }
 
-   private class Console extends OutputStream {
-      private TextArea output;
+   /**
+    * This class implements an {@link OutputStream} that writes to a
+    * {@link TextArea}.
+    * <p>
+    * Written bytes are collected in a bounded ring buffer and never touch the
+    * TextArea directly. A {@link Timeline} on the JavaFX application thread
+    * drains the buffer every {@link #PULSE} and appends everything collected
+    * in one chunk. If producers outrun the pulse the oldest bytes are dropped,
+    * and the output goes on with the next whole line. Lines beyond
+    * {@link #MAX_LINES} are trimmed from the top of the TextArea.
+    * <p>
+    * The bytes are decoded by one decoder for all chunks, and the bytes of a
+    * character that isn't complete yet are kept for the next pulse.
+    * 
+    * @author Michael Albertz
+    *
+    */
+   private static class Console extends OutputStream {
+      /** The capacity of the ring buffer in bytes */
+      private static final int CAPACITY = 64 * 1024;
+      /** The maximum number of lines the TextArea holds */
+      private static final int MAX_LINES = 5000;
+      /** The interval the buffer is flushed to the TextArea */
+      private static final Duration PULSE = Duration.millis(100);
+
+      /** Holds the TextArea the output is written to */
+      private final TextArea output;
+      /** Holds the ring buffer */
+      private final byte[] ring = new byte[CAPACITY];
+      /** The index of the oldest byte in the ring buffer */
+      private int head = 0;
+      /** The number of bytes in the ring buffer */
+      private int size = 0;
+      /** Determines if bytes were dropped since the last flush */
+      private boolean dropped = false;
+      /** The number of lines currently in the TextArea */
+      private int lines = 0;
+      /** Holds the decoder of the bytes, used on the application thread */
+      private final CharsetDecoder decoder = Charset.defaultCharset()
+            .newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      /** Holds the bytes of an incomplete character of the last chunk */
+      private ByteBuffer carry = ByteBuffer.allocate(0);
 
       public Console(TextArea ta) {
          this.output = ta;
+         Timeline timeline = new Timeline(new KeyFrame(PULSE,
+               event -> flushToOutput()));
+         timeline.setCycleCount(Animation.INDEFINITE);
+         timeline.play();
+      }
+
+      @Override
+      public synchronized void write(int b) throws IOException {
+         if (size == CAPACITY) {
+            head = (head + 1) % CAPACITY;
+            size--;
+            dropped = true;
+         }
+         ring[(head + size) % CAPACITY] = (byte) b;
+         size++;
       }
 
       @Override
-      public void write(int b) throws IOException {
-         output.appendText(String.valueOf((char) b));
+      public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+         if (len >= CAPACITY) {
+            // only the tail can survive anyway
+            off += len - CAPACITY;
+            len = CAPACITY;
+            head = 0;
+            size = 0;
+            dropped = true;
+         }
+         int overflow = size + len - CAPACITY;
+         if (overflow > 0) {
+            head = (head + overflow) % CAPACITY;
+            size -= overflow;
+            dropped = true;
+         }
+         int tail = (head + size) % CAPACITY;
+         int first = Math.min(len, CAPACITY - tail);
+         System.arraycopy(b, off, ring, tail, first);
+         System.arraycopy(b, off + first, ring, 0, len - first);
+         size += len;
+      }
+
+      /**
+       * This method takes all bytes currently held in the ring buffer.
+       * 
+       * @return the bytes in the order they were written
+       */
+      private synchronized byte[] drain() {
+         byte[] chunk = new byte[size];
+         int first = Math.min(size, CAPACITY - head);
+         System.arraycopy(ring, head, chunk, 0, first);
+         System.arraycopy(ring, 0, chunk, first, size - first);
+         head = 0;
+         size = 0;
+         return chunk;
+      }
+
+      /**
+       * This method appends the buffered output to the TextArea and trims it to
+       * {@link #MAX_LINES}. It must be called on the JavaFX application thread.
+       */
+      private void flushToOutput() {
+         boolean lost;
+         byte[] chunk;
+         synchronized (this) {
+            if (size == 0) {
+               return;
+            }
+            lost = dropped;
+            dropped = false;
+            chunk = drain();
+         }
+         String text = decode(chunk, lost);
+         if (lost) {
+            text = "[...]" + System.lineSeparator() + text;
+         }
+         for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+               lines++;
+            }
+         }
+         output.appendText(text);
 
+         if (lines > MAX_LINES) {
+            // trim a tenth more than necessary so we don't trim every pulse
+            int remove = lines - MAX_LINES + MAX_LINES / 10;
+            String content = output.getText();
+            int index = -1;
+            for (int i = 0; i < remove; i++) {
+               index = content.indexOf('\n', index + 1);
+            }
+            output.deleteText(0, index + 1);
+            lines -= remove;
+         }
+      }
+
+      /**
+       * This method decodes a chunk following the bytes kept of the last one,
+       * and keeps the bytes of an incomplete character at its end.
+       * <p>
+       * If bytes were dropped before the chunk, the kept bytes are discarded
+       * and the chunk is decoded from the start of its first whole line, if
+       * it holds one.
+       * 
+       * @param chunk
+       *           the bytes to decode
+       * @param lost
+       *           were bytes dropped before the chunk
+       * @return the decoded characters
+       */
+      private String decode(byte[] chunk, boolean lost) {
+         int start = 0;
+         if (lost) {
+            carry = ByteBuffer.allocate(0);
+            decoder.reset();
+            for (int i = 0; i < chunk.length; i++) {
+               if (chunk[i] == '\n') {
+                  start = i + 1;
+                  break;
+               }
+            }
+         }
+         ByteBuffer in = ByteBuffer.allocate(carry.remaining() + chunk.length
+               - start);
+         in.put(carry).put(chunk, start, chunk.length - start);
+         in.flip();
+         CharBuffer text = CharBuffer.allocate((int) Math.ceil(in.remaining()
+               * decoder.maxCharsPerByte()));
+         // stops in front of an incomplete character at the end
+         decoder.decode(in, text, false);
+         carry = in;
+         text.flip();
+         return text.toString();
       }
 
    }
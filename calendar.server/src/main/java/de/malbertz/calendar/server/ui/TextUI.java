@@ -1,7 +1,8 @@
 package de.malbertz.calendar.server.ui;
 
-import java.util.Enumeration;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.Scanner;
 
 import de.malbertz.calendar.server.authentication.Authenticator;
@@ -45,6 +46,19 @@ public class TextUI extends Thread {
          } else {
             System.out.println("User already exists");
          }
+      } else if (cmd.startsWith("import")) {
+         String[] cmdArray = cmd.split(" ", 2);
+         if (cmdArray.length != 2) {
+            printHelp();
+            return true;
+         }
+         try {
+            int created = server.importUsers(new File(cmdArray[1]));
+            System.out.println("Created " + created + " users from '"
+                  + cmdArray[1] + "'");
+         } catch (IOException e) {
+            System.out.println("Couldn't read '" + cmdArray[1] + "'");
+         }
       } else if (cmd.contains("remove")) {
          String[] cmdArray = cmd.split(" ");
          if (cmdArray.length != 2) {
@@ -71,19 +85,15 @@ public class TextUI extends Thread {
       } else if (cmd.contains("help")) {
          printHelp();
       } else if (cmd.contains("list")) {
-         List<ClientThread> e = server.getClients();
+         Collection<ClientThread> e = server.getClients();
          Authenticator.make();
          System.out.println("Connected: ");
          for (ClientThread client : e) {
             System.out.println(client.getIdentification());
          }
          System.out.println("Registered: ");
-         Enumeration<Object> en = Authenticator.getAll();
-         while (en.hasMoreElements()) {
-            Object object = (Object) en.nextElement();
-            if (object instanceof String) {
-               System.out.println(object);
-            }
+         for (String name : Authenticator.getAll()) {
+            System.out.println(name);
          }
       } else if (cmd.equals("stop")) {
          return false;
@@ -97,6 +107,7 @@ public class TextUI extends Thread {
       System.out.println("Help:");
       System.out.println("\tstop - stops the server");
       System.out.println("\tcreate <username> <password> - creates new user");
+      System.out.println("\timport <file> - creates users from a file with one '<username> <password>' per line");
       System.out.println("\tremove <username> - removes user");
       System.out.println("\tkick <username|ip> - kicks user from server");
       System.out.println("\tlist - lists all users");
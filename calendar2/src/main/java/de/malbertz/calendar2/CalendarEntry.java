@@ -3,9 +3,14 @@ package de.malbertz.calendar2;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.io.Serializable;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Objects;
 
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -14,8 +19,19 @@ import javafx.beans.property.SimpleStringProperty;
  * This Class implements the data object used to store entries on the server and
  * the client.
  * <p>
- * Date, start time, end time, name and description of the entry are stored as
- * JavaFX properties.
+ * Date, start time, end time, name and description of the entry are stored in
+ * plain fields. The JavaFX property of a field is only created the first time
+ * it is asked for, usually by a table cell that shows the entry, and holds the
+ * value from then on. Entries that are never shown, like most of the entries
+ * received from the server, don't carry any property objects.
+ * <p>
+ * An entry with a {@link Recurrence} stands for a whole series of entries.
+ * Only the series is stored and sent; its occurrences are computed for the
+ * days they are asked for by {@link #occurrences(LocalDate, LocalDate)} and
+ * know the series they belong to.
+ * <p>
+ * An entry with a {@link #getReminder() reminder} is pushed to the connected
+ * clients of its user that long before it starts.
  * 
  * @author Michael Albertz
  *
@@ -25,7 +41,20 @@ public class CalendarEntry implements Serializable {
    /** The serial version UID used for Serialization */
    private static final long serialVersionUID = 5965631935186460395L;
 
-   /* The fields that store the data */
+   /* The fields that store the data until their property is created */
+   private LocalDate dateValue;
+   private LocalTime startTimeValue;
+   private LocalTime endTimeValue;
+   private String nameValue;
+   private String descriptionValue;
+   /** The rule of a series, null if the entry occurs once */
+   private Recurrence recurrence;
+   /** How long before the start the user is reminded, null for never */
+   private Duration reminder;
+   /** The series an occurrence was computed from */
+   private transient CalendarEntry series;
+
+   /* The properties, created on demand */
    private SimpleObjectProperty<LocalDate> date;
    private SimpleObjectProperty<LocalTime> startTime;
    private SimpleObjectProperty<LocalTime> endTime;
@@ -76,16 +105,108 @@ public class CalendarEntry implements Serializable {
    public CalendarEntry(LocalDate date, LocalTime startTime, LocalTime endTime,
          String name, String description) {
 
-      this.date = new SimpleObjectProperty<LocalDate>(date);
-      this.startTime = new SimpleObjectProperty<LocalTime>(startTime);
-      this.endTime = new SimpleObjectProperty<LocalTime>(endTime);
-      this.name = new SimpleStringProperty(name);
-      this.description = new SimpleStringProperty(description);
+      this.dateValue = date;
+      this.startTimeValue = startTime;
+      this.endTimeValue = endTime;
+      this.nameValue = name;
+      this.descriptionValue = description;
+   }
+
+   /**
+    * Get the occurrences of this entry within a range of days. An entry
+    * without a {@link Recurrence} occurs once on its date. The occurrences of
+    * a series are computed one by one while the iterator is advanced.
+    * 
+    * @param from
+    *           the first day of the range
+    * @param to
+    *           the last day of the range, inclusive
+    * @return the occurrences in order, this entry if it isn't a series
+    */
+   public Iterable<CalendarEntry> occurrences(LocalDate from, LocalDate to) {
+      if (recurrence == null) {
+         return getDate().isBefore(from) || getDate().isAfter(to) ? Collections
+               .emptyList() : Collections.singletonList(this);
+      }
+      return () -> new Iterator<CalendarEntry>() {
+         private final Iterator<LocalDate> dates = recurrence.dates(getDate(),
+               from, to);
+
+         @Override
+         public boolean hasNext() {
+            return dates.hasNext();
+         }
+
+         @Override
+         public CalendarEntry next() {
+            return occurrence(dates.next());
+         }
+      };
+   }
+
+   /**
+    * Does this entry occur on the specified day?
+    * 
+    * @param day
+    *           the day
+    * @return is there an occurrence on the day
+    */
+   public boolean occursOn(LocalDate day) {
+      return recurrence == null ? getDate().equals(day) : recurrence.occursOn(
+            getDate(), day);
+   }
+
+   /**
+    * Get the last day this entry can occur on.
+    * 
+    * @return the last day, {@link LocalDate#MAX} for an endless series
+    */
+   public LocalDate getLastDate() {
+      if (recurrence == null) {
+         return getDate();
+      }
+      LocalDate last = recurrence.lastDate(getDate());
+      return last == null ? LocalDate.MAX : last;
+   }
+
+   /**
+    * Get a copy of this series that leaves out its occurrence on the
+    * specified day.
+    * 
+    * @param day
+    *           the day of the occurrence
+    * @return the new series
+    * @throws IllegalStateException
+    *            if this entry isn't a series
+    */
+   public CalendarEntry withException(LocalDate day) {
+      if (recurrence == null) {
+         throw new IllegalStateException("Not a series: " + this);
+      }
+      CalendarEntry copy = copy(getDate());
+      copy.recurrence = recurrence.except(day);
+      return copy;
+   }
+
+   /** Creates the occurrence of this series on the specified day. */
+   private CalendarEntry occurrence(LocalDate day) {
+      CalendarEntry occurrence = copy(day);
+      occurrence.series = this;
+      return occurrence;
+   }
+
+   /** Copies the values of this entry except the recurrence to a new date. */
+   private CalendarEntry copy(LocalDate day) {
+      CalendarEntry copy = new CalendarEntry(day, getStartTime(),
+            getEndTime(), getName(), getDescription());
+      copy.reminder = reminder;
+      return copy;
    }
 
    /**
     * The string representation of a CalendarEntry is
-    * "[date=DATE, start=START, end=END, name=NAME, description=DESCRIPTION]".
+    * "[date=DATE, start=START, end=END, name=NAME, description=DESCRIPTION]",
+    * followed by the recurrence of a series.
     * 
     * @return the string representation
     */
@@ -93,7 +214,8 @@ public class CalendarEntry implements Serializable {
    public String toString() {
       return "[date=" + getDate() + ", start=" + getStartTime() + ", end="
             + getEndTime() + ", name=" + getName() + ", description="
-            + getDescription() + "]";
+            + getDescription() + "]"
+            + (recurrence == null ? "" : recurrence.toString());
    }
 
    /**
@@ -126,10 +248,26 @@ public class CalendarEntry implements Serializable {
          return false;
       } else if (!this.getDescription().equals(entry.getDescription())) {
          return false;
+      } else if (!Objects.equals(this.recurrence, entry.recurrence)) {
+         return false;
+      } else if (!Objects.equals(this.reminder, entry.reminder)) {
+         return false;
       }
       return true;
    }
 
+   /**
+    * This method overrides {@link Object#hashCode()} to match
+    * {@link #equals(Object)}.
+    * 
+    * @return the hash code of the values of this entry
+    */
+   @Override
+   public int hashCode() {
+      return Objects.hash(getDate(), getStartTime(), getEndTime(), getName(),
+            getDescription(), recurrence, reminder);
+   }
+
    /**
     * This method writes this instance to a ObjectOutputStream. Used for
     * Serialization.
@@ -140,6 +278,8 @@ public class CalendarEntry implements Serializable {
       out.writeObject(getEndTime());
       out.writeUTF(getName());
       out.writeUTF(getDescription());
+      out.writeObject(recurrence);
+      out.writeObject(reminder);
    }
 
    /**
@@ -148,78 +288,155 @@ public class CalendarEntry implements Serializable {
     */
    private void readObject(ObjectInputStream in) throws IOException,
          ClassNotFoundException {
-      this.date = new SimpleObjectProperty<LocalDate>(
-            (LocalDate) in.readObject());
-      this.startTime = new SimpleObjectProperty<LocalTime>(
-            (LocalTime) in.readObject());
-      this.endTime = new SimpleObjectProperty<LocalTime>(
-            (LocalTime) in.readObject());
-      this.name = new SimpleStringProperty((String) in.readUTF());
-      this.description = new SimpleStringProperty((String) in.readUTF());
+      this.dateValue = (LocalDate) in.readObject();
+      this.startTimeValue = (LocalTime) in.readObject();
+      this.endTimeValue = (LocalTime) in.readObject();
+      this.nameValue = in.readUTF();
+      this.descriptionValue = in.readUTF();
+      try {
+         this.recurrence = (Recurrence) in.readObject();
+         this.reminder = (Duration) in.readObject();
+      } catch (OptionalDataException e) {
+         if (!e.eof) {
+            throw e;
+         }
+         // written before entries could recur or remind
+      }
    }
 
    /*
-    * Getters and Setters are quite self explanatory.
+    * Getters and Setters are quite self explanatory. A getter or setter only
+    * goes through the property if it was already created.
+    */
+
+   /**
+    * Get the rule of this series.
+    * 
+    * @return the rule, null if the entry occurs once
     */
+   public final Recurrence getRecurrence() {
+      return recurrence;
+   }
+
+   public final void setRecurrence(final Recurrence recurrence) {
+      this.recurrence = recurrence;
+   }
+
+   /**
+    * Get how long before its start the user is reminded of this entry.
+    * 
+    * @return the time before the start, null if there is no reminder
+    */
+   public final Duration getReminder() {
+      return reminder;
+   }
+
+   public final void setReminder(final Duration reminder) {
+      this.reminder = reminder;
+   }
+
+   /**
+    * Get the series this occurrence was computed from.
+    * 
+    * @return the series, null if this entry isn't an occurrence of a series
+    */
+   public final CalendarEntry getSeries() {
+      return series;
+   }
 
    public final SimpleStringProperty nameProperty() {
+      if (name == null) {
+         name = new SimpleStringProperty(nameValue);
+      }
       return this.name;
    }
 
    public final java.lang.String getName() {
-      return this.nameProperty().get();
+      return name == null ? nameValue : name.get();
    }
 
    public final void setName(final java.lang.String name) {
-      this.nameProperty().set(name);
+      if (this.name == null) {
+         this.nameValue = name;
+      } else {
+         this.name.set(name);
+      }
    }
 
    public final SimpleStringProperty descriptionProperty() {
+      if (description == null) {
+         description = new SimpleStringProperty(descriptionValue);
+      }
       return this.description;
    }
 
    public final java.lang.String getDescription() {
-      return this.descriptionProperty().get();
+      return description == null ? descriptionValue : description.get();
    }
 
    public final void setDescription(final java.lang.String description) {
-      this.descriptionProperty().set(description);
+      if (this.description == null) {
+         this.descriptionValue = description;
+      } else {
+         this.description.set(description);
+      }
    }
 
    public final SimpleObjectProperty<LocalDate> dateProperty() {
+      if (date == null) {
+         date = new SimpleObjectProperty<LocalDate>(dateValue);
+      }
       return this.date;
    }
 
    public final java.time.LocalDate getDate() {
-      return this.dateProperty().get();
+      return date == null ? dateValue : date.get();
    }
 
    public final void setDate(final java.time.LocalDate date) {
-      this.dateProperty().set(date);
+      if (this.date == null) {
+         this.dateValue = date;
+      } else {
+         this.date.set(date);
+      }
    }
 
    public final SimpleObjectProperty<LocalTime> startTimeProperty() {
+      if (startTime == null) {
+         startTime = new SimpleObjectProperty<LocalTime>(startTimeValue);
+      }
       return this.startTime;
    }
 
    public final java.time.LocalTime getStartTime() {
-      return this.startTimeProperty().get();
+      return startTime == null ? startTimeValue : startTime.get();
    }
 
    public final void setStartTime(final java.time.LocalTime startTime) {
-      this.startTimeProperty().set(startTime);
+      if (this.startTime == null) {
+         this.startTimeValue = startTime;
+      } else {
+         this.startTime.set(startTime);
+      }
    }
 
    public final SimpleObjectProperty<LocalTime> endTimeProperty() {
+      if (endTime == null) {
+         endTime = new SimpleObjectProperty<LocalTime>(endTimeValue);
+      }
       return this.endTime;
    }
 
    public final java.time.LocalTime getEndTime() {
-      return this.endTimeProperty().get();
+      return endTime == null ? endTimeValue : endTime.get();
    }
 
    public final void setEndTime(final java.time.LocalTime endTime) {
-      this.endTimeProperty().set(endTime);
+      if (this.endTime == null) {
+         this.endTimeValue = endTime;
+      } else {
+         this.endTime.set(endTime);
+      }
    }
 
 }
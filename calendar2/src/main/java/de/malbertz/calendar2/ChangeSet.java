@@ -0,0 +1,78 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements a set of consecutive changes of the data of a user.
+ * <p>
+ * It holds the commands that changed the data from version <i>from</i> to
+ * version <i>to</i>, one command per version. If the server can't tell the
+ * changes since the requested version anymore the commands are null and the
+ * client has to request all data with {@link ServerCommand.Command#REQUEST_ALL}
+ * instead.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class ChangeSet implements Serializable {
+
+   private static final long serialVersionUID = 6102418592093380734L;
+
+   private final long from;
+   private final long to;
+   private final ArrayList<ServerCommand> changes;
+
+   /**
+    * Creates a new ChangeSet.
+    *
+    * @param from
+    *           the version the changes apply to
+    * @param to
+    *           the version after the changes
+    * @param changes
+    *           the changes, null if they are unknown
+    */
+   public ChangeSet(long from, long to, List<ServerCommand> changes) {
+      this.from = from;
+      this.to = to;
+      this.changes = changes == null ? null : new ArrayList<>(changes);
+   }
+
+   /**
+    * Determines if the changes are known.
+    *
+    * @return are the changes known
+    */
+   public boolean isComplete() {
+      return changes != null;
+   }
+
+   /**
+    * The string representation of a ChangeSet is
+    * "ChangeSet[from=FROM,to=TO,changes=CHANGES]".
+    */
+   @Override
+   public String toString() {
+      return "ChangeSet[from=" + from + ",to=" + to + ",changes="
+            + (changes == null ? "unknown" : changes.size()) + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public long getFrom() {
+      return from;
+   }
+
+   public long getTo() {
+      return to;
+   }
+
+   public List<ServerCommand> getChanges() {
+      return changes;
+   }
+
+}
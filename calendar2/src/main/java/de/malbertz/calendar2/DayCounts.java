@@ -0,0 +1,79 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * This class implements the number of entries per day of a range of days.
+ * <p>
+ * It is sent by the server in response to
+ * {@link ServerCommand.Command#COUNT_BY_DAY}. The counts are a plain array
+ * with one element per day, starting at the first day of the range, so a
+ * whole year costs a few hundred integers instead of its entries.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class DayCounts implements Serializable {
+
+   private static final long serialVersionUID = -4518106224573961207L;
+
+   private final LocalDate first;
+   private final int[] counts;
+
+   /**
+    * Creates a new DayCounts.
+    *
+    * @param first
+    *           the first day of the range
+    * @param counts
+    *           the number of entries per day, starting at the first day
+    */
+   public DayCounts(LocalDate first, int[] counts) {
+      this.first = first;
+      this.counts = counts;
+   }
+
+   /**
+    * Get the number of entries of the specified day.
+    *
+    * @param day
+    *           the day
+    * @return the number of entries, 0 if the day is out of range
+    */
+   public int getCount(LocalDate day) {
+      long i = day.toEpochDay() - first.toEpochDay();
+      return i < 0 || i >= counts.length ? 0 : counts[(int) i];
+   }
+
+   /**
+    * Get the last day of the range.
+    *
+    * @return the last day, inclusive
+    */
+   public LocalDate getLast() {
+      return first.plusDays(counts.length - 1);
+   }
+
+   /**
+    * The string representation of a DayCounts is
+    * "DayCounts[first=FIRST,days=DAYS]".
+    */
+   @Override
+   public String toString() {
+      return "DayCounts[first=" + first + ",days=" + counts.length + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public LocalDate getFirst() {
+      return first;
+   }
+
+   public int[] getCounts() {
+      return counts;
+   }
+
+}
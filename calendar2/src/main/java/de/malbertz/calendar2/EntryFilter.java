@@ -0,0 +1,133 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Locale;
+
+/**
+ * This class implements a filter for entries that is run by the server.
+ * <p>
+ * It is the argument of {@link ServerCommand.Command#REQUEST_FILTERED}. An
+ * entry matches if it occurs within the range of days, starts within the
+ * window of the time of day, and the text is part of its name or description,
+ * ignoring case. Every condition that is null matches all entries. The matches
+ * are ordered by date and start time, and only the page from <i>offset</i> with
+ * at most <i>limit</i> matches is returned.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class EntryFilter implements Serializable {
+
+   private static final long serialVersionUID = -3047612938417050268L;
+
+   private final LocalDate first;
+   private final LocalDate last;
+   private final LocalTime from;
+   private final LocalTime until;
+   private final String text;
+   private final int offset;
+   private final int limit;
+   /** The text in lower case, created on demand */
+   private transient String lowerText;
+
+   /**
+    * Creates a new EntryFilter.
+    *
+    * @param first
+    *           the first day of the range, null for no limit
+    * @param last
+    *           the last day of the range, inclusive, null for no limit
+    * @param from
+    *           the earliest start time, null for no limit
+    * @param until
+    *           the start time matching entries start before, null for no
+    *           limit
+    * @param text
+    *           the text the name or description contains, null for any text
+    * @param offset
+    *           the number of matches to skip
+    * @param limit
+    *           the maximum number of matches to return
+    */
+   public EntryFilter(LocalDate first, LocalDate last, LocalTime from,
+         LocalTime until, String text, int offset, int limit) {
+      this.first = first;
+      this.last = last;
+      this.from = from;
+      this.until = until;
+      this.text = text;
+      this.offset = offset;
+      this.limit = limit;
+   }
+
+   /**
+    * Does the specified entry match the time of day and the text of this
+    * filter? The range of days is not checked, the indexes of the server look
+    * up the entries of the range.
+    *
+    * @param entry
+    *           the entry to check
+    * @return does the entry match
+    */
+   public boolean matches(CalendarEntry entry) {
+      LocalTime start = entry.getStartTime();
+      if ((from != null && start.isBefore(from))
+            || (until != null && !start.isBefore(until))) {
+         return false;
+      }
+      if (text == null || text.isEmpty()) {
+         return true;
+      }
+      if (lowerText == null) {
+         lowerText = text.toLowerCase(Locale.ROOT);
+      }
+      return entry.getName().toLowerCase(Locale.ROOT).contains(lowerText)
+            || entry.getDescription().toLowerCase(Locale.ROOT)
+                  .contains(lowerText);
+   }
+
+   /**
+    * The string representation of an EntryFilter is
+    * "EntryFilter[FIRST..LAST,FROM..UNTIL,text=TEXT,offset=OFFSET,limit=LIMIT]".
+    */
+   @Override
+   public String toString() {
+      return "EntryFilter[" + first + ".." + last + "," + from + ".." + until
+            + ",text=" + text + ",offset=" + offset + ",limit=" + limit + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public LocalDate getFirst() {
+      return first;
+   }
+
+   public LocalDate getLast() {
+      return last;
+   }
+
+   public LocalTime getFrom() {
+      return from;
+   }
+
+   public LocalTime getUntil() {
+      return until;
+   }
+
+   public String getText() {
+      return text;
+   }
+
+   public int getOffset() {
+      return offset;
+   }
+
+   public int getLimit() {
+      return limit;
+   }
+
+}
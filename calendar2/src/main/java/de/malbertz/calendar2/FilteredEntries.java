@@ -0,0 +1,85 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+
+/**
+ * This class implements a part of the matches of an {@link EntryFilter}.
+ * <p>
+ * The server answers {@link ServerCommand.Command#REQUEST_FILTERED} with one
+ * or more {@link ServerCommand.Command#FILTERED} commands, each carrying the
+ * next part of the matches, so the client can show the first matches before
+ * the last ones arrived. The last part is marked and tells if there are
+ * matches after the requested page.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class FilteredEntries implements Serializable {
+
+   private static final long serialVersionUID = 6193050857391735412L;
+
+   private final EntryFilter filter;
+   private final int offset;
+   private final CalendarEntry[] entries;
+   private final boolean last;
+   private final boolean more;
+
+   /**
+    * Creates a new FilteredEntries.
+    *
+    * @param filter
+    *           the filter that was run
+    * @param offset
+    *           the index of the first entry of this part among all matches
+    * @param entries
+    *           the entries of this part
+    * @param last
+    *           is this the last part
+    * @param more
+    *           are there matches after the requested page, only set on the
+    *           last part
+    */
+   public FilteredEntries(EntryFilter filter, int offset,
+         CalendarEntry[] entries, boolean last, boolean more) {
+      this.filter = filter;
+      this.offset = offset;
+      this.entries = entries;
+      this.last = last;
+      this.more = more;
+   }
+
+   /**
+    * The string representation of a FilteredEntries is
+    * "FilteredEntries[filter=FILTER,offset=OFFSET,entries=N,last=LAST]".
+    */
+   @Override
+   public String toString() {
+      return "FilteredEntries[filter=" + filter + ",offset=" + offset
+            + ",entries=" + entries.length + ",last=" + last + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public EntryFilter getFilter() {
+      return filter;
+   }
+
+   public int getOffset() {
+      return offset;
+   }
+
+   public CalendarEntry[] getEntries() {
+      return entries;
+   }
+
+   public boolean isLast() {
+      return last;
+   }
+
+   public boolean hasMore() {
+      return more;
+   }
+
+}
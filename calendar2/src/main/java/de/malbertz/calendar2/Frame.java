@@ -0,0 +1,122 @@
+package de.malbertz.calendar2;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.EnumSet;
+import java.util.Set;
+
+import de.malbertz.calendar2.ServerCommand.Command;
+import de.malbertz.calendar2.util.Compression;
+import de.malbertz.calendar2.util.SerializationUtils;
+
+/**
+ * This class implements a frame holding a serialized {@link ServerCommand}.
+ * <p>
+ * If a client negotiated compression with
+ * {@link ServerCommand.Command#NEGOTIATE} the server sends every command that
+ * carries a result which can grow large, like a page of a snapshot, and that
+ * serializes to at least {@link #THRESHOLD} bytes in a frame. The flag of the
+ * frame tells if its payload is compressed by {@link Compression}, which it
+ * is unless that didn't make it smaller. All other commands are sent as they
+ * are without being serialized twice.
+ * 
+ * @author Michael Albertz
+ *
+ */
+public class Frame implements Serializable {
+
+   private static final long serialVersionUID = -2097711586329853410L;
+
+   /** The number of bytes from which a command is framed */
+   public static final int THRESHOLD = 1024;
+   /** The maximum number of bytes of a decompressed payload */
+   private static final int MAX_LENGTH = 256 << 20;
+   /** The commands whose argument can grow large enough to be framed */
+   private static final Set<Command> LARGE = EnumSet.of(Command.CHANGES,
+         Command.DAY_COUNTS, Command.CONFLICTS, Command.SEARCH_RESULT,
+         Command.BUSY_TIMES, Command.FREE_SLOTS, Command.FILTERED,
+         Command.SNAPSHOT_PAGE);
+
+   private final boolean compressed;
+   private final int length;
+   private final byte[] payload;
+
+   private Frame(boolean compressed, int length, byte[] payload) {
+      this.compressed = compressed;
+      this.length = length;
+      this.payload = payload;
+   }
+
+   /**
+    * Creates a frame of a command if it is large enough.
+    * <p>
+    * Only commands carrying a result that can grow large are serialized to
+    * measure them, so heartbeats and acknowledgements cost nothing extra.
+    * 
+    * @param command
+    *           the command to frame
+    * @return the frame, null if the command can't grow large or is smaller
+    *         than the threshold
+    * @throws IOException
+    *            if the command can't be serialized
+    */
+   public static Frame of(ServerCommand command) throws IOException {
+      if (!isLarge(command)) {
+         return null;
+      }
+      byte[] b = SerializationUtils.pickle(command);
+      if (b.length < THRESHOLD) {
+         return null;
+      }
+      byte[] deflated = Compression.deflate(b);
+      if (deflated.length < b.length) {
+         return new Frame(true, b.length, deflated);
+      }
+      return new Frame(false, b.length, b);
+   }
+
+   /**
+    * Tells if a command carries a result that can grow large.
+    * 
+    * @param command
+    *           the command
+    * @return can the argument of the command grow large
+    */
+   public static boolean isLarge(ServerCommand command) {
+      return LARGE.contains(command.getCommand());
+   }
+
+   /**
+    * Get the command of this frame.
+    * 
+    * @return the command
+    * @throws IOException
+    *            if the payload is corrupt
+    * @throws ClassNotFoundException
+    *            if the class of a serialized object cannot be found
+    */
+   public ServerCommand getCommand() throws IOException,
+         ClassNotFoundException {
+      if (length < 0 || length > MAX_LENGTH) {
+         throw new IOException("Invalid frame length: " + length);
+      }
+      return SerializationUtils.unpickle(
+            compressed ? Compression.inflate(payload, length) : payload,
+            ServerCommand.class);
+   }
+
+   /**
+    * The string representation of a Frame is
+    * "Frame[compressed=COMPRESSED,length=LENGTH,bytes=N]".
+    */
+   @Override
+   public String toString() {
+      return "Frame[compressed=" + compressed + ",length=" + length
+            + ",bytes=" + payload.length + "]";
+   }
+
+   public boolean isCompressed() {
+      return compressed;
+   }
+
+}
@@ -0,0 +1,78 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * This class implements a question about the time a group of users is busy.
+ * <p>
+ * It is the argument of {@link ServerCommand.Command#FREE_BUSY}, which asks
+ * for the merged busy times of the users between <i>start</i> and <i>end</i>,
+ * and of {@link ServerCommand.Command#FIND_SLOT}, which asks for the earliest
+ * times in that range where all of them are free for at least
+ * <i>duration</i>.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class FreeBusyQuery implements Serializable {
+
+   private static final long serialVersionUID = -1394587212063342671L;
+
+   private final String[] users;
+   private final LocalDateTime start;
+   private final LocalDateTime end;
+   private final Duration duration;
+
+   /**
+    * Creates a new FreeBusyQuery.
+    *
+    * @param users
+    *           the names of the users
+    * @param start
+    *           the start of the range
+    * @param end
+    *           the end of the range, exclusive
+    * @param duration
+    *           the length of the wanted slot, null to ask for busy times
+    */
+   public FreeBusyQuery(String[] users, LocalDateTime start,
+         LocalDateTime end, Duration duration) {
+      this.users = users;
+      this.start = start;
+      this.end = end;
+      this.duration = duration;
+   }
+
+   /**
+    * The string representation of a FreeBusyQuery is
+    * "FreeBusyQuery[users=USERS,start=START,end=END,duration=DURATION]".
+    */
+   @Override
+   public String toString() {
+      return "FreeBusyQuery[users=" + users.length + ",start=" + start
+            + ",end=" + end + ",duration=" + duration + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public String[] getUsers() {
+      return users;
+   }
+
+   public LocalDateTime getStart() {
+      return start;
+   }
+
+   public LocalDateTime getEnd() {
+      return end;
+   }
+
+   public Duration getDuration() {
+      return duration;
+   }
+
+}
@@ -0,0 +1,302 @@
+package de.malbertz.calendar2;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * This class implements the rule of a recurring entry.
+ * <p>
+ * A rule repeats an entry every {@link #getInterval() interval} days, weeks,
+ * months or years from the date of the entry, until a last date or for a
+ * number of occurrences, or forever. Single occurrences can be left out by
+ * adding their date to the {@link #getExceptions() exceptions}. Like
+ * {@link LocalDate#plusMonths(long)}, a monthly rule on the 31st falls on the
+ * last day of shorter months.
+ * <p>
+ * The rule is stored once with its entry. The dates of the occurrences are
+ * never stored, they are computed when they are asked for, and only for the
+ * range of days asked for: the n-th occurrence is computed directly, so
+ * neither {@link #occursOn(LocalDate, LocalDate)} nor the first date of
+ * {@link #dates(LocalDate, LocalDate, LocalDate)} walk the occurrences before
+ * the range.
+ * <p>
+ * A rule is immutable.
+ *
+ * @author Michael Albertz
+ *
+ */
+public final class Recurrence implements Serializable {
+
+   private static final long serialVersionUID = 2317254068837340197L;
+
+   private final Frequency frequency;
+   private final int interval;
+   private final LocalDate until;
+   private final int count;
+   private final TreeSet<LocalDate> exceptions;
+
+   /**
+    * Creates a rule that repeats every interval units, forever.
+    *
+    * @param frequency
+    *           the unit of the interval
+    * @param interval
+    *           the number of units between two occurrences, at least 1
+    */
+   public Recurrence(Frequency frequency, int interval) {
+      this(frequency, interval, null, 0, null);
+   }
+
+   /**
+    * Creates a new rule.
+    *
+    * @param frequency
+    *           the unit of the interval
+    * @param interval
+    *           the number of units between two occurrences, at least 1
+    * @param until
+    *           the last date an occurrence may fall on, null for no limit
+    * @param count
+    *           the maximum number of occurrences including the left out
+    *           ones, 0 for no limit
+    * @param exceptions
+    *           the dates of left out occurrences, may be null
+    * @throws IllegalArgumentException
+    *            if the interval or the count is out of range
+    */
+   public Recurrence(Frequency frequency, int interval, LocalDate until,
+         int count, Collection<LocalDate> exceptions) {
+      if (frequency == null) {
+         throw new IllegalArgumentException("No frequency");
+      }
+      if (interval < 1) {
+         throw new IllegalArgumentException("Invalid interval: " + interval);
+      }
+      if (count < 0) {
+         throw new IllegalArgumentException("Invalid count: " + count);
+      }
+      this.frequency = frequency;
+      this.interval = interval;
+      this.until = until;
+      this.count = count;
+      this.exceptions = exceptions == null ? new TreeSet<>() : new TreeSet<>(
+            exceptions);
+   }
+
+   /**
+    * Get a copy of this rule that leaves out the occurrence on the specified
+    * date.
+    *
+    * @param date
+    *           the date of the occurrence
+    * @return the new rule
+    */
+   public Recurrence except(LocalDate date) {
+      Recurrence copy = new Recurrence(frequency, interval, until, count,
+            exceptions);
+      copy.exceptions.add(date);
+      return copy;
+   }
+
+   /**
+    * Does an entry of the specified date occur on the specified day with this
+    * rule?
+    *
+    * @param start
+    *           the date of the entry, the first occurrence
+    * @param day
+    *           the day to check
+    * @return is there an occurrence on the day
+    */
+   public boolean occursOn(LocalDate start, LocalDate day) {
+      if (day.isBefore(start) || (until != null && day.isAfter(until))
+            || exceptions.contains(day)) {
+         return false;
+      }
+      long n = estimate(start, day);
+      // a clamped month may put the occurrence one unit later
+      for (long i = n; i <= n + 1; i++) {
+         if (count > 0 && i >= count) {
+            return false;
+         }
+         if (nth(start, i).equals(day)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Get the dates of the occurrences of an entry of the specified date
+    * within a range of days. The dates are computed one by one while the
+    * iterator is advanced.
+    *
+    * @param start
+    *           the date of the entry, the first occurrence
+    * @param from
+    *           the first day of the range
+    * @param to
+    *           the last day of the range, inclusive
+    * @return the dates in order
+    */
+   public Iterator<LocalDate> dates(LocalDate start, LocalDate from,
+         LocalDate to) {
+      LocalDate last = until != null && until.isBefore(to) ? until : to;
+      return new Iterator<LocalDate>() {
+         private long n = from.isAfter(start) ? Math.max(0,
+               estimate(start, from) - 1) : 0;
+         private LocalDate next = advance();
+
+         private LocalDate advance() {
+            while (count == 0 || n < count) {
+               LocalDate date = nth(start, n++);
+               if (date.isAfter(last)) {
+                  break;
+               }
+               if (!date.isBefore(from) && !exceptions.contains(date)) {
+                  return date;
+               }
+            }
+            return null;
+         }
+
+         @Override
+         public boolean hasNext() {
+            return next != null;
+         }
+
+         @Override
+         public LocalDate next() {
+            if (next == null) {
+               throw new NoSuchElementException();
+            }
+            LocalDate date = next;
+            next = advance();
+            return date;
+         }
+      };
+   }
+
+   /**
+    * Get the last date an entry of the specified date can occur on.
+    *
+    * @param start
+    *           the date of the entry, the first occurrence
+    * @return the last date, null if the entry recurs forever
+    */
+   public LocalDate lastDate(LocalDate start) {
+      LocalDate last = until;
+      if (count > 0) {
+         LocalDate counted = nth(start, count - 1);
+         if (last == null || counted.isBefore(last)) {
+            last = counted;
+         }
+      }
+      return last;
+   }
+
+   /** Get the date of the n-th occurrence, starting with 0 */
+   private LocalDate nth(LocalDate start, long n) {
+      return start.plus(n * interval, frequency.unit);
+   }
+
+   /** Get the index of the last occurrence not after day, or one less */
+   private long estimate(LocalDate start, LocalDate day) {
+      return Math.max(0, frequency.unit.between(start, day) / interval);
+   }
+
+   public Frequency getFrequency() {
+      return frequency;
+   }
+
+   public int getInterval() {
+      return interval;
+   }
+
+   public LocalDate getUntil() {
+      return until;
+   }
+
+   public int getCount() {
+      return count;
+   }
+
+   /**
+    * Get the dates of the left out occurrences.
+    *
+    * @return an unmodifiable view of the dates
+    */
+   public SortedSet<LocalDate> getExceptions() {
+      return Collections.unmodifiableSortedSet(exceptions);
+   }
+
+   /**
+    * The string representation of a Recurrence is
+    * "Recurrence[FREQUENCY/INTERVAL,until=UNTIL,count=COUNT,exceptions=N]".
+    *
+    * @return the string representation
+    */
+   @Override
+   public String toString() {
+      return "Recurrence[" + frequency + "/" + interval + ",until=" + until
+            + ",count=" + count + ",exceptions=" + exceptions.size() + "]";
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (obj == this) {
+         return true;
+      }
+      if (!(obj instanceof Recurrence)) {
+         return false;
+      }
+      Recurrence other = (Recurrence) obj;
+      return frequency == other.frequency && interval == other.interval
+            && Objects.equals(until, other.until) && count == other.count
+            && exceptions.equals(other.exceptions);
+   }
+
+   @Override
+   public int hashCode() {
+      return Objects.hash(frequency, interval, until, count, exceptions);
+   }
+
+   /**
+    * Checks a deserialized rule like the constructor does.
+    */
+   private Object readResolve() throws ObjectStreamException {
+      try {
+         return new Recurrence(frequency, interval, until, count, exceptions);
+      } catch (IllegalArgumentException e) {
+         throw new InvalidObjectException(e.getMessage());
+      }
+   }
+
+   /**
+    * The unit of the interval of a rule.
+    *
+    * @author Michael Albertz
+    *
+    */
+   public enum Frequency {
+      DAILY(ChronoUnit.DAYS), WEEKLY(ChronoUnit.WEEKS), MONTHLY(
+            ChronoUnit.MONTHS), YEARLY(ChronoUnit.YEARS);
+
+      private final ChronoUnit unit;
+
+      private Frequency(ChronoUnit unit) {
+         this.unit = unit;
+      }
+   }
+
+}
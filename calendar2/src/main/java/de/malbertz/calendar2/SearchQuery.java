@@ -0,0 +1,66 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+
+/**
+ * This class implements a full text search for entries.
+ * <p>
+ * It is the argument of {@link ServerCommand.Command#SEARCH}. Every word of
+ * the text has to be the start of a word in the name or description of an
+ * entry. The hits are ranked and only the page from <i>offset</i> with at most
+ * <i>limit</i> hits is returned.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SearchQuery implements Serializable {
+
+   private static final long serialVersionUID = 2871396400567213154L;
+
+   private final String text;
+   private final int offset;
+   private final int limit;
+
+   /**
+    * Creates a new SearchQuery.
+    *
+    * @param text
+    *           the words to search for
+    * @param offset
+    *           the number of hits to skip
+    * @param limit
+    *           the maximum number of hits to return
+    */
+   public SearchQuery(String text, int offset, int limit) {
+      this.text = text;
+      this.offset = offset;
+      this.limit = limit;
+   }
+
+   /**
+    * The string representation of a SearchQuery is
+    * "SearchQuery[text=TEXT,offset=OFFSET,limit=LIMIT]".
+    */
+   @Override
+   public String toString() {
+      return "SearchQuery[text=" + text + ",offset=" + offset + ",limit="
+            + limit + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public String getText() {
+      return text;
+   }
+
+   public int getOffset() {
+      return offset;
+   }
+
+   public int getLimit() {
+      return limit;
+   }
+
+}
@@ -0,0 +1,73 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+
+/**
+ * This class implements a page of the hits of a {@link SearchQuery}.
+ * <p>
+ * It is sent by the server in response to {@link ServerCommand.Command#SEARCH}.
+ * The hits are ordered by rank, the total is the number of hits of all pages.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SearchResult implements Serializable {
+
+   private static final long serialVersionUID = -7730291843061872935L;
+
+   private final SearchQuery query;
+   private final int total;
+   private final CalendarEntry[] hits;
+
+   /**
+    * Creates a new SearchResult.
+    *
+    * @param query
+    *           the query that was answered
+    * @param total
+    *           the number of hits of all pages
+    * @param hits
+    *           the hits of the requested page
+    */
+   public SearchResult(SearchQuery query, int total, CalendarEntry[] hits) {
+      this.query = query;
+      this.total = total;
+      this.hits = hits;
+   }
+
+   /**
+    * Determines if there are hits after this page.
+    *
+    * @return are there more hits
+    */
+   public boolean hasMore() {
+      return query.getOffset() + hits.length < total;
+   }
+
+   /**
+    * The string representation of a SearchResult is
+    * "SearchResult[query=QUERY,total=TOTAL,hits=HITS]".
+    */
+   @Override
+   public String toString() {
+      return "SearchResult[query=" + query + ",total=" + total + ",hits="
+            + hits.length + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public SearchQuery getQuery() {
+      return query;
+   }
+
+   public int getTotal() {
+      return total;
+   }
+
+   public CalendarEntry[] getHits() {
+      return hits;
+   }
+
+}
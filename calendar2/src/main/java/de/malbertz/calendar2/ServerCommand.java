@@ -1,13 +1,18 @@
 package de.malbertz.calendar2;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.time.LocalDate;
 
 /**
  * This class implements a ServerCommand that is mainly used for communication
  * between the client and the server.
+ * <p>
+ * Besides the old and new value a command can carry an <i>argument</i> for
+ * commands that need more than entries, like {@link Command#RESUME}.
  * 
  * @author Michael Albertz
  *
@@ -19,6 +24,7 @@ public class ServerCommand implements Serializable {
    private Command command;
    private CalendarEntry oldValue;
    private CalendarEntry newValue;
+   private Serializable argument;
 
    /**
     * Creates a new ServerCommand.
@@ -50,6 +56,61 @@ public class ServerCommand implements Serializable {
       validate();
    }
 
+   /**
+    * Creates a new ServerCommand that carries an argument instead of entries.
+    * <p>
+    * 
+    * <pre>
+    * {@code
+    * new ServerCommand(Command.RESUME, new SessionToken(token, version));
+    * }
+    * </pre>
+    * 
+    * @param command
+    *           the type of <i>Command</i>
+    * @param argument
+    *           the <i>argument</i> used by the command
+    * @throws IllegalArgumentException
+    *            if the argument doesn't match the required type
+    */
+   public ServerCommand(Command command, Serializable argument)
+         throws IllegalArgumentException {
+      this.command = command;
+      this.argument = argument;
+      validate();
+   }
+
+   /**
+    * Creates a new ServerCommand that carries entries and an argument.
+    * <p>
+    * 
+    * <pre>
+    * {@code
+    * new ServerCommand(Command.CONFLICTS, entry, null, new CalendarEntry[0]);
+    * }
+    * </pre>
+    * 
+    * @param command
+    *           the type of <i>Command</i>
+    * @param newValue
+    *           the <i>newValue</i> used by the command
+    * @param oldValue
+    *           the <i>oldValue</i> used by the command
+    * @param argument
+    *           the <i>argument</i> used by the command
+    * @throws IllegalArgumentException
+    *            if the values or the argument don't match the required ones
+    */
+   public ServerCommand(Command command, CalendarEntry newValue,
+         CalendarEntry oldValue, Serializable argument)
+         throws IllegalArgumentException {
+      this.command = command;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+      this.argument = argument;
+      validate();
+   }
+
    /**
     * This method checks if the arguments given to the contructor are valid.
     * 
@@ -77,9 +138,10 @@ public class ServerCommand implements Serializable {
          }
          break;
       case REQUEST_ALL:
-         if (!(oldValue == null && newValue == null)) {
+         if (!(oldValue == null && newValue == null && (argument == null
+               || argument instanceof SnapshotCursor || argument instanceof Long))) {
             throw new IllegalArgumentException(
-                  "REQUEST_ALL requires both oldValue and newValue to be null");
+                  "REQUEST_ALL requires both oldValue and newValue to be null and no, a SnapshotCursor or a Long argument");
          }
          break;
       case HEARTBEAT:
@@ -88,6 +150,130 @@ public class ServerCommand implements Serializable {
                   "REQUEST_ALL requires both oldValue and newValue to be null");
          }
          break;
+      case RESUME:
+      case SESSION:
+         if (!(oldValue == null && newValue == null
+               && argument instanceof SessionToken)) {
+            throw new IllegalArgumentException(command
+                  + " requires both oldValue and newValue to be null and a SessionToken argument");
+         }
+         break;
+      case ACK:
+      case REQUEST_CHANGES:
+         if (!(oldValue == null && newValue == null && argument instanceof Long)) {
+            throw new IllegalArgumentException(command
+                  + " requires both oldValue and newValue to be null and a Long argument");
+         }
+         break;
+      case CHANGES:
+         if (!(oldValue == null && newValue == null && argument instanceof ChangeSet)) {
+            throw new IllegalArgumentException(
+                  "CHANGES requires both oldValue and newValue to be null and a ChangeSet argument");
+         }
+         break;
+      case COUNT_BY_DAY:
+         if (!(oldValue == null && newValue == null
+               && argument instanceof LocalDate[] && ((LocalDate[]) argument).length == 2)) {
+            throw new IllegalArgumentException(
+                  "COUNT_BY_DAY requires both oldValue and newValue to be null and a LocalDate[2] argument");
+         }
+         LocalDate[] range = (LocalDate[]) argument;
+         if (range[0] == null || range[1] == null || range[0].isAfter(range[1])) {
+            throw new IllegalArgumentException(
+                  "COUNT_BY_DAY requires a first day not after the last day");
+         }
+         break;
+      case DAY_COUNTS:
+         if (!(oldValue == null && newValue == null && argument instanceof DayCounts)) {
+            throw new IllegalArgumentException(
+                  "DAY_COUNTS requires both oldValue and newValue to be null and a DayCounts argument");
+         }
+         break;
+      case CHECK_CONFLICTS:
+         if (!(oldValue == null && newValue != null)) {
+            throw new IllegalArgumentException(
+                  "CHECK_CONFLICTS requires oldValue to be null and newValue not to be null");
+         }
+         break;
+      case CONFLICTS:
+         if (!(oldValue == null && newValue != null && argument instanceof CalendarEntry[])) {
+            throw new IllegalArgumentException(
+                  "CONFLICTS requires oldValue to be null, newValue not to be null and a CalendarEntry[] argument");
+         }
+         break;
+      case SEARCH:
+         if (!(oldValue == null && newValue == null && argument instanceof SearchQuery)) {
+            throw new IllegalArgumentException(
+                  "SEARCH requires both oldValue and newValue to be null and a SearchQuery argument");
+         }
+         break;
+      case SEARCH_RESULT:
+         if (!(oldValue == null && newValue == null && argument instanceof SearchResult)) {
+            throw new IllegalArgumentException(
+                  "SEARCH_RESULT requires both oldValue and newValue to be null and a SearchResult argument");
+         }
+         break;
+      case FREE_BUSY:
+      case FIND_SLOT:
+         if (!(oldValue == null && newValue == null && argument instanceof FreeBusyQuery)) {
+            throw new IllegalArgumentException(command
+                  + " requires both oldValue and newValue to be null and a FreeBusyQuery argument");
+         }
+         if (command == Command.FIND_SLOT
+               && ((FreeBusyQuery) argument).getDuration() == null) {
+            throw new IllegalArgumentException(
+                  "FIND_SLOT requires a FreeBusyQuery with a duration");
+         }
+         break;
+      case BUSY_TIMES:
+      case FREE_SLOTS:
+         if (!(oldValue == null && newValue == null && argument instanceof TimeRanges)) {
+            throw new IllegalArgumentException(command
+                  + " requires both oldValue and newValue to be null and a TimeRanges argument");
+         }
+         break;
+      case REQUEST_FILTERED:
+         if (!(oldValue == null && newValue == null && argument instanceof EntryFilter)) {
+            throw new IllegalArgumentException(
+                  "REQUEST_FILTERED requires both oldValue and newValue to be null and an EntryFilter argument");
+         }
+         break;
+      case FILTERED:
+         if (!(oldValue == null && newValue == null && argument instanceof FilteredEntries)) {
+            throw new IllegalArgumentException(
+                  "FILTERED requires both oldValue and newValue to be null and a FilteredEntries argument");
+         }
+         break;
+      case SNAPSHOT_PAGE:
+         if (!(oldValue == null && newValue == null && argument instanceof SnapshotPage)) {
+            throw new IllegalArgumentException(
+                  "SNAPSHOT_PAGE requires both oldValue and newValue to be null and a SnapshotPage argument");
+         }
+         break;
+      case NOT_MODIFIED:
+         if (!(oldValue == null && newValue == null && argument instanceof Long)) {
+            throw new IllegalArgumentException(
+                  "NOT_MODIFIED requires both oldValue and newValue to be null and a Long argument");
+         }
+         break;
+      case SNAPSHOT_DOWNLOAD:
+         if (!(oldValue == null && newValue == null && (argument == null || argument instanceof Long))) {
+            throw new IllegalArgumentException(
+                  "SNAPSHOT_DOWNLOAD requires both oldValue and newValue to be null and no or a Long argument");
+         }
+         break;
+      case NEGOTIATE:
+         if (!(oldValue == null && newValue == null && argument instanceof String[])) {
+            throw new IllegalArgumentException(
+                  "NEGOTIATE requires both oldValue and newValue to be null and a String[] argument");
+         }
+         break;
+      case REMINDER:
+         if (!(oldValue == null && newValue != null)) {
+            throw new IllegalArgumentException(
+                  "REMINDER requires oldValue to be null and newValue not to be null");
+         }
+         break;
       default:
       }
    }
@@ -110,6 +296,12 @@ public class ServerCommand implements Serializable {
          out.writeUTF("notnull");
          out.writeObject(newValue);
       }
+      if (argument == null) {
+         out.writeUTF("null");
+      } else {
+         out.writeUTF("notnull");
+         out.writeObject(argument);
+      }
    }
 
    /**
@@ -131,17 +323,32 @@ public class ServerCommand implements Serializable {
       } else {
          this.newValue = (CalendarEntry) in.readObject();
       }
+      obj = in.readUTF();
+      if (obj.equals("null")) {
+         this.argument = null;
+      } else {
+         this.argument = (Serializable) in.readObject();
+      }
+      if (command == null) {
+         throw new InvalidObjectException("Unknown command");
+      }
+      // a command from the network has to be as valid as a constructed one
+      try {
+         validate();
+      } catch (IllegalArgumentException e) {
+         throw new InvalidObjectException(e.getMessage());
+      }
 
    };
 
    /**
     * The string representation of a ServerCommand is
-    * "ServerCommand[command=COMMAND,oldValue=OLD_VALUE,newValue=NEW_VALUE]".
+    * "ServerCommand[command=COMMAND,oldValue=OLD_VALUE,newValue=NEW_VALUE,argument=ARGUMENT]".
     */
    @Override
    public String toString() {
       return "ServerCommand[command=" + command + ",oldValue=" + oldValue
-            + ",newValue=" + newValue + "]";
+            + ",newValue=" + newValue + ",argument=" + argument + "]";
    }
 
    /**
@@ -224,6 +431,14 @@ public class ServerCommand implements Serializable {
       this.newValue = newValue;
    }
 
+   public Serializable getArgument() {
+      return argument;
+   }
+
+   public void setArgument(Serializable argument) {
+      this.argument = argument;
+   }
+
    /**
     * Commands the class {@link ServerCommand} can use.
     * 
@@ -253,7 +468,11 @@ public class ServerCommand implements Serializable {
        */
       MODIFY(3),
       /**
-       * Requests the authenticated users list.
+       * Requests the authenticated users list. The server responds with the
+       * first {@link #SNAPSHOT_PAGE}, or with the page at the
+       * {@link SnapshotCursor} argument. If the argument is the Long version
+       * the client has, the server responds with {@link #NOT_MODIFIED} if
+       * that is the current version.
        * <p>
        * requires both oldValue and newValue to be null
        */
@@ -263,7 +482,180 @@ public class ServerCommand implements Serializable {
        * <p>
        * required both oldValue and newValue to be null
        */
-      HEARTBEAT(5);
+      HEARTBEAT(5),
+      /**
+       * Resumes the session identified by the {@link SessionToken} argument
+       * instead of authenticating with name and password.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      RESUME(6),
+      /**
+       * Sent by the server after a successful authentication or resumption.
+       * Its {@link SessionToken} argument can be used for the next
+       * {@link #RESUME}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      SESSION(7),
+      /**
+       * Sent by the server to the client that issued an {@link #ADD},
+       * {@link #MODIFY} or {@link #REMOVE}. Its Long argument is the version of
+       * the data after the command was executed.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      ACK(8),
+      /**
+       * Requests the changes since the version given by the Long argument. The
+       * server responds with {@link #CHANGES}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      REQUEST_CHANGES(9),
+      /**
+       * Sent by the server in response to {@link #REQUEST_CHANGES} and to all
+       * other sessions of a user whose data changed. Its argument is a
+       * {@link ChangeSet}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      CHANGES(10),
+      /**
+       * Requests the number of entries per day of the range given by the
+       * LocalDate[] argument, holding the first and the last day. The server
+       * responds with {@link #DAY_COUNTS}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      COUNT_BY_DAY(11),
+      /**
+       * Sent by the server in response to {@link #COUNT_BY_DAY}. Its argument
+       * is a {@link DayCounts}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      DAY_COUNTS(12),
+      /**
+       * Requests the entries that overlap <i>newValue</i>. The server responds
+       * with {@link #CONFLICTS}.
+       * <p>
+       * requires oldValue to be null and newValue not to be null
+       */
+      CHECK_CONFLICTS(13),
+      /**
+       * Sent by the server in response to {@link #CHECK_CONFLICTS}, and after
+       * an {@link #ADD} whose entry overlaps others. Its CalendarEntry[]
+       * argument holds the entries that overlap <i>newValue</i>.
+       * <p>
+       * requires oldValue to be null and newValue not to be null
+       */
+      CONFLICTS(14),
+      /**
+       * Searches the names and descriptions of the entries for the
+       * {@link SearchQuery} argument. The server responds with
+       * {@link #SEARCH_RESULT}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      SEARCH(15),
+      /**
+       * Sent by the server in response to {@link #SEARCH}. Its argument is a
+       * {@link SearchResult}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      SEARCH_RESULT(16),
+      /**
+       * Requests the merged busy times of the users of the
+       * {@link FreeBusyQuery} argument. The server responds with
+       * {@link #BUSY_TIMES}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      FREE_BUSY(17),
+      /**
+       * Sent by the server in response to {@link #FREE_BUSY}. Its argument is
+       * a {@link TimeRanges}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      BUSY_TIMES(18),
+      /**
+       * Requests the earliest times all users of the {@link FreeBusyQuery}
+       * argument are free for its duration. The server responds with
+       * {@link #FREE_SLOTS}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      FIND_SLOT(19),
+      /**
+       * Sent by the server in response to {@link #FIND_SLOT}. Its argument is a
+       * {@link TimeRanges} of free gaps, each long enough for the duration.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      FREE_SLOTS(20),
+      /**
+       * Pushed by the server when the reminder of <i>newValue</i> is due.
+       * <i>newValue</i> is the entry, or the occurrence of a series, that is
+       * about to start.
+       * <p>
+       * requires oldValue to be null and newValue not to be null
+       */
+      REMINDER(21),
+      /**
+       * Requests the entries matching the {@link EntryFilter} argument. The
+       * server responds with one or more {@link #FILTERED}.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      REQUEST_FILTERED(22),
+      /**
+       * Sent by the server in response to {@link #REQUEST_FILTERED}. Its
+       * argument is a {@link FilteredEntries} holding the next part of the
+       * matches.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      FILTERED(23),
+      /**
+       * Sent by the server in response to {@link #REQUEST_ALL}. Its argument
+       * is a {@link SnapshotPage} holding the next part of the entries.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      SNAPSHOT_PAGE(24),
+      /**
+       * Sent by the server in response to a {@link #REQUEST_ALL} with the
+       * current version. Its Long argument is that version.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      NOT_MODIFIED(25),
+      /**
+       * Requests the authenticated users list as it is stored by the server.
+       * If the argument is the Long version the client has, the server
+       * responds with {@link #NOT_MODIFIED} if that is the current version.
+       * Otherwise it responds with a {@link #SNAPSHOT_DOWNLOAD} whose Long
+       * argument is the number of bytes that follow as block data, holding the
+       * entries encoded by {@link de.malbertz.calendar2.util.EntryCodec}, or
+       * with the first {@link #SNAPSHOT_PAGE} if the stored data isn't
+       * current. The client has to read the block data right after the
+       * command, before any other object.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      SNAPSHOT_DOWNLOAD(26),
+      /**
+       * Sent by the client right after connecting, before the authentication.
+       * Its String[] argument holds the compressions the client can read. The
+       * server responds with a NEGOTIATE holding the compression it will use,
+       * or none, and from then on sends large commands in {@link Frame}s.
+       * <p>
+       * requires both oldValue and newValue to be null
+       */
+      NEGOTIATE(27);
 
       /** integer representation of the command. Used for Serialization */
       private final int num;
@@ -0,0 +1,58 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+
+/**
+ * This class implements the session token a server issues to an authenticated
+ * client.
+ * <p>
+ * The client presents the token with {@link ServerCommand.Command#RESUME} to
+ * resume its session after the connection dropped without sending its
+ * credentials again. The version is the version of the users data the token
+ * was issued at, so the client can tell if it has to request the data again.
+ * 
+ * @author Michael Albertz
+ *
+ */
+public class SessionToken implements Serializable {
+
+   private static final long serialVersionUID = -2361209766514386427L;
+
+   private final String token;
+   private final long version;
+
+   /**
+    * Creates a new SessionToken.
+    * 
+    * @param token
+    *           the opaque token
+    * @param version
+    *           the version of the users data
+    */
+   public SessionToken(String token, long version) {
+      this.token = token;
+      this.version = version;
+   }
+
+   /**
+    * The string representation of a SessionToken is
+    * "SessionToken[version=VERSION]". The token itself is never printed.
+    */
+   @Override
+   public String toString() {
+      return "SessionToken[version=" + version + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public String getToken() {
+      return token;
+   }
+
+   public long getVersion() {
+      return version;
+   }
+
+}
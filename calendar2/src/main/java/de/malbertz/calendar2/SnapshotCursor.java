@@ -0,0 +1,58 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+
+/**
+ * This class implements the position of a client in the download of all
+ * entries.
+ * <p>
+ * Every {@link SnapshotPage} but the last carries the cursor of the page after
+ * it, which the client sends back with {@link ServerCommand.Command#REQUEST_ALL}
+ * to get that page. A cursor is only valid for the version of the entries it
+ * was issued for, the server starts over if that version is gone.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SnapshotCursor implements Serializable {
+
+   private static final long serialVersionUID = -4410285315722364780L;
+
+   private final long version;
+   private final int offset;
+
+   /**
+    * Creates a new SnapshotCursor.
+    *
+    * @param version
+    *           the version of the downloaded entries
+    * @param offset
+    *           the index of the next entry to send
+    */
+   public SnapshotCursor(long version, int offset) {
+      this.version = version;
+      this.offset = offset;
+   }
+
+   /**
+    * The string representation of a SnapshotCursor is
+    * "SnapshotCursor[version=VERSION,offset=OFFSET]".
+    */
+   @Override
+   public String toString() {
+      return "SnapshotCursor[version=" + version + ",offset=" + offset + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public long getVersion() {
+      return version;
+   }
+
+   public int getOffset() {
+      return offset;
+   }
+
+}
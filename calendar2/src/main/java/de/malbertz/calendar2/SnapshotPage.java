@@ -0,0 +1,97 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+
+import de.malbertz.calendar2.util.EntryCodec;
+
+/**
+ * This class implements a part of all entries of a user.
+ * <p>
+ * The server answers {@link ServerCommand.Command#REQUEST_ALL} with one
+ * {@link ServerCommand.Command#SNAPSHOT_PAGE} at a time, each carrying the
+ * next entries of the same version encoded by {@link EntryCodec}, so neither
+ * side has to hold all entries encoded at once and the client can show the
+ * first entries before the last ones arrived. Every page but the last carries
+ * the {@link SnapshotCursor} to request the page after it.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class SnapshotPage implements Serializable {
+
+   private static final long serialVersionUID = 2795603617190468021L;
+
+   private final long version;
+   private final int offset;
+   private final int total;
+   private final byte[] entries;
+   private final SnapshotCursor next;
+
+   /**
+    * Creates a new SnapshotPage.
+    *
+    * @param version
+    *           the version of the entries
+    * @param offset
+    *           the index of the first entry of this page among all entries
+    * @param total
+    *           the number of all entries
+    * @param entries
+    *           the entries of this page encoded by {@link EntryCodec}
+    * @param next
+    *           the cursor of the next page, null if this is the last page
+    */
+   public SnapshotPage(long version, int offset, int total, byte[] entries,
+         SnapshotCursor next) {
+      this.version = version;
+      this.offset = offset;
+      this.total = total;
+      this.entries = entries;
+      this.next = next;
+   }
+
+   /**
+    * Is this the last page?
+    *
+    * @return is there no page after this one
+    */
+   public boolean isLast() {
+      return next == null;
+   }
+
+   /**
+    * The string representation of a SnapshotPage is
+    * "SnapshotPage[version=VERSION,offset=OFFSET,total=TOTAL,bytes=N,next=NEXT]".
+    */
+   @Override
+   public String toString() {
+      return "SnapshotPage[version=" + version + ",offset=" + offset
+            + ",total=" + total + ",bytes=" + entries.length + ",next=" + next
+            + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public long getVersion() {
+      return version;
+   }
+
+   public int getOffset() {
+      return offset;
+   }
+
+   public int getTotal() {
+      return total;
+   }
+
+   public byte[] getEntries() {
+      return entries;
+   }
+
+   public SnapshotCursor getNext() {
+      return next;
+   }
+
+}
@@ -0,0 +1,100 @@
+package de.malbertz.calendar2;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * This class implements the answer to a {@link FreeBusyQuery}.
+ * <p>
+ * It is sent by the server with {@link ServerCommand.Command#BUSY_TIMES} and
+ * {@link ServerCommand.Command#FREE_SLOTS}. The ranges are sorted, don't
+ * overlap and are stored as pairs of start and exclusive end in one array of
+ * seconds, counted like the local times of the entries from 1970-01-01T00:00.
+ * Users the server doesn't know are left out and listed separately.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class TimeRanges implements Serializable {
+
+   private static final long serialVersionUID = 4209623144582913370L;
+
+   private final FreeBusyQuery query;
+   private final long[] ranges;
+   private final String[] unknownUsers;
+
+   /**
+    * Creates new TimeRanges.
+    *
+    * @param query
+    *           the query that was answered
+    * @param ranges
+    *           the start and end of every range, in seconds
+    * @param unknownUsers
+    *           the users of the query the server doesn't know
+    */
+   public TimeRanges(FreeBusyQuery query, long[] ranges, String[] unknownUsers) {
+      this.query = query;
+      this.ranges = ranges;
+      this.unknownUsers = unknownUsers;
+   }
+
+   /**
+    * Get the number of ranges.
+    *
+    * @return the number of ranges
+    */
+   public int size() {
+      return ranges.length / 2;
+   }
+
+   /**
+    * Get the start of a range.
+    *
+    * @param i
+    *           the index of the range
+    * @return the start
+    */
+   public LocalDateTime getStart(int i) {
+      return LocalDateTime.ofEpochSecond(ranges[2 * i], 0, ZoneOffset.UTC);
+   }
+
+   /**
+    * Get the end of a range.
+    *
+    * @param i
+    *           the index of the range
+    * @return the end, exclusive
+    */
+   public LocalDateTime getEnd(int i) {
+      return LocalDateTime.ofEpochSecond(ranges[2 * i + 1], 0, ZoneOffset.UTC);
+   }
+
+   /**
+    * The string representation of a TimeRanges is
+    * "TimeRanges[query=QUERY,ranges=RANGES,unknownUsers=UNKNOWN]".
+    */
+   @Override
+   public String toString() {
+      return "TimeRanges[query=" + query + ",ranges=" + size()
+            + ",unknownUsers=" + unknownUsers.length + "]";
+   }
+
+   /*
+    * Getters are quite self explanatory.
+    */
+
+   public FreeBusyQuery getQuery() {
+      return query;
+   }
+
+   public long[] getRanges() {
+      return ranges;
+   }
+
+   public String[] getUnknownUsers() {
+      return unknownUsers;
+   }
+
+}
@@ -0,0 +1,109 @@
+package de.malbertz.calendar2.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class implements static methods to compress data with the DEFLATE
+ * algorithm.
+ * <p>
+ * Deflaters and inflaters hold native memory until they are ended and are
+ * expensive to create, so up to {@link #POOL_SIZE} of each are kept and
+ * reused. The methods are thread safe.
+ * 
+ * @author Michael Albertz
+ *
+ */
+public class Compression {
+
+   /** The name of the compression client and server negotiate */
+   public static final String DEFLATE = "deflate";
+   /** The maximum number of pooled deflaters and inflaters each */
+   private static final int POOL_SIZE = Runtime.getRuntime()
+         .availableProcessors();
+   /** Holds the deflaters that aren't in use */
+   private static final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(
+         POOL_SIZE);
+   /** Holds the inflaters that aren't in use */
+   private static final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(
+         POOL_SIZE);
+
+   /**
+    * This method compresses a byte array.
+    * 
+    * @param b
+    *           the bytes to compress
+    * @return the compressed bytes
+    */
+   public static byte[] deflate(byte[] b) {
+      Deflater deflater = deflaters.poll();
+      if (deflater == null) {
+         deflater = new Deflater();
+      }
+      try {
+         deflater.setInput(b);
+         deflater.finish();
+         ByteArrayOutputStream out = new ByteArrayOutputStream(
+               b.length / 4 + 64);
+         byte[] buffer = new byte[4096];
+         while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+         }
+         return out.toByteArray();
+      } finally {
+         deflater.reset();
+         if (!deflaters.offer(deflater)) {
+            deflater.end();
+         }
+      }
+   }
+
+   /**
+    * This method decompresses a byte array.
+    * 
+    * @param b
+    *           the compressed bytes
+    * @param length
+    *           the number of bytes before the compression
+    * @return the decompressed bytes
+    * @throws IOException
+    *            if the bytes aren't compressed data of the specified length
+    */
+   public static byte[] inflate(byte[] b, int length) throws IOException {
+      Inflater inflater = inflaters.poll();
+      if (inflater == null) {
+         inflater = new Inflater();
+      }
+      try {
+         inflater.setInput(b);
+         byte[] result = new byte[length];
+         int off = 0;
+         while (off < length) {
+            int n = inflater.inflate(result, off, length - off);
+            if (n == 0
+                  && (inflater.finished() || inflater.needsInput() || inflater
+                        .needsDictionary())) {
+               throw new IOException("Compressed data ended after " + off
+                     + " of " + length + " bytes");
+            }
+            off += n;
+         }
+         return result;
+      } catch (DataFormatException e) {
+         throw new IOException("Invalid compressed data", e);
+      } finally {
+         inflater.reset();
+         if (!inflaters.offer(inflater)) {
+            inflater.end();
+         }
+      }
+   }
+
+   /** Make the constructor invisible */
+   private Compression() {
+   }
+}
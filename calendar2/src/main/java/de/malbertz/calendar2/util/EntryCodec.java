@@ -0,0 +1,323 @@
+package de.malbertz.calendar2.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import de.malbertz.calendar2.CalendarEntry;
+import de.malbertz.calendar2.Recurrence;
+import de.malbertz.calendar2.Recurrence.Frequency;
+
+/**
+ * This class implements static methods to encode a list of
+ * {@link CalendarEntry} objects in a compact binary format.
+ * <p>
+ * The format is a header of a magic number, the format revision, the version
+ * of the data and the number of entries, followed by the entries. Each entry
+ * is stored as epoch day, start and end as nano of day, name, description and
+ * the {@link Recurrence} of a series and the reminder in seconds. Encodings
+ * of older revisions, which had no recurrences or reminders, can still be
+ * read.
+ * Unlike Java serialization it carries no class descriptors, so it is a lot
+ * smaller and faster to read.
+ *
+ * @author Michael Albertz
+ *
+ */
+public class EntryCodec {
+
+   /** The magic number every encoding starts with */
+   private static final int MAGIC = 0xCA1E2D00;
+   /** The revision of the format */
+   private static final byte REVISION = 3;
+   /** The revision of the format before entries could recur */
+   private static final byte REVISION_1 = 1;
+   /** The revision of the format before entries could remind */
+   private static final byte REVISION_2 = 2;
+   /** Marks a rule without an until date */
+   private static final int NONE = Integer.MIN_VALUE;
+
+   /**
+    * This method encodes the specified entries to a byte array.
+    *
+    * @param version
+    *           the version of the entries
+    * @param entries
+    *           the entries to encode
+    * @return the encoded entries
+    * @throws IOException
+    *            if an entry can't be encoded
+    */
+   public static byte[] encode(long version, Collection<CalendarEntry> entries)
+         throws IOException {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(
+            32 + entries.size() * 64);
+      try (DataOutputStream out = new DataOutputStream(baos)) {
+         write(out, version, entries);
+      }
+      return baos.toByteArray();
+   }
+
+   /**
+    * This method decodes entries from a byte array.
+    *
+    * @param b
+    *           the byte array to decode
+    * @return the decoded snapshot
+    * @throws IOException
+    *            if the byte array isn't a valid encoding
+    */
+   public static Snapshot decode(byte[] b) throws IOException {
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(b))) {
+         return read(in);
+      }
+   }
+
+   /**
+    * This method writes the specified entries to a DataOutput.
+    *
+    * @param out
+    *           the DataOutput to write to
+    * @param version
+    *           the version of the entries
+    * @param entries
+    *           the entries to write
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   public static void write(DataOutput out, long version,
+         Collection<CalendarEntry> entries) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeByte(REVISION);
+      out.writeLong(version);
+      out.writeInt(entries.size());
+      for (CalendarEntry entry : entries) {
+         writeEntry(out, entry);
+      }
+   }
+
+   /**
+    * This method reads entries from a DataInput.
+    *
+    * @param in
+    *           the DataInput to read from
+    * @return the snapshot read
+    * @throws IOException
+    *            if an I/O error occurs or the input isn't a valid encoding
+    */
+   public static Snapshot read(DataInput in) throws IOException {
+      byte revision = readRevision(in);
+      long version = in.readLong();
+      int size = in.readInt();
+      List<CalendarEntry> entries = new ArrayList<CalendarEntry>(size);
+      for (int i = 0; i < size; i++) {
+         entries.add(readEntry(in, revision, true));
+      }
+      return new Snapshot(version, entries);
+   }
+
+   /**
+    * This method reads only the times of the entries from a DataInput: the
+    * date, start, end and recurrence of every entry. The names and
+    * descriptions are skipped without being decoded, so the entries read have
+    * empty ones and no reminder.
+    *
+    * @param in
+    *           the DataInput to read from
+    * @return the snapshot of the times read
+    * @throws IOException
+    *            if an I/O error occurs or the input isn't a valid encoding
+    */
+   public static Snapshot readTimes(DataInput in) throws IOException {
+      byte revision = readRevision(in);
+      long version = in.readLong();
+      int size = in.readInt();
+      List<CalendarEntry> entries = new ArrayList<CalendarEntry>(size);
+      for (int i = 0; i < size; i++) {
+         entries.add(readEntry(in, revision, false));
+      }
+      return new Snapshot(version, entries);
+   }
+
+   /**
+    * This method writes a single entry to a DataOutput.
+    *
+    * @param out
+    *           the DataOutput to write to
+    * @param entry
+    *           the entry to write
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   public static void writeEntry(DataOutput out, CalendarEntry entry)
+         throws IOException {
+      out.writeInt((int) entry.getDate().toEpochDay());
+      out.writeLong(entry.getStartTime().toNanoOfDay());
+      out.writeLong(entry.getEndTime().toNanoOfDay());
+      out.writeUTF(entry.getName());
+      out.writeUTF(entry.getDescription());
+      out.writeLong(entry.getReminder() != null ? entry.getReminder()
+            .getSeconds() : -1);
+      Recurrence recurrence = entry.getRecurrence();
+      if (recurrence == null) {
+         out.writeByte(-1);
+         return;
+      }
+      out.writeByte(recurrence.getFrequency().ordinal());
+      out.writeInt(recurrence.getInterval());
+      out.writeInt(recurrence.getUntil() != null ? (int) recurrence.getUntil()
+            .toEpochDay() : NONE);
+      out.writeInt(recurrence.getCount());
+      out.writeInt(recurrence.getExceptions().size());
+      for (LocalDate exception : recurrence.getExceptions()) {
+         out.writeInt((int) exception.toEpochDay());
+      }
+   }
+
+   /**
+    * This method reads a single entry from a DataInput.
+    *
+    * @param in
+    *           the DataInput to read from
+    * @return the entry read
+    * @throws IOException
+    *            if an I/O error occurs
+    */
+   public static CalendarEntry readEntry(DataInput in) throws IOException {
+      return readEntry(in, REVISION, true);
+   }
+
+   /**
+    * Reads a single entry of the specified revision of the format, without
+    * its name, description and reminder unless the texts are asked for.
+    */
+   private static CalendarEntry readEntry(DataInput in, byte revision,
+         boolean texts) throws IOException {
+      LocalDate date = LocalDate.ofEpochDay(in.readInt());
+      LocalTime start = LocalTime.ofNanoOfDay(in.readLong());
+      LocalTime end = LocalTime.ofNanoOfDay(in.readLong());
+      String name = texts ? in.readUTF() : skipUTF(in);
+      String description = texts ? in.readUTF() : skipUTF(in);
+      CalendarEntry entry = new CalendarEntry(date, start, end, name,
+            description);
+      if (revision > REVISION_2) {
+         long reminder = in.readLong();
+         if (reminder >= 0 && texts) {
+            entry.setReminder(Duration.ofSeconds(reminder));
+         }
+      }
+      if (revision > REVISION_1) {
+         entry.setRecurrence(readRecurrence(in));
+      }
+      return entry;
+   }
+
+   /** Skips a string written by writeUTF and returns an empty one. */
+   private static String skipUTF(DataInput in) throws IOException {
+      for (int left = in.readUnsignedShort(); left > 0;) {
+         int skipped = in.skipBytes(left);
+         if (skipped <= 0) {
+            // skipBytes may stop early, readByte tells the end of the input
+            in.readByte();
+            skipped = 1;
+         }
+         left -= skipped;
+      }
+      return "";
+   }
+
+   /** Reads the rule of an entry, null if it occurs once. */
+   private static Recurrence readRecurrence(DataInput in) throws IOException {
+      byte frequency = in.readByte();
+      if (frequency < 0) {
+         return null;
+      }
+      Frequency[] frequencies = Frequency.values();
+      if (frequency >= frequencies.length) {
+         throw new IOException("Unknown frequency: " + frequency);
+      }
+      int interval = in.readInt();
+      int until = in.readInt();
+      int count = in.readInt();
+      int size = in.readInt();
+      if (size < 0) {
+         throw new IOException("Invalid number of exceptions: " + size);
+      }
+      List<LocalDate> exceptions = new ArrayList<>(Math.min(size, 1024));
+      for (int i = 0; i < size; i++) {
+         exceptions.add(LocalDate.ofEpochDay(in.readInt()));
+      }
+      try {
+         return new Recurrence(frequencies[frequency], interval,
+               until == NONE ? null : LocalDate.ofEpochDay(until), count,
+               exceptions);
+      } catch (IllegalArgumentException e) {
+         throw new IOException("Invalid recurrence", e);
+      }
+   }
+
+   /**
+    * This method reads and checks the header of an encoding.
+    *
+    * @param in
+    *           the DataInput to read from
+    * @return the version of the encoded entries
+    * @throws IOException
+    *            if an I/O error occurs or the header is invalid
+    */
+   public static long readHeader(DataInput in) throws IOException {
+      readRevision(in);
+      return in.readLong();
+   }
+
+   /** Reads the magic number and returns the revision of the format. */
+   private static byte readRevision(DataInput in) throws IOException {
+      if (in.readInt() != MAGIC) {
+         throw new IOException("Not an entry encoding");
+      }
+      byte revision = in.readByte();
+      if (revision < REVISION_1 || revision > REVISION) {
+         throw new IOException("Unknown entry encoding revision: " + revision);
+      }
+      return revision;
+   }
+
+   /** Make the constructor invisible */
+   private EntryCodec() {
+   }
+
+   /**
+    * The entries of an encoding together with their version.
+    *
+    * @author Michael Albertz
+    *
+    */
+   public static class Snapshot {
+      private final long version;
+      private final List<CalendarEntry> entries;
+
+      public Snapshot(long version, List<CalendarEntry> entries) {
+         this.version = version;
+         this.entries = entries;
+      }
+
+      public long getVersion() {
+         return version;
+      }
+
+      public List<CalendarEntry> getEntries() {
+         return entries;
+      }
+   }
+
+}